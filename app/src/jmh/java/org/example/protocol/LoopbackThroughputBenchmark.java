@@ -0,0 +1,81 @@
+package org.example.protocol;
+
+import org.example.network.LowerLayerEndpoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end Sender to Receiver over two {@link LowerLayerEndpoint}s on loopback: real
+ * sockets, the emulated link and both protocol threads. One operation moves
+ * {@code transferSize} bytes; bytes/s is the score times the transfer size.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LoopbackThroughputBenchmark {
+    // Packets per second on the emulated link; high enough that the protocol, not the
+    // link, is the bottleneck
+    private static final int BANDWIDTH = 1_000_000;
+    private static final double DELAY = 0.0005;
+
+    @Param({"65536", "1048576"})
+    public int transferSize;
+
+    @Param({"reno", "cubic", "bbr"})
+    public String congestionControl;
+
+    private Sender sender;
+    private Receiver receiver;
+    private byte[] data;
+    private byte[] readBuffer;
+
+    @Setup
+    public void setup() {
+        LowerLayerEndpoint serverEndpoint = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 0, BANDWIDTH, DELAY);
+        receiver = new Receiver(serverEndpoint);
+        LowerLayerEndpoint clientEndpoint = new LowerLayerEndpoint(null,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), serverEndpoint.getLocalPort()),
+                0, BANDWIDTH, DELAY);
+        sender = new Sender(clientEndpoint, CongestionController.forName(congestionControl, true, true));
+        data = new byte[transferSize];
+        readBuffer = new byte[transferSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        sender.shutdown();
+        receiver.shutdown();
+    }
+
+    @Benchmark
+    public int transfer() {
+        sender.send(data);
+        int total = 0;
+        while (total < transferSize) {
+            int n = receiver.read(readBuffer, total, transferSize - total);
+            if (n < 0) {
+                throw new IllegalStateException("Receiver closed after " + total + " bytes");
+            }
+            total += n;
+        }
+        return total;
+    }
+}
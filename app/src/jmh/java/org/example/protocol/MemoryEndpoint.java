@@ -0,0 +1,92 @@
+package org.example.protocol;
+
+import org.example.network.BufferPool;
+import org.example.network.DatagramEndpoint;
+import org.example.network.PooledBuffer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * In-memory link for benchmarking one side of the protocol without sockets or delay.
+ * Datagrams handed to {@link #deliver(PooledBuffer)} are what the protocol receives;
+ * what it sends goes to a handler, which by default drops it.
+ */
+class MemoryEndpoint implements DatagramEndpoint {
+    private final BufferPool pool = new BufferPool(2048, 256, 8192);
+    private final BlockingQueue<PooledBuffer> inbound = new ArrayBlockingQueue<>(8192);
+    private volatile Consumer<PooledBuffer> onSend = PooledBuffer::release;
+    private volatile boolean shutdown = false;
+
+    void onSend(Consumer<PooledBuffer> onSend) {
+        this.onSend = onSend;
+    }
+
+    void deliver(PooledBuffer lease) {
+        inbound.add(lease);
+    }
+
+    /**
+     * Answers every datagram sent with a cumulative ACK for it, like a receiver that never
+     * loses, reorders or runs out of buffer.
+     */
+    void ackEverything() {
+        int[] noBlocks = new int[0];
+        PacketView packet = new PacketView();
+        onSend(lease -> {
+            packet.wrap(lease.buffer());
+            int connectionId = packet.connectionId();
+            int seqNum = packet.seqNum();
+            lease.release();
+
+            PooledBuffer ack = allocate();
+            PacketView.reserveHeader(ack.buffer());
+            PacketView.putAckPayload(ack.buffer(), 1000, noBlocks, 0);
+            PacketView.writeHeader(ack.buffer(), 0, Packet.Type.ACK, connectionId, seqNum);
+            ack.buffer().flip();
+            deliver(ack);
+        });
+    }
+
+    @Override
+    public PooledBuffer allocate() {
+        return pool.acquire();
+    }
+
+    @Override
+    public void send(PooledBuffer lease) {
+        onSend.accept(lease);
+    }
+
+    @Override
+    public PooledBuffer recvBuffer() {
+        try {
+            while (!shutdown) {
+                PooledBuffer lease = inbound.poll(10, TimeUnit.MILLISECONDS);
+                if (lease != null) {
+                    return lease;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    @Override
+    public double getTransmitDelay() {
+        return 0.0001;
+    }
+
+    @Override
+    public double getPropagationDelay() {
+        return 0.0001;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+}
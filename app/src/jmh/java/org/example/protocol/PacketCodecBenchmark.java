@@ -0,0 +1,75 @@
+package org.example.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding one packet: the allocating {@link Packet#toBytes()} and
+ * {@link Packet#fromBytes(byte[])} against the flyweight {@link PacketView} the
+ * send and receive paths use.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketCodecBenchmark {
+    @Param({"0", "100", "1400"})
+    public int payloadSize;
+
+    private Packet packet;
+    private byte[] encoded;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(2048);
+    private final PacketView view = new PacketView();
+    private byte[] payloadCopy;
+
+    @Setup
+    public void setup() {
+        byte[] data = new byte[payloadSize];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        packet = new Packet(Packet.Type.DATA, 42, 1234, data);
+        encoded = packet.toBytes();
+        payloadCopy = new byte[payloadSize];
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return packet.toBytes();
+    }
+
+    @Benchmark
+    public Packet fromBytes() {
+        return Packet.fromBytes(encoded);
+    }
+
+    @Benchmark
+    public ByteBuffer viewEncode() {
+        buffer.clear();
+        PacketView.encode(buffer, Packet.Type.DATA, 42, 1234, packet.getData());
+        return buffer;
+    }
+
+    @Benchmark
+    public int viewDecode() {
+        buffer.clear();
+        buffer.put(encoded).flip();
+        view.wrap(buffer);
+        view.copyPayload(payloadCopy, 0);
+        return view.seqNum() + view.connectionId();
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.protocol;
+
+import org.example.network.PooledBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Receiver} reassembly: a batch of segments arrives in order or with every pair
+ * swapped, and is read back by the application. Swapped pairs exercise the out-of-order
+ * slots, immediate ACKs and SACK blocks. Scores are per segment.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReceiverBenchmark {
+    private static final int BATCH = 64;
+    private static final int CONNECTION_ID = 7;
+
+    @Param({"inOrder", "reordered"})
+    public String arrival;
+
+    private MemoryEndpoint endpoint;
+    private Receiver receiver;
+    private final byte[] payload = new byte[Packet.MAX_DATA_SIZE];
+    private final byte[] readBuffer = new byte[BATCH * Packet.MAX_DATA_SIZE];
+    private final int[] order = new int[BATCH];
+    private int nextSeq = 1;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < BATCH; i++) {
+            order[i] = arrival.equals("reordered") ? i ^ 1 : i;
+        }
+        endpoint = new MemoryEndpoint();
+        receiver = new Receiver(endpoint, 2, TimeUnit.MILLISECONDS.toNanos(20), 1 << 20,
+                TimerWheel.getDefault());
+        endpoint.deliver(packet(Packet.Type.SYN, 0, new byte[0]));
+    }
+
+    @TearDown
+    public void tearDown() {
+        receiver.shutdown();
+    }
+
+    private PooledBuffer packet(Packet.Type type, int seqNum, byte[] data) {
+        PooledBuffer lease = endpoint.allocate();
+        PacketView.encode(lease.buffer(), type, CONNECTION_ID, seqNum, data);
+        lease.buffer().flip();
+        return lease;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int reassemble() {
+        for (int i = 0; i < BATCH; i++) {
+            endpoint.deliver(packet(Packet.Type.DATA, nextSeq + order[i], payload));
+        }
+        nextSeq += BATCH;
+
+        int total = 0;
+        while (total < readBuffer.length) {
+            int n = receiver.read(readBuffer, total, readBuffer.length - total);
+            if (n < 0) {
+                throw new IllegalStateException("Receiver closed after " + total + " bytes");
+            }
+            total += n;
+        }
+        return total;
+    }
+}
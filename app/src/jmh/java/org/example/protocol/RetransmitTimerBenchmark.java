@@ -0,0 +1,69 @@
+package org.example.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restarting a retransmission timer on every transmit, the way Sender does: a fresh
+ * java.util.Timer per transmit, each with its own thread, against rearming one timeout
+ * on a shared {@link TimerWheel}. Neither timer ever fires.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RetransmitTimerBenchmark {
+    private static final long RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private TimerWheel wheel;
+    private TimerService.Timeout timeout;
+    private Timer timer;
+
+    @Setup
+    public void setup() {
+        wheel = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(1), 512);
+        timeout = wheel.newTimeout(() -> { });
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (timer != null) {
+            timer.cancel();
+        }
+        timeout.cancel();
+        wheel.shutdown();
+    }
+
+    @Benchmark
+    public void timerPerTransmit() {
+        if (timer != null) {
+            timer.cancel();
+        }
+        timer = new Timer();
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+            }
+        }, TimeUnit.NANOSECONDS.toMillis(RTO_NANOS));
+    }
+
+    @Benchmark
+    public void sharedWheel() {
+        timeout.rearm(RTO_NANOS);
+    }
+}
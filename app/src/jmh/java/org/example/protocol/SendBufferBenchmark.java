@@ -0,0 +1,167 @@
+package org.example.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Multi-threaded writes into the sender's buffer while an ACK thread keeps the state lock
+ * busy: the old Semaphore + monitor scheme against the SPSC ring and non-blocking kick
+ * Sender uses now. Each invocation runs every producer to completion, so scores are per
+ * write across all producers.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendBufferBenchmark {
+    private static final int CAPACITY = 5000;
+    private static final int PRODUCERS = 2;
+    private static final int WRITES_PER_PRODUCER = 200_000;
+    // Time the ACK thread spends per pass with the state lock held, standing in for handleAck
+    private static final long ACK_WORK_NANOS = 2_000;
+    // Time spent handing newly written segments to the lower layer, also under the state lock
+    private static final long TRANSMIT_WORK_NANOS = 200;
+
+    @Param({"monitor", "ring"})
+    public String scheme;
+
+    private interface Buffer {
+        void write(Object segment) throws InterruptedException;
+
+        /** One pass of ACK processing: acknowledge everything written so far. */
+        void ack();
+    }
+
+    /** The previous Sender structure: a permit per slot and one monitor for everything. */
+    private static class MonitorBuffer implements Buffer {
+        private final Object[] slots = new Object[CAPACITY];
+        private final Semaphore free = new Semaphore(CAPACITY);
+        private int written = 0;
+        private int acked = 0;
+        private int sent = 0;
+
+        @Override
+        public void write(Object segment) throws InterruptedException {
+            free.acquire();
+            synchronized (this) {
+                written++;
+                slots[written % CAPACITY] = segment;
+                spin(TRANSMIT_WORK_NANOS);
+                sent = written;
+            }
+        }
+
+        @Override
+        public synchronized void ack() {
+            spin(ACK_WORK_NANOS);
+            int released = sent - acked;
+            for (int seq = acked + 1; seq <= sent; seq++) {
+                slots[seq % CAPACITY] = null;
+            }
+            acked = sent;
+            free.release(released);
+        }
+    }
+
+    /** The current Sender structure: SPSC ring, write lock for producers, tryLock kick. */
+    private static class RingBuffer implements Buffer {
+        private final SendBuffer<Object> ring = new SendBuffer<>(CAPACITY, 1);
+        private final Object writeLock = new Object();
+        private final ReentrantLock stateLock = new ReentrantLock();
+        private volatile boolean workPending = false;
+        private int sent = 0;
+
+        @Override
+        public void write(Object segment) throws InterruptedException {
+            synchronized (writeLock) {
+                int seq = ring.claim();
+                ring.publish(seq, segment);
+            }
+            kick();
+        }
+
+        private void kick() {
+            workPending = true;
+            while (workPending && stateLock.tryLock()) {
+                try {
+                    workPending = false;
+                    spin(TRANSMIT_WORK_NANOS);
+                    sent = ring.getPublished();
+                } finally {
+                    stateLock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public void ack() {
+            stateLock.lock();
+            try {
+                spin(ACK_WORK_NANOS);
+                sent = ring.getPublished();
+                ring.release(sent);
+            } finally {
+                stateLock.unlock();
+            }
+            if (workPending) {
+                kick();
+            }
+        }
+    }
+
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PRODUCERS * WRITES_PER_PRODUCER)
+    public void write() throws InterruptedException {
+        Buffer buffer = scheme.equals("ring") ? new RingBuffer() : new MonitorBuffer();
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            producers[p] = new Thread(() -> {
+                Object segment = new Object();
+                try {
+                    for (int i = 0; i < WRITES_PER_PRODUCER; i++) {
+                        buffer.write(segment);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        Thread acker = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                buffer.ack();
+            }
+        });
+
+        acker.start();
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        acker.interrupt();
+        acker.join();
+    }
+}
@@ -0,0 +1,56 @@
+package org.example.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Sender#send(byte[])}: cutting application data into segments, publishing them
+ * and transmitting them, with an in-memory peer that ACKs every segment at once so the
+ * window never limits the sender.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SenderBenchmark {
+    @Param({"100", "1400", "65536"})
+    public int writeSize;
+
+    private MemoryEndpoint endpoint;
+    private Sender sender;
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        endpoint = new MemoryEndpoint();
+        endpoint.ackEverything();
+        sender = new Sender(endpoint, new RenoController(true, true));
+        sender.setNoDelay(true);
+        data = new byte[writeSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        sender.shutdown();
+        endpoint.shutdown();
+    }
+
+    @Benchmark
+    public void send() {
+        sender.send(data);
+    }
+}
@@ -1,11 +1,22 @@
 package org.example;
 
+import org.example.metrics.JmxExporter;
+import org.example.metrics.MetricsHttpServer;
+import org.example.metrics.MetricsRegistry;
+import org.example.network.LinkShaper;
 import org.example.network.LowerLayerEndpoint;
+import org.example.network.QueueDiscipline;
+import org.example.protocol.CongestionController;
 import org.example.protocol.Sender;
+import org.example.trace.FlightRecorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
 
 public class Client {
     private static final Logger logger = LoggerFactory.getLogger(Client.class);
@@ -13,17 +24,32 @@ public class Client {
     public static void main(String[] args) {
         if (args.length < 2) {
             System.err.println("Usage: java Client -p <port> [-h <hostname>] [-q <queue_size>] " +
-                    "[-b <bandwidth>] [-d <delay>] [-s] [-f]");
+                    "[-aqm <fifo|red|codel>] [-prio] [-b <bandwidth>] [-B <rate, e.g. 100Mbps>] [-d <delay>] " +
+                    "[-s] [-f] [-cc <reno|cubic|bbr>] [-pace] [-nd] [-sb <send_buffer_bytes>] [-file <path>] " +
+                    "[-resume <session_id>] [-metrics <port>] [-jmx] [-trace <file>] [-jfr]");
             System.exit(1);
         }
 
         String hostname = "127.0.0.1";
         int port = 0;
         int queueSize = 0;
+        String queueDiscipline = "fifo";
+        boolean prioritizeControl = false;
         int bandwidth = 1;
+        double byteRate = 0;
+        int metricsPort = -1;
+        boolean useJmx = false;
+        String traceFile = null;
+        boolean useJfr = false;
         double delay = 1.0;
         boolean useSlowStart = false;
         boolean useFastRetransmit = false;
+        String congestionControl = "reno";
+        boolean usePacing = false;
+        boolean noDelay = false;
+        int sendBufferSize = Sender.DEFAULT_MAX_SEND_BUFFER_SIZE;
+        String sendFile = null;
+        long sessionId = 0;
 
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
@@ -36,9 +62,30 @@ public class Client {
                 case "-q":
                     queueSize = Integer.parseInt(args[++i]);
                     break;
+                case "-aqm":
+                    queueDiscipline = args[++i];
+                    break;
+                case "-prio":
+                    prioritizeControl = true;
+                    break;
                 case "-b":
                     bandwidth = Integer.parseInt(args[++i]);
                     break;
+                case "-B":
+                    byteRate = LinkShaper.parseRate(args[++i]);
+                    break;
+                case "-metrics":
+                    metricsPort = Integer.parseInt(args[++i]);
+                    break;
+                case "-jmx":
+                    useJmx = true;
+                    break;
+                case "-trace":
+                    traceFile = args[++i];
+                    break;
+                case "-jfr":
+                    useJfr = true;
+                    break;
                 case "-d":
                     delay = Double.parseDouble(args[++i]);
                     break;
@@ -48,31 +95,107 @@ public class Client {
                 case "-f":
                     useFastRetransmit = true;
                     break;
+                case "-cc":
+                    congestionControl = args[++i];
+                    break;
+                case "-pace":
+                    usePacing = true;
+                    break;
+                case "-nd":
+                    noDelay = true;
+                    break;
+                case "-sb":
+                    sendBufferSize = Integer.parseInt(args[++i]);
+                    break;
+                case "-file":
+                    sendFile = args[++i];
+                    break;
+                case "-resume":
+                    sessionId = Long.parseUnsignedLong(args[++i], 16);
+                    break;
             }
         }
+        double bytesPerSecond = byteRate > 0 ? byteRate : (double) bandwidth * LowerLayerEndpoint.NOMINAL_PACKET_SIZE;
 
         logger.info("Starting client - connecting to {}:{}", hostname, port);
-        logger.info("Configuration: queue={}, bandwidth={}, delay={}, slowStart={}, fastRetransmit={}",
-                queueSize, bandwidth, delay, useSlowStart, useFastRetransmit);
+        logger.info("Configuration: queue={}, aqm={}, prio={}, bandwidth={} B/s, delay={}, slowStart={}, " +
+                        "fastRetransmit={}, cc={}, pacing={}, noDelay={}, sendBuffer={}, file={}, session={}, " +
+                        "metricsPort={}, jmx={}, trace={}, jfr={}",
+                queueSize, queueDiscipline, prioritizeControl, (long) bytesPerSecond, delay, useSlowStart,
+                useFastRetransmit, congestionControl, usePacing, noDelay, sendBufferSize, sendFile,
+                Long.toHexString(sessionId), metricsPort, useJmx, traceFile, useJfr);
+
+        MetricsHttpServer metricsServer = metricsPort >= 0
+                ? new MetricsHttpServer(MetricsRegistry.getDefault(), metricsPort) : null;
+        if (useJmx) {
+            new JmxExporter(MetricsRegistry.getDefault());
+        }
+        if (traceFile != null) {
+            FlightRecorder.getDefault().dumpOnExit(Path.of(traceFile));
+        }
+        FlightRecorder.getDefault().setJfrEnabled(useJfr);
 
         InetSocketAddress remoteAddress = new InetSocketAddress(hostname, port);
-        LowerLayerEndpoint endpoint = new LowerLayerEndpoint(null, remoteAddress,
-                queueSize, bandwidth, delay);
+        LowerLayerEndpoint endpoint;
+        Sender sender;
+        long start = System.nanoTime();
+        // A resumable session survives the server restarting: a reset connection is opened
+        // again and writes the stream from the start, skipping what the server already has
+        do {
+            endpoint = LowerLayerEndpoint.withByteRate(null, remoteAddress,
+                    QueueDiscipline.forName(queueDiscipline, queueSize, prioritizeControl), bytesPerSecond, delay);
+            CongestionController cc = CongestionController.forName(congestionControl, useSlowStart,
+                    useFastRetransmit);
+            sender = sessionId != 0
+                    ? Sender.resumable(endpoint, cc, usePacing, sessionId) : new Sender(endpoint, cc, usePacing);
 
-        Sender sender = new Sender(endpoint, useSlowStart, useFastRetransmit);
+            sender.setNoDelay(noDelay);
+            sender.setMaxSendBuffer(sendBufferSize);
 
-        int numTransmissions = 500;
-        for (int i = 1; i <= numTransmissions; i++) {
-            String line = String.format("Line%04d\n", i);
-            sender.send(line.getBytes());
-        }
+            int numTransmissions = 500;
+            OutputStream out = sender.getOutputStream();
+            try {
+                if (sendFile != null) {
+                    sender.sendFile(Path.of(sendFile));
+                } else {
+                    for (int i = 1; i <= numTransmissions; i++) {
+                        String line = String.format("Line%04d\n", i);
+                        out.write(line.getBytes());
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (!sender.isReset()) {
+                    logger.error("Failed to write data", e);
+                }
+            }
+            if (sessionId != 0) {
+                logger.info("Session {} resumed at offset {}", Long.toHexString(sessionId), sender.getResumeOffset());
+            }
 
-        logger.info("All data sent. Waiting for completion...");
-        try {
-            Thread.sleep(10000);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            logger.info("All data sent. Waiting for completion...");
+            sender.shutdown();
+            try {
+                if (!sender.awaitTermination(60, TimeUnit.SECONDS)) {
+                    logger.warn("Gave up waiting for the last ACKs");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (sender.isReset()) {
+                logger.warn("Connection {} reset by the server", sender.getConnectionId());
+            }
+        } while (sender.isReset() && sessionId != 0);
+        if (sendFile != null) {
+            long elapsed = System.nanoTime() - start;
+            logger.info("Sent {} in {} ms ({} B/s)", sendFile, elapsed / 1_000_000,
+                    (long) (sender.getBytesAcked() * 1e9 / elapsed));
+        }
+        logger.info("Queue {}", endpoint.getQueueStats());
+        logger.info("RTT {}", sender.getRttHistogram());
+        logger.info("Delivery latency {}", sender.getDeliveryLatency());
+        if (metricsServer != null) {
+            metricsServer.shutdown();
         }
-        sender.shutdown();
     }
 }
\ No newline at end of file
@@ -1,25 +1,73 @@
 package org.example;
 
+import org.example.concurrent.Threads;
+import org.example.metrics.JmxExporter;
+import org.example.metrics.MetricsHttpServer;
+import org.example.metrics.MetricsRegistry;
+import org.example.network.LinkShaper;
 import org.example.network.LowerLayerEndpoint;
+import org.example.network.QueueDiscipline;
+import org.example.protocol.CongestionController;
+import org.example.protocol.ConnectionListener;
 import org.example.protocol.Receiver;
 import org.example.protocol.Sender;
+import org.example.trace.FlightRecorder;
+import org.example.upstream.LoadBalancer;
+import org.example.upstream.Upstream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Proxy acts as an intermediary with its own transport layer.
  * It receives data from a client using one transport connection,
  * and forwards it to a server using another transport connection.
+ * With several servers given by -u, a load balancer picks one per client session.
+ *
+ * By default every session gets an upstream connection of its own, closed when its
+ * client's FIN ends the session. -pool n keeps up to n warm connections per server for
+ * sessions to reuse. A session then returns its connection to the pool without closing it,
+ * so later sessions on that connection continue the same upstream stream: the server sees
+ * their bytes back to back, with no framing between them. Only enable it for servers that
+ * delimit messages themselves.
  */
 public class Proxy {
     private static final Logger logger = LoggerFactory.getLogger(Proxy.class);
+    private static final long REPORT_INTERVAL_MS = 10_000;
+
+    private final ConnectionListener listener;
+    private final List<Upstream> upstreams;
+    private final LoadBalancer loadBalancer;
+    private final int pipelineDepth;
+    private final List<ProxySession> sessions = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param listener      accepts client connections
+     * @param upstreams     servers to forward to, each with its connection pool
+     * @param pipelineDepth chunks in flight within each session
+     */
+    public Proxy(ConnectionListener listener, List<Upstream> upstreams, LoadBalancer loadBalancer,
+                 int pipelineDepth) {
+        this.listener = listener;
+        this.upstreams = upstreams;
+        this.loadBalancer = loadBalancer;
+        this.pipelineDepth = pipelineDepth;
+    }
 
     public static void main(String[] args) {
         if (args.length < 4) {
-            System.err.println("Usage: java Proxy -lp <local_port> -rp <remote_port> " +
-                    "[-rh <remote_hostname>] [-q <queue_size>] [-b <bandwidth>] [-d <delay>] [-s] [-f]");
+            System.err.println("Usage: java Proxy -lp <local_port> (-rp <remote_port> [-rh <remote_hostname>] | " +
+                    "-u <host:port> [-u <host:port> ...]) [-lb <round-robin|least-bytes|hash>] " +
+                    "[-pool <warm_connections>] [-q <queue_size>] [-aqm <fifo|red|codel>] [-prio] " +
+                    "[-b <bandwidth>] [-B <rate, e.g. 100Mbps>] [-d <delay>] [-s] [-f] " +
+                    "[-a <ack_every>] [-ad <ack_delay_ms>] [-rb <recv_buffer_bytes>] [-sb <send_buffer_bytes>] " +
+                    "[-cc <reno|cubic|bbr>] [-pace] [-pd <pipeline_depth>] [-metrics <port>] [-jmx] " +
+                    "[-trace <file>] [-jfr]");
             System.exit(1);
         }
 
@@ -27,10 +75,27 @@ public class Proxy {
         String remoteHostname = "127.0.0.1";
         int remotePort = 0;
         int queueSize = 0;
+        String queueDiscipline = "fifo";
+        boolean prioritizeControl = false;
         int bandwidth = 1;
+        double byteRate = 0;
+        int metricsPort = -1;
+        boolean useJmx = false;
+        String traceFile = null;
+        boolean useJfr = false;
         double delay = 1.0;
+        int ackEvery = 1;
+        double ackDelayMs = 20;
+        int recvBufferSize = Receiver.DEFAULT_RECV_BUFFER_SIZE;
+        int sendBufferSize = Sender.DEFAULT_MAX_SEND_BUFFER_SIZE;
         boolean useSlowStart = false;
         boolean useFastRetransmit = false;
+        String congestionControl = "reno";
+        boolean usePacing = false;
+        int pipelineDepth = ProxySession.DEFAULT_DEPTH;
+        List<InetSocketAddress> upstreamAddresses = new ArrayList<>();
+        String balancer = "round-robin";
+        int poolSize = 0;
 
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
@@ -46,47 +111,210 @@ public class Proxy {
                 case "-q":
                     queueSize = Integer.parseInt(args[++i]);
                     break;
+                case "-aqm":
+                    queueDiscipline = args[++i];
+                    break;
+                case "-prio":
+                    prioritizeControl = true;
+                    break;
                 case "-b":
                     bandwidth = Integer.parseInt(args[++i]);
                     break;
+                case "-B":
+                    byteRate = LinkShaper.parseRate(args[++i]);
+                    break;
+                case "-metrics":
+                    metricsPort = Integer.parseInt(args[++i]);
+                    break;
+                case "-jmx":
+                    useJmx = true;
+                    break;
+                case "-trace":
+                    traceFile = args[++i];
+                    break;
+                case "-jfr":
+                    useJfr = true;
+                    break;
                 case "-d":
                     delay = Double.parseDouble(args[++i]);
                     break;
+                case "-a":
+                    ackEvery = Integer.parseInt(args[++i]);
+                    break;
+                case "-ad":
+                    ackDelayMs = Double.parseDouble(args[++i]);
+                    break;
+                case "-rb":
+                    recvBufferSize = Integer.parseInt(args[++i]);
+                    break;
+                case "-sb":
+                    sendBufferSize = Integer.parseInt(args[++i]);
+                    break;
                 case "-s":
                     useSlowStart = true;
                     break;
                 case "-f":
                     useFastRetransmit = true;
                     break;
+                case "-cc":
+                    congestionControl = args[++i];
+                    break;
+                case "-pace":
+                    usePacing = true;
+                    break;
+                case "-pd":
+                    pipelineDepth = Integer.parseInt(args[++i]);
+                    break;
+                case "-u": {
+                    String target = args[++i];
+                    int colon = target.lastIndexOf(':');
+                    upstreamAddresses.add(new InetSocketAddress(target.substring(0, colon),
+                            Integer.parseInt(target.substring(colon + 1))));
+                    break;
+                }
+                case "-lb":
+                    balancer = args[++i];
+                    break;
+                case "-pool":
+                    poolSize = Integer.parseInt(args[++i]);
+                    break;
             }
         }
+        double bytesPerSecond = byteRate > 0 ? byteRate : (double) bandwidth * LowerLayerEndpoint.NOMINAL_PACKET_SIZE;
+
+        if (upstreamAddresses.isEmpty()) {
+            upstreamAddresses.add(new InetSocketAddress(remoteHostname, remotePort));
+        }
 
-        logger.info("Starting proxy - listening on port {}, forwarding to {}:{}",
-                localPort, remoteHostname, remotePort);
-        logger.info("Configuration: queue={}, bandwidth={}, delay={}, slowStart={}, fastRetransmit={}",
-                queueSize, bandwidth, delay, useSlowStart, useFastRetransmit);
+        logger.info("Starting proxy - listening on port {}, forwarding to {}", localPort, upstreamAddresses);
+        logger.info("Configuration: queue={}, aqm={}, prio={}, bandwidth={} B/s, delay={}, slowStart={}, " +
+                        "fastRetransmit={}, ackEvery={}, ackDelayMs={}, recvBuffer={}, sendBuffer={}, cc={}, " +
+                        "pacing={}, pipelineDepth={}, balancer={}, pool={}, threads={}, metricsPort={}, jmx={}, " +
+                        "trace={}, jfr={}",
+                queueSize, queueDiscipline, prioritizeControl, (long) bytesPerSecond, delay, useSlowStart,
+                useFastRetransmit, ackEvery, ackDelayMs, recvBufferSize, sendBufferSize, congestionControl, usePacing,
+                pipelineDepth, balancer, poolSize, Threads.getMode(), metricsPort, useJmx, traceFile, useJfr);
 
-        // Create receiver endpoint to accept client connections
+        MetricsHttpServer metricsServer = metricsPort >= 0
+                ? new MetricsHttpServer(MetricsRegistry.getDefault(), metricsPort) : null;
+        if (useJmx) {
+            new JmxExporter(MetricsRegistry.getDefault());
+        }
+        if (traceFile != null) {
+            FlightRecorder.getDefault().dumpOnExit(Path.of(traceFile));
+        }
+        FlightRecorder.getDefault().setJfrEnabled(useJfr);
+
+        // Accept client connections on one shared socket
         InetSocketAddress clientAddress = new InetSocketAddress(localPort);
-        LowerLayerEndpoint clientEndpoint = new LowerLayerEndpoint(clientAddress, null,
-                queueSize, bandwidth, delay);
-        Receiver receiver = new Receiver(clientEndpoint);
+        LowerLayerEndpoint clientEndpoint = LowerLayerEndpoint.sharedWithByteRate(clientAddress,
+                QueueDiscipline.forName(queueDiscipline, queueSize, prioritizeControl), bytesPerSecond, delay);
+        int segmentsPerAck = ackEvery;
+        long ackDelayNanos = (long) (ackDelayMs * 1_000_000);
+        int bufferSize = recvBufferSize;
+        ConnectionListener listener = new ConnectionListener(clientEndpoint,
+                connection -> new Receiver(connection, segmentsPerAck, ackDelayNanos, bufferSize));
+
+        LoadBalancer loadBalancer = LoadBalancer.forName(balancer);
+        List<Upstream> upstreams = new ArrayList<>();
+        for (InetSocketAddress serverAddress : upstreamAddresses) {
+            int queue = queueSize;
+            String aqm = queueDiscipline;
+            boolean prio = prioritizeControl;
+            double rate = bytesPerSecond;
+            double propagation = delay;
+            String ccName = congestionControl;
+            boolean slowStart = useSlowStart;
+            boolean fastRetransmit = useFastRetransmit;
+            boolean pacing = usePacing;
+            int sendBuffer = sendBufferSize;
+            upstreams.add(new Upstream(serverAddress, () -> {
+                Sender sender = new Sender(
+                        LowerLayerEndpoint.withByteRate(null, serverAddress, QueueDiscipline.forName(aqm, queue, prio),
+                                rate, propagation),
+                        CongestionController.forName(ccName, slowStart, fastRetransmit), pacing);
+                sender.setMaxSendBuffer(sendBuffer);
+                return sender;
+            }, poolSize));
+        }
+
+        Proxy proxy = new Proxy(listener, upstreams, loadBalancer, pipelineDepth);
+        Threads.start("proxy-stats", () -> proxy.report(clientEndpoint));
+
+        logger.info("Proxy ready - forwarding data from clients to server");
+        proxy.run();
+        if (metricsServer != null) {
+            metricsServer.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the next client and starts forwarding its session.
+     */
+    public ProxySession accept() throws InterruptedException {
+        Receiver receiver = listener.accept();
+
+        // Each client session borrows a connection to the chosen server for its lifetime
+        Upstream upstream = loadBalancer.choose(upstreams, receiver.getRemoteAddress());
+        Sender sender = upstream.acquire();
+        logger.info("Accepted connection {} => {} upstream connection {}",
+                receiver.getConnectionId(), upstream, sender.getConnectionId());
 
-        // Create sender endpoint to forward to server
-        InetSocketAddress serverAddress = new InetSocketAddress(remoteHostname, remotePort);
-        LowerLayerEndpoint serverEndpoint = new LowerLayerEndpoint(null, serverAddress,
-                queueSize, bandwidth, delay);
-        Sender sender = new Sender(serverEndpoint, useSlowStart, useFastRetransmit);
+        ProxySession session = new ProxySession(receiver, sender, pipelineDepth, upstream::release);
+        sessions.add(session);
+        return session;
+    }
 
-        logger.info("Proxy ready - forwarding data from client to server");
+    /**
+     * Accepts clients until the calling thread is interrupted, then shuts down.
+     */
+    public void run() {
+        while (true) {
+            try {
+                accept();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        shutdown();
+    }
 
-        // Forward data from client to server
+    /**
+     * Sessions accepted; the periodic report drops those that are done.
+     */
+    public List<ProxySession> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Stops accepting clients and closes every idle upstream connection.
+     */
+    public void shutdown() {
+        listener.shutdown();
+        upstreams.forEach(Upstream::shutdown);
+    }
+
+    /**
+     * Logs forwarding latency and queue depth of every open session, the load on every
+     * upstream and the client-side link queue, now and then.
+     */
+    private void report(LowerLayerEndpoint clientEndpoint) {
         while (true) {
-            byte[] data = receiver.recv();
-            if (data != null) {
-                logger.debug("Proxy forwarding {} bytes", data.length);
-                sender.send(data);
+            try {
+                Thread.sleep(REPORT_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            sessions.removeIf(ProxySession::isDone);
+            for (ProxySession session : sessions) {
+                logger.info("Session {}", session);
+            }
+            for (Upstream upstream : upstreams) {
+                logger.info("Upstream {}: {} sessions, {} idle connections, {} bytes outstanding", upstream,
+                        upstream.getActiveSessions(), upstream.getIdleConnections(), upstream.getOutstandingBytes());
             }
+            logger.info("Client queue {}", clientEndpoint.getQueueStats());
         }
     }
-}
\ No newline at end of file
+}
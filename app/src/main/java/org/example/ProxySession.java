@@ -0,0 +1,266 @@
+package org.example;
+
+import org.example.concurrent.Threads;
+import org.example.metrics.Histogram;
+import org.example.metrics.MetricSource;
+import org.example.metrics.MetricWriter;
+import org.example.metrics.MetricsRegistry;
+import org.example.protocol.Receiver;
+import org.example.protocol.Sender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * One proxied connection, forwarded by two threads: a reader that drains the client-side
+ * {@link Receiver} and a writer that feeds the upstream {@link Sender}.
+ *
+ * They hand off through a fixed set of chunks that circulate between a free queue and a
+ * full queue, so data is read straight into a chunk and written from it, with no per-read
+ * allocation. Writes coalesce into full segments and the sender is flushed only when the
+ * full queue runs dry. When the upstream stalls, every chunk ends up full, the reader waits
+ * for a free one, the receiver's ring fills and its advertised window closes: backpressure
+ * reaches the client instead of piling up in the proxy. Each session's threads are
+ * independent, so many active sessions spread over all carrier threads.
+ *
+ * The session ends when the client's FIN ends the stream: the reader shuts the receiver
+ * down, which frees the connection in its listener, and the writer hands the sender to
+ * {@code onClose} once everything read has been written. It also ends if the upstream
+ * sender fails, reset by a restarted server or never answered: the writer shuts the
+ * receiver down rather than keep acknowledging data that goes nowhere, so the client's
+ * listener answers its next segment with an RST.
+ *
+ * Segments are not passed through as they arrived. Each byte is copied twice on its way:
+ * from the receiver's reassembly ring into a chunk by {@link Receiver#read}, then from the
+ * chunk into the sender's pending segment by {@link Sender#write}, and the stream is cut
+ * again into chunks of up to {@link #CHUNK_SIZE} bytes and then into upstream segments
+ * that need not line up with the client's. Handing segments through whole would tie the
+ * upstream segment size and window to the client's and let a stalled upstream pin the
+ * receiver's ring; the copies keep the two connections independent at the cost of two
+ * memcpy passes per byte.
+ */
+public class ProxySession {
+    private static final Logger logger = LoggerFactory.getLogger(ProxySession.class);
+    public static final int DEFAULT_DEPTH = 16;
+    public static final int CHUNK_SIZE = 16 * 1024;
+    // How often an idle writer checks whether the upstream sender has failed
+    private static final long FAILURE_CHECK_MILLIS = 100;
+
+    private static final class Chunk {
+        final byte[] data = new byte[CHUNK_SIZE];
+        int length;
+        long enqueuedAt;
+    }
+
+    // Tells the writer the client is done
+    private static final Chunk END = new Chunk();
+
+    private final Receiver receiver;
+    private final Sender sender;
+    private final Consumer<Sender> onClose;
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> full;
+    private final Thread readThread;
+    private final Thread writeThread;
+
+    private final AtomicLong bytesForwarded = new AtomicLong();
+    private final Histogram latency = new Histogram();
+    private volatile int maxQueueDepth = 0;
+    private volatile boolean upstreamFailed = false;
+    private final MetricSource metrics = new Metrics();
+
+    public ProxySession(Receiver receiver, Sender sender) {
+        this(receiver, sender, DEFAULT_DEPTH);
+    }
+
+    public ProxySession(Receiver receiver, Sender sender, int depth) {
+        this(receiver, sender, depth, Sender::shutdown);
+    }
+
+    /**
+     * Starts forwarding at once.
+     *
+     * @param depth   number of chunks in flight between reader and writer
+     * @param onClose given the sender once the client is done, e.g. to return it to a pool
+     */
+    public ProxySession(Receiver receiver, Sender sender, int depth, Consumer<Sender> onClose) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be positive: " + depth);
+        }
+        this.receiver = receiver;
+        this.sender = sender;
+        this.onClose = onClose;
+        this.free = new ArrayBlockingQueue<>(depth);
+        this.full = new ArrayBlockingQueue<>(depth + 1);
+        for (int i = 0; i < depth; i++) {
+            free.add(new Chunk());
+        }
+        int id = receiver.getConnectionId();
+        this.writeThread = Threads.start("proxy-write-" + id, this::writeLoop);
+        this.readThread = Threads.start("proxy-read-" + id, this::readLoop);
+        MetricsRegistry.getDefault().register(metrics);
+    }
+
+    private void readLoop() {
+        try {
+            while (true) {
+                Chunk chunk = free.take();
+                int n = receiver.read(chunk.data, 0, chunk.data.length);
+                if (n < 0) {
+                    free.put(chunk);
+                    break;
+                }
+                chunk.length = n;
+                chunk.enqueuedAt = System.nanoTime();
+                full.put(chunk);
+                int depth = full.size();
+                if (depth > maxQueueDepth) {
+                    maxQueueDepth = depth;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            receiver.shutdown();
+            full.offer(END);
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Chunk chunk = full.poll();
+                if (chunk == null) {
+                    // Nothing more queued: push out the partial segment instead of holding it
+                    sender.flush();
+                    // An idle client sends nothing that would reveal a failure, so look for one while waiting
+                    while (chunk == null && !sender.isFailed()) {
+                        chunk = full.poll(FAILURE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                }
+                if (chunk == END) break;
+
+                if (chunk != null) {
+                    sender.write(ByteBuffer.wrap(chunk.data, 0, chunk.length));
+                }
+                if (sender.isFailed()) {
+                    logger.warn("Session {} lost upstream connection {}", receiver.getConnectionId(),
+                            sender.getConnectionId());
+                    upstreamFailed = true;
+                    receiver.shutdown();
+                    if (chunk != null) {
+                        // The reader may be waiting for this chunk before it sees the receiver is gone
+                        free.put(chunk);
+                    }
+                    break;
+                }
+                long elapsed = System.nanoTime() - chunk.enqueuedAt;
+                bytesForwarded.addAndGet(chunk.length);
+                latency.record(elapsed);
+                logger.debug("Proxy forwarded {} bytes in {} us, {} queued",
+                        chunk.length, elapsed / 1000, full.size());
+                free.put(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            onClose.accept(sender);
+            MetricsRegistry.getDefault().unregister(metrics);
+            logger.info("Session {} closed: {}", receiver.getConnectionId(), this);
+        }
+    }
+
+    /**
+     * Waits for the client to finish and everything read to be handed to the sender.
+     *
+     * @return true if the session finished within the timeout
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return readThread.join(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())))
+                && writeThread.join(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+    }
+
+    public boolean isDone() {
+        return !writeThread.isAlive();
+    }
+
+    /**
+     * Whether the session ended because its upstream sender failed, dropping what the
+     * client had sent after that.
+     */
+    public boolean isUpstreamFailed() {
+        return upstreamFailed;
+    }
+
+    public long getBytesForwarded() {
+        return bytesForwarded.get();
+    }
+
+    /**
+     * Chunks read from the client and not yet written upstream.
+     */
+    public int getQueueDepth() {
+        return full.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * Mean time from a chunk being read to it being taken by the sender, in nanoseconds.
+     */
+    public long getMeanLatencyNanos() {
+        return (long) latency.getMean();
+    }
+
+    public long getMaxLatencyNanos() {
+        return latency.getMax();
+    }
+
+    /**
+     * Time from each chunk being read to it being taken by the sender, in nanoseconds.
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d -> %d: %d bytes, latency mean %d us max %d us, queue %d (max %d)",
+                receiver.getConnectionId(), sender.getConnectionId(), getBytesForwarded(),
+                getMeanLatencyNanos() / 1000, getMaxLatencyNanos() / 1000, getQueueDepth(), getMaxQueueDepth());
+    }
+
+    private final class Metrics implements MetricSource {
+        @Override
+        public String metricType() {
+            return "proxy_session";
+        }
+
+        @Override
+        public String metricId() {
+            return Integer.toString(receiver.getConnectionId());
+        }
+
+        @Override
+        public void collect(MetricWriter writer) {
+            writer.counter("bytes_forwarded", "Bytes handed from the client to the upstream sender",
+                    getBytesForwarded());
+            writer.gauge("queue_depth", "Chunks read from the client and not yet written upstream",
+                    getQueueDepth());
+            writer.gauge("queue_depth_max", "Most chunks ever waiting between reader and writer",
+                    getMaxQueueDepth());
+            writer.histogram("forward_latency_seconds", "Time from a chunk being read to the sender taking it",
+                    latency);
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package org.example;
 
+import org.example.concurrent.Threads;
+import org.example.metrics.JmxExporter;
+import org.example.metrics.MetricsHttpServer;
+import org.example.metrics.MetricsRegistry;
+import org.example.network.LinkShaper;
 import org.example.network.LowerLayerEndpoint;
+import org.example.network.QueueDiscipline;
+import org.example.protocol.ConnectionListener;
 import org.example.protocol.Receiver;
+import org.example.trace.FlightRecorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
 
 public class Server {
     private static final Logger logger = LoggerFactory.getLogger(Server.class);
@@ -13,15 +22,28 @@ public class Server {
     public static void main(String[] args) {
         if (args.length < 2) {
             System.err.println("Usage: java Server -p <port> [-h <hostname>] [-q <queue_size>] " +
-                    "[-b <bandwidth>] [-d <delay>]");
+                    "[-aqm <fifo|red|codel>] [-prio] [-b <bandwidth>] [-B <rate, e.g. 100Mbps>] [-d <delay>] " +
+                    "[-a <ack_every>] [-ad <ack_delay_ms>] [-rb <recv_buffer_bytes>] [-o <session_dir>] " +
+                    "[-metrics <port>] [-jmx] [-trace <file>] [-jfr]");
             System.exit(1);
         }
 
         String hostname = "";
         int port = 0;
         int queueSize = 0;
+        String queueDiscipline = "fifo";
+        boolean prioritizeControl = false;
         int bandwidth = 1;
+        double byteRate = 0;
+        int metricsPort = -1;
+        boolean useJmx = false;
+        String traceFile = null;
+        boolean useJfr = false;
         double delay = 1.0;
+        int ackEvery = 1;
+        double ackDelayMs = 20;
+        int recvBufferSize = Receiver.DEFAULT_RECV_BUFFER_SIZE;
+        String sessionDir = null;
 
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
@@ -34,29 +56,106 @@ public class Server {
                 case "-q":
                     queueSize = Integer.parseInt(args[++i]);
                     break;
+                case "-aqm":
+                    queueDiscipline = args[++i];
+                    break;
+                case "-prio":
+                    prioritizeControl = true;
+                    break;
                 case "-b":
                     bandwidth = Integer.parseInt(args[++i]);
                     break;
+                case "-B":
+                    byteRate = LinkShaper.parseRate(args[++i]);
+                    break;
+                case "-metrics":
+                    metricsPort = Integer.parseInt(args[++i]);
+                    break;
+                case "-jmx":
+                    useJmx = true;
+                    break;
+                case "-trace":
+                    traceFile = args[++i];
+                    break;
+                case "-jfr":
+                    useJfr = true;
+                    break;
                 case "-d":
                     delay = Double.parseDouble(args[++i]);
                     break;
+                case "-a":
+                    ackEvery = Integer.parseInt(args[++i]);
+                    break;
+                case "-ad":
+                    ackDelayMs = Double.parseDouble(args[++i]);
+                    break;
+                case "-rb":
+                    recvBufferSize = Integer.parseInt(args[++i]);
+                    break;
+                case "-o":
+                    sessionDir = args[++i];
+                    break;
             }
         }
+        double bytesPerSecond = byteRate > 0 ? byteRate : (double) bandwidth * LowerLayerEndpoint.NOMINAL_PACKET_SIZE;
 
         logger.info("Starting server on {}:{}", hostname.isEmpty() ? "0.0.0.0" : hostname, port);
-        logger.info("Configuration: queue={}, bandwidth={}, delay={}", queueSize, bandwidth, delay);
+        logger.info("Configuration: queue={}, aqm={}, prio={}, bandwidth={} B/s, delay={}, ackEvery={}, " +
+                        "ackDelayMs={}, recvBuffer={}, sessions={}, threads={}, metricsPort={}, jmx={}, trace={}, " +
+                        "jfr={}",
+                queueSize, queueDiscipline, prioritizeControl, (long) bytesPerSecond, delay, ackEvery, ackDelayMs,
+                recvBufferSize, sessionDir, Threads.getMode(), metricsPort, useJmx, traceFile, useJfr);
+
+        MetricsHttpServer metricsServer = metricsPort >= 0
+                ? new MetricsHttpServer(MetricsRegistry.getDefault(), metricsPort) : null;
+        if (useJmx) {
+            new JmxExporter(MetricsRegistry.getDefault());
+        }
+        if (traceFile != null) {
+            FlightRecorder.getDefault().dumpOnExit(Path.of(traceFile));
+        }
+        FlightRecorder.getDefault().setJfrEnabled(useJfr);
 
         InetSocketAddress localAddress = new InetSocketAddress(hostname, port);
-        LowerLayerEndpoint endpoint = new LowerLayerEndpoint(localAddress, null,
-                queueSize, bandwidth, delay);
+        LowerLayerEndpoint endpoint = LowerLayerEndpoint.sharedWithByteRate(localAddress,
+                QueueDiscipline.forName(queueDiscipline, queueSize, prioritizeControl), bytesPerSecond, delay);
 
-        Receiver receiver = new Receiver(endpoint);
+        int segmentsPerAck = ackEvery;
+        long ackDelayNanos = (long) (ackDelayMs * 1_000_000);
+        int bufferSize = recvBufferSize;
+        // With a session directory each connection's stream goes to the file its session names,
+        // and resumes from that session's checkpoint journal
+        Path sessionPath = sessionDir != null ? Path.of(sessionDir) : null;
+        ConnectionListener listener = new ConnectionListener(endpoint, connection -> sessionPath == null
+                ? new Receiver(connection, segmentsPerAck, ackDelayNanos, bufferSize)
+                : new Receiver(connection, segmentsPerAck, ackDelayNanos, bufferSize, sessionPath));
 
         while (true) {
-            byte[] data = receiver.recv();
-            if (data != null) {
-                System.out.print(new String(data));
+            try {
+                Receiver receiver = listener.accept();
+                logger.info("Accepted connection {} ({} open)",
+                        receiver.getConnectionId(), listener.getConnectionCount());
+                Threads.start("session-" + receiver.getConnectionId(), () -> serve(receiver));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
         }
+        listener.shutdown();
+        logger.info("Queue {}", endpoint.getQueueStats());
+        if (metricsServer != null) {
+            metricsServer.shutdown();
+        }
+    }
+
+    private static void serve(Receiver receiver) {
+        byte[] data;
+        while ((data = receiver.recv()) != null) {
+            System.out.print(new String(data));
+        }
+        // The client's FIN ends the stream; in receive-to-file mode that is the first recv() to return.
+        // Shutting down closes the output file and frees the connection in the listener
+        receiver.shutdown();
+        logger.info("Connection {} closed after {} bytes", receiver.getConnectionId(), receiver.getBytesDelivered());
     }
 }
\ No newline at end of file
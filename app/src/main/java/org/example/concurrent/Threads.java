@@ -0,0 +1,57 @@
+package org.example.concurrent;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads every component runs on: endpoint forward and delay-line threads,
+ * sender and receiver receive threads, the timer wheel, connection dispatch and the
+ * per-connection sessions in Server and Proxy.
+ *
+ * By default they are virtual threads, so a blocked connection costs a few kilobytes of
+ * heap instead of a platform stack and thousands of connections fit in one JVM. Set the
+ * {@code tplxp.threads} system property to {@code platform} (or call {@link #setMode})
+ * to get daemon platform threads instead, e.g. to compare or to profile with tools that
+ * only see carrier threads.
+ */
+public final class Threads {
+    public enum Mode {
+        VIRTUAL,
+        PLATFORM
+    }
+
+    private static volatile Mode mode = Mode.valueOf(
+            System.getProperty("tplxp.threads", "virtual").toUpperCase());
+
+    private Threads() {
+    }
+
+    public static Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Switches the kind of thread created from now on; threads already running keep theirs.
+     */
+    public static void setMode(Mode mode) {
+        Threads.mode = mode;
+    }
+
+    /**
+     * A factory for threads of the current mode named {@code name-0}, {@code name-1}, ...
+     */
+    public static ThreadFactory factory(String name) {
+        return mode == Mode.VIRTUAL
+                ? Thread.ofVirtual().name(name + "-", 0).factory()
+                : Thread.ofPlatform().name(name + "-", 0).daemon(true).factory();
+    }
+
+    /**
+     * Starts {@code task} on a new thread of the current mode. Platform threads are daemons,
+     * like virtual threads always are.
+     */
+    public static Thread start(String name, Runnable task) {
+        return mode == Mode.VIRTUAL
+                ? Thread.ofVirtual().name(name).start(task)
+                : Thread.ofPlatform().name(name).daemon(true).start(task);
+    }
+}
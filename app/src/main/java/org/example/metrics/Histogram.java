@@ -0,0 +1,152 @@
+package org.example.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of non-negative longs, typically nanoseconds.
+ *
+ * Every power of two is split into eight equal sub-buckets, so a recorded value is known
+ * to within 12.5% from 1 to {@link Long#MAX_VALUE} with a fixed 488 buckets. Recording
+ * finds the bucket from the leading-zero count and does one atomic increment, plus
+ * striped adds for the count and sum, so it is cheap enough to leave on in the hot path
+ * and never blocks a reader or another writer.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one value; negative values count as 0.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(v));
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Largest value that falls into the given bucket.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        return lower + (width - 1);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Value at or below which the given fraction of recorded values fall, rounded up to its
+     * bucket's upper bound; 0 if nothing was recorded.
+     *
+     * @param quantile between 0 and 1, e.g. 0.99
+     */
+    public long getPercentile(double quantile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Number of recorded values no larger than {@code bound}. Exact when {@code bound + 1}
+     * is a power of two or below 8; otherwise counts the whole bucket holding {@code bound}.
+     */
+    public long countAtOrBelow(long bound) {
+        int last = bucketOf(Math.max(0, bound));
+        long n = 0;
+        for (int i = 0; i <= last; i++) {
+            n += counts.get(i);
+        }
+        return n;
+    }
+
+    /**
+     * Cumulative counts at each of the ascending {@code bounds}, as {@link #countAtOrBelow},
+     * followed by the total, all from one pass so they are consistent with each other.
+     */
+    long[] cumulativeCounts(long[] bounds) {
+        long[] snapshot = snapshot();
+        long[] cumulative = new long[bounds.length + 1];
+        long n = 0;
+        int bucket = 0;
+        for (int b = 0; b < bounds.length; b++) {
+            int last = bucketOf(Math.max(0, bounds[b]));
+            for (; bucket <= last; bucket++) {
+                n += snapshot[bucket];
+            }
+            cumulative[b] = n;
+        }
+        for (; bucket < snapshot.length; bucket++) {
+            n += snapshot[bucket];
+        }
+        cumulative[bounds.length] = n;
+        return cumulative;
+    }
+
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count %d, mean %.0f, p50 %d, p99 %d, max %d", getCount(), getMean(),
+                getPercentile(0.5), getPercentile(0.99), getMax());
+    }
+}
@@ -0,0 +1,186 @@
+package org.example.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publishes every source in a {@link MetricsRegistry} as an MBean named
+ * {@code org.example.tplxp:type=<type>,instance=<n>}, registered and unregistered along
+ * with the source.
+ *
+ * Attributes are the source's metrics in CamelCase, plus its {@code Id}. A histogram
+ * becomes {@code <Name>Count}, {@code <Name>MeanNanos}, {@code <Name>P50Nanos},
+ * {@code <Name>P99Nanos} and {@code <Name>MaxNanos}. Values are read from the source
+ * on every attribute access.
+ */
+public class JmxExporter implements MetricsRegistry.Listener {
+    private static final Logger logger = LoggerFactory.getLogger(JmxExporter.class);
+    public static final String DOMAIN = "org.example.tplxp";
+
+    private final MetricsRegistry registry;
+    private final MBeanServer server;
+
+    public JmxExporter(MetricsRegistry registry) {
+        this(registry, ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxExporter(MetricsRegistry registry, MBeanServer server) {
+        this.registry = registry;
+        this.server = server;
+        registry.addListener(this);
+    }
+
+    public static ObjectName objectName(MetricSource source, long instance) {
+        try {
+            return new ObjectName(DOMAIN + ":type=" + source.metricType() + ",instance=" + instance);
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public void registered(MetricSource source, long instance) {
+        ObjectName name = objectName(source, instance);
+        try {
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new SourceMBean(source), name);
+            }
+        } catch (JMException e) {
+            logger.warn("Failed to register MBean {}", name, e);
+        }
+    }
+
+    @Override
+    public void unregistered(MetricSource source, long instance) {
+        ObjectName name = objectName(source, instance);
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.warn("Failed to unregister MBean {}", name, e);
+        }
+    }
+
+    /**
+     * Stops following the registry and removes every MBean this exporter registered.
+     */
+    public void shutdown() {
+        registry.removeListener(this);
+        for (MetricsRegistry.Entry entry : registry.getEntries()) {
+            unregistered(entry.source(), entry.instance());
+        }
+    }
+
+    static String attributeName(String metric) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : metric.split("_")) {
+            if (!part.isEmpty()) {
+                sb.append(Character.toUpperCase(part.charAt(0))).append(part, 1, part.length());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads every attribute of a source in one {@link MetricSource#collect} pass.
+     */
+    private static Map<String, Object> read(MetricSource source) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("Id", source.metricId());
+        source.collect(new MetricWriter() {
+            @Override
+            public void counter(String name, String help, long value) {
+                values.put(attributeName(name), value);
+            }
+
+            @Override
+            public void gauge(String name, String help, double value) {
+                values.put(attributeName(name), value);
+            }
+
+            @Override
+            public void histogram(String name, String help, Histogram histogram) {
+                String base = attributeName(name.endsWith("_seconds")
+                        ? name.substring(0, name.length() - "_seconds".length()) : name);
+                values.put(base + "Count", histogram.getCount());
+                values.put(base + "MeanNanos", histogram.getMean());
+                values.put(base + "P50Nanos", histogram.getPercentile(0.5));
+                values.put(base + "P99Nanos", histogram.getPercentile(0.99));
+                values.put(base + "MaxNanos", histogram.getMax());
+            }
+        });
+        return values;
+    }
+
+    private static final class SourceMBean implements DynamicMBean {
+        private final MetricSource source;
+        private final MBeanInfo info;
+
+        SourceMBean(MetricSource source) {
+            this.source = source;
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            read(source).forEach((name, value) -> attributes.add(new MBeanAttributeInfo(name,
+                    name.equals("Id") ? String.class.getName() : value.getClass().getName(),
+                    name, true, false, false)));
+            this.info = new MBeanInfo(SourceMBean.class.getName(), "Metrics of a " + source.metricType(),
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Map<String, Object> values = read(source);
+            if (!values.containsKey(attribute)) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return values.get(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = read(source);
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.example.metrics;
+
+/**
+ * A component that reports metrics. Values are read only when something scrapes the
+ * {@link MetricsRegistry}, so a source costs nothing between scrapes beyond keeping its
+ * own counters.
+ */
+public interface MetricSource {
+    /**
+     * Kind of component, e.g. {@code sender}; prefixes its metric names and names its MBean type.
+     */
+    String metricType();
+
+    /**
+     * Tells this instance apart from others of its type, e.g. a connection ID or port;
+     * null if not known yet.
+     */
+    String metricId();
+
+    /**
+     * Writes the current value of every metric, in the same order on every call.
+     */
+    void collect(MetricWriter writer);
+}
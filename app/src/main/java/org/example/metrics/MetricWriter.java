@@ -0,0 +1,22 @@
+package org.example.metrics;
+
+/**
+ * Receives the metrics of one {@link MetricSource}. Names are lower_snake_case without
+ * the source type, e.g. {@code packets_sent}; units go in the name, e.g. {@code rtt_seconds}.
+ */
+public interface MetricWriter {
+    /**
+     * A count that only goes up.
+     */
+    void counter(String name, String help, long value);
+
+    /**
+     * A value that can go up and down.
+     */
+    void gauge(String name, String help, double value);
+
+    /**
+     * A distribution of values recorded in nanoseconds, exported in seconds.
+     */
+    void histogram(String name, String help, Histogram histogram);
+}
@@ -0,0 +1,82 @@
+package org.example.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.example.trace.FlightRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves a {@link MetricsRegistry} at {@code /metrics} in Prometheus text format, and a
+ * dump of the default {@link FlightRecorder} at {@code /trace} on demand.
+ *
+ * Binds to the loopback address only; scrapes are rare enough to be served on the
+ * server's own dispatcher thread.
+ */
+public class MetricsHttpServer {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsHttpServer.class);
+
+    private final HttpServer server;
+
+    /**
+     * @param port local port to listen on; 0 for any free port
+     */
+    public MetricsHttpServer(MetricsRegistry registry, int port) {
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            logger.error("Failed to open metrics port {}", port, e);
+            throw new RuntimeException(e);
+        }
+        server.createContext("/metrics", exchange -> serve(exchange, registry));
+        server.createContext("/trace", MetricsHttpServer::serveTrace);
+        server.start();
+        logger.info("Serving metrics at http://{}:{}/metrics", server.getAddress().getHostString(), getPort());
+    }
+
+    private static void serve(HttpExchange exchange, MetricsRegistry registry) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = PrometheusFormat.format(registry).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", PrometheusFormat.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error serving metrics", e);
+            throw e;
+        }
+    }
+
+    private static void serveTrace(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                FlightRecorder.getDefault().dump(out);
+            }
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void shutdown() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,91 @@
+package org.example.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The live {@link MetricSource}s of a process. Senders, receivers, endpoints and proxy
+ * sessions register with {@link #getDefault()} when created and unregister when they
+ * shut down; exporters read whatever is registered when they are scraped.
+ */
+public class MetricsRegistry {
+    /**
+     * Notified as sources come and go, e.g. to keep JMX MBeans in step.
+     */
+    public interface Listener {
+        void registered(MetricSource source, long instance);
+
+        void unregistered(MetricSource source, long instance);
+    }
+
+    /**
+     * A registered source and the number the registry gave it, unique within the registry.
+     */
+    public record Entry(MetricSource source, long instance) {
+    }
+
+    private static final MetricsRegistry defaultRegistry = new MetricsRegistry();
+
+    private final Map<MetricSource, Long> sources = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong nextInstance = new AtomicLong(1);
+
+    public static MetricsRegistry getDefault() {
+        return defaultRegistry;
+    }
+
+    public void register(MetricSource source) {
+        long instance = nextInstance.getAndIncrement();
+        if (sources.putIfAbsent(source, instance) == null) {
+            for (Listener listener : listeners) {
+                listener.registered(source, instance);
+            }
+        }
+    }
+
+    public void unregister(MetricSource source) {
+        Long instance = sources.remove(source);
+        if (instance != null) {
+            for (Listener listener : listeners) {
+                listener.unregistered(source, instance);
+            }
+        }
+    }
+
+    /**
+     * Adds a listener and tells it about every source already registered.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        for (Entry entry : getEntries()) {
+            listener.registered(entry.source(), entry.instance());
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Registered sources ordered by type, then by registration.
+     */
+    public List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>();
+        sources.forEach((source, instance) -> entries.add(new Entry(source, instance)));
+        entries.sort(Comparator.comparing((Entry e) -> e.source().metricType()).thenComparingLong(Entry::instance));
+        return entries;
+    }
+
+    /**
+     * Label that identifies a source: its own ID, or {@code #instance} while it has none.
+     */
+    static String idOf(Entry entry) {
+        String id = entry.source().metricId();
+        return id != null ? id : "#" + entry.instance();
+    }
+}
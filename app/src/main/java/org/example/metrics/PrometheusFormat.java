@@ -0,0 +1,106 @@
+package org.example.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Renders a {@link MetricsRegistry} in the Prometheus text exposition format.
+ *
+ * Metric names are {@code tplxp_<type>_<name>}, counters get the {@code _total} suffix,
+ * and every sample is labelled with the source's {@code id}. Sources of the same type
+ * share one family, so HELP and TYPE appear once however many connections are open.
+ */
+public final class PrometheusFormat {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String PREFIX = "tplxp_";
+    // Histogram buckets at powers of two nanoseconds, from about 1 us to 69 s
+    private static final long[] BUCKET_BOUNDS = new long[27];
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            BUCKET_BOUNDS[i] = (1L << (10 + i)) - 1;
+        }
+    }
+
+    private PrometheusFormat() {
+    }
+
+    private static final class Family {
+        private final String type;
+        private final String help;
+        private final StringBuilder samples = new StringBuilder();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    public static String format(MetricsRegistry registry) {
+        Map<String, Family> families = new LinkedHashMap<>();
+        for (MetricsRegistry.Entry entry : registry.getEntries()) {
+            String prefix = PREFIX + entry.source().metricType() + "_";
+            String labels = "id=\"" + escape(MetricsRegistry.idOf(entry)) + "\"";
+            entry.source().collect(new MetricWriter() {
+                @Override
+                public void counter(String name, String help, long value) {
+                    String family = prefix + name + "_total";
+                    sample(family(families, family, "counter", help), family, labels, value);
+                }
+
+                @Override
+                public void gauge(String name, String help, double value) {
+                    String family = prefix + name;
+                    sample(family(families, family, "gauge", help), family, labels, value);
+                }
+
+                @Override
+                public void histogram(String name, String help, Histogram histogram) {
+                    String family = prefix + name;
+                    Family f = family(families, family, "histogram", help);
+                    long[] cumulative = histogram.cumulativeCounts(BUCKET_BOUNDS);
+                    for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+                        double le = (BUCKET_BOUNDS[i] + 1) / 1e9;
+                        sample(f, family + "_bucket", labels + ",le=\"" + le + "\"", cumulative[i]);
+                    }
+                    long count = cumulative[BUCKET_BOUNDS.length];
+                    sample(f, family + "_bucket", labels + ",le=\"+Inf\"", count);
+                    sample(f, family + "_sum", labels, histogram.getSum() / 1e9);
+                    sample(f, family + "_count", labels, count);
+                }
+            });
+        }
+
+        StringBuilder out = new StringBuilder();
+        families.forEach((name, family) -> {
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            out.append(family.samples);
+        });
+        return out.toString();
+    }
+
+    private static Family family(Map<String, Family> families, String name, String type, String help) {
+        return families.computeIfAbsent(name, n -> new Family(type, help));
+    }
+
+    private static void sample(Family family, String name, String labels, long value) {
+        family.samples.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void sample(Family family, String name, String labels, double value) {
+        family.samples.append(name).append('{').append(labels).append("} ");
+        if (Double.isNaN(value)) {
+            family.samples.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            family.samples.append(value > 0 ? "+Inf" : "-Inf");
+        } else {
+            family.samples.append(value);
+        }
+        family.samples.append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
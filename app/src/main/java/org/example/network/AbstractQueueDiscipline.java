@@ -0,0 +1,214 @@
+package org.example.network;
+
+import org.example.protocol.Packet;
+import org.example.trace.FlightRecorder;
+import org.example.trace.TraceEvent;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Blocking two-band queue that the concrete disciplines build on.
+ *
+ * With control priority on, control datagrams, told apart by the packet type at their
+ * head (see {@link #isControl}), go to a band that is always served first and never
+ * dropped early, so ACKs do not wait behind a standing queue of data. Each band holds up
+ * to the capacity on its own. Everything else is bulk, where subclasses apply their drop
+ * policy through {@link #dropOnEnqueue} and {@link #dequeueBulk}; both run under the
+ * queue's lock.
+ */
+public abstract class AbstractQueueDiscipline implements QueueDiscipline {
+
+    private final String name;
+    private final int capacity;
+    private final boolean prioritizeControl;
+    private final LongSupplier clock;
+    private final PacketRing control = new PacketRing();
+    private final PacketRing bulk = new PacketRing();
+    private long bulkBytes = 0;
+    private long lastSojourn = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private long enqueued = 0;
+    private long forwarded = 0;
+    private long controlForwarded = 0;
+    private long tailDrops = 0;
+    private long aqmDrops = 0;
+    private long totalDelay = 0;
+    private long maxDelay = 0;
+
+    /**
+     * @param capacity datagrams each band may hold before tail drop; 0 for unbounded
+     * @param clock    nanosecond clock used for arrival stamps and drop decisions
+     */
+    protected AbstractQueueDiscipline(String name, int capacity, boolean prioritizeControl, LongSupplier clock) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.prioritizeControl = prioritizeControl;
+        this.clock = clock;
+    }
+
+    @Override
+    public boolean offer(PooledBuffer lease) {
+        int length = lease.buffer().remaining();
+        boolean isControl = prioritizeControl && isControl(lease.buffer());
+        PacketRing band = isControl ? control : bulk;
+        lock.lock();
+        try {
+            if (capacity > 0 && band.size() >= capacity) {
+                tailDrops++;
+                return false;
+            }
+            long now = clock.getAsLong();
+            if (!isControl) {
+                if (dropOnEnqueue(now)) {
+                    aqmDrops++;
+                    return false;
+                }
+                bulkBytes += length;
+            }
+            band.add(lease, now);
+            enqueued++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public PooledBuffer take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                long now = clock.getAsLong();
+                if (control.size() > 0) {
+                    long delay = now - control.headArrival();
+                    controlForwarded++;
+                    return forwarded(control.poll(), delay);
+                }
+                if (bulk.size() > 0) {
+                    PooledBuffer lease = dequeueBulk(now);
+                    if (lease != null) {
+                        return forwarded(lease, lastSojourn);
+                    }
+                    // The policy dropped everything that was waiting
+                    continue;
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a datagram is an ACK, SYN or RST. DATA, however short, is bulk, and so is a
+     * FIN: it is sequenced after the last data segment and would arrive out of order if it
+     * overtook them.
+     */
+    static boolean isControl(ByteBuffer datagram) {
+        if (!datagram.hasRemaining()) {
+            return false;
+        }
+        byte type = datagram.get(datagram.position());
+        return type == Packet.Type.ACK.getValue() || type == Packet.Type.SYN.getValue()
+                || type == Packet.Type.RST.getValue();
+    }
+
+    private PooledBuffer forwarded(PooledBuffer lease, long delay) {
+        forwarded++;
+        totalDelay += delay;
+        maxDelay = Math.max(maxDelay, delay);
+        return lease;
+    }
+
+    /**
+     * Decides whether a bulk datagram arriving at {@code now} is dropped instead of queued.
+     */
+    protected boolean dropOnEnqueue(long now) {
+        return false;
+    }
+
+    /**
+     * Picks the next bulk datagram to forward, dropping any it decides against with
+     * {@link #drop}. Called only while bulk is not empty.
+     *
+     * @return the datagram to forward, or null if every waiting one was dropped
+     */
+    protected PooledBuffer dequeueBulk(long now) {
+        return pollBulk(now);
+    }
+
+    /**
+     * Removes the head of the bulk band and remembers how long it waited.
+     *
+     * @return the head, or null if bulk is empty
+     */
+    protected final PooledBuffer pollBulk(long now) {
+        if (bulk.size() == 0) {
+            return null;
+        }
+        lastSojourn = now - bulk.headArrival();
+        PooledBuffer lease = bulk.poll();
+        bulkBytes -= lease.buffer().remaining();
+        return lease;
+    }
+
+    /**
+     * Time the datagram last returned by {@link #pollBulk} spent in the queue.
+     */
+    protected final long lastSojourn() {
+        return lastSojourn;
+    }
+
+    /**
+     * Discards a datagram taken from bulk and counts it as an AQM drop.
+     */
+    protected final void drop(PooledBuffer lease) {
+        aqmDrops++;
+        FlightRecorder.getDefault().record(TraceEvent.DROP, clock.getAsLong(), 0, bulkSize(),
+                lease.buffer().remaining());
+        lease.release();
+    }
+
+    protected final int bulkSize() {
+        return bulk.size();
+    }
+
+    protected final long bulkBytes() {
+        return bulkBytes;
+    }
+
+    protected final int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return control.size() + bulk.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public QueueStats getStats() {
+        lock.lock();
+        try {
+            return new QueueStats(name, enqueued, forwarded, controlForwarded, tailDrops, aqmDrops,
+                    forwarded == 0 ? 0 : totalDelay / forwarded, maxDelay);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.example.network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of reusable direct buffers for the datagram I/O path.
+ *
+ * Buffers are handed out as {@link PooledBuffer} leases and come back through
+ * {@link PooledBuffer#release()}. The pool only allocates when it runs dry, so once
+ * it has warmed up to the number of packets in flight no buffer is allocated per packet.
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final BlockingQueue<PooledBuffer> free;
+    private final AtomicLong allocated = new AtomicLong();
+
+    public BufferPool(int bufferSize, int preallocate, int maxRetained) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(maxRetained);
+        for (int i = 0; i < Math.min(preallocate, maxRetained); i++) {
+            free.offer(newBuffer());
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Number of buffers allocated over the pool's lifetime, including preallocated ones.
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, allocating one if the pool is empty.
+     */
+    public PooledBuffer acquire() {
+        PooledBuffer buffer = free.poll();
+        if (buffer == null) {
+            buffer = newBuffer();
+        }
+        buffer.buffer().clear();
+        buffer.address(null);
+        return buffer;
+    }
+
+    void release(PooledBuffer buffer) {
+        // Buffers beyond maxRetained are left to the GC rather than blocking the caller.
+        free.offer(buffer);
+    }
+
+    private PooledBuffer newBuffer() {
+        allocated.incrementAndGet();
+        return new PooledBuffer(this, ByteBuffer.allocateDirect(bufferSize));
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.network;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Controlled Delay AQM (RFC 8289).
+ *
+ * CoDel watches how long each datagram waited rather than how many are waiting. Once
+ * every datagram has waited longer than the target for a whole interval, the queue is
+ * standing rather than absorbing a burst, and CoDel starts dropping at the head, more
+ * often the longer the delay persists (interval / sqrt(drops)). Dropping at the head
+ * tells the sender soonest, and spaced single drops keep its window from collapsing
+ * the way a burst of tail drops does.
+ */
+public class CoDelQueue extends AbstractQueueDiscipline {
+    public static final long DEFAULT_TARGET_NANOS = 5_000_000;
+    public static final long DEFAULT_INTERVAL_NANOS = 100_000_000;
+    // Never drop the last full-size datagram: the queue cannot drain any lower
+    private static final int MTU = 1500;
+
+    private final long target;
+    private final long interval;
+
+    private boolean dropping = false;
+    private long firstAboveTime = 0;
+    private long dropNext = 0;
+    private int count = 0;
+    private int lastCount = 0;
+
+    public CoDelQueue(int capacity, boolean prioritizeControl) {
+        this(capacity, prioritizeControl, DEFAULT_TARGET_NANOS, DEFAULT_INTERVAL_NANOS, System::nanoTime);
+    }
+
+    public CoDelQueue(int capacity, boolean prioritizeControl, long targetNanos, long intervalNanos,
+                      LongSupplier clock) {
+        super("codel", capacity, prioritizeControl, clock);
+        this.target = targetNanos;
+        this.interval = intervalNanos;
+    }
+
+    @Override
+    protected PooledBuffer dequeueBulk(long now) {
+        PooledBuffer lease = pollBulk(now);
+        boolean okToDrop = okToDrop(now);
+        if (dropping) {
+            if (!okToDrop) {
+                dropping = false;
+            }
+            while (dropping && now >= dropNext) {
+                drop(lease);
+                count++;
+                lease = pollBulk(now);
+                if (lease == null || !okToDrop(now)) {
+                    dropping = false;
+                } else {
+                    dropNext = controlLaw(dropNext);
+                }
+            }
+        } else if (okToDrop) {
+            drop(lease);
+            lease = pollBulk(now);
+            dropping = true;
+            // Resume near the previous drop rate if the last dropping state ended recently
+            int delta = count - lastCount;
+            count = delta > 1 && now - dropNext < 16 * interval ? delta : 1;
+            dropNext = controlLaw(now);
+            lastCount = count;
+        }
+        return lease;
+    }
+
+    /**
+     * Whether the datagram just polled waited long enough, for long enough, to drop.
+     */
+    private boolean okToDrop(long now) {
+        if (lastSojourn() < target || bulkBytes() <= MTU) {
+            firstAboveTime = 0;
+            return false;
+        }
+        if (firstAboveTime == 0) {
+            firstAboveTime = now + interval;
+            return false;
+        }
+        return now >= firstAboveTime;
+    }
+
+    private long controlLaw(long time) {
+        return time + (long) (interval / Math.sqrt(count));
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.network;
+
+/**
+ * What the protocol layer needs from the link below it: pooled send buffers, datagram
+ * send and receive, and the link's delay characteristics for the initial RTT estimate.
+ */
+public interface DatagramEndpoint {
+    /**
+     * Leases an empty send buffer. Fill it, flip it and pass it to {@link #send(PooledBuffer)}.
+     */
+    PooledBuffer allocate();
+
+    /**
+     * Sends the buffer's remaining bytes as one datagram. The endpoint takes ownership
+     * of the lease and releases it once the datagram is written or dropped.
+     */
+    void send(PooledBuffer lease);
+
+    /**
+     * Receives one datagram, flipped for reading. The caller owns the returned lease and
+     * must release it when done with the contents.
+     *
+     * @return the lease, or null if the endpoint failed or was shut down
+     */
+    PooledBuffer recvBuffer();
+
+    double getTransmitDelay();
+
+    double getPropagationDelay();
+
+    void shutdown();
+}
@@ -0,0 +1,160 @@
+package org.example.network;
+
+import org.example.concurrent.Threads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Emulates propagation delay for packets in flight on a link.
+ *
+ * Every packet is held for the same fixed delay, so release times are monotonic in
+ * arrival order and a plain FIFO ring already is the priority queue: the head is
+ * always the next packet due. A single timer thread waits for the head's release
+ * time and hands it to the sink, giving one thread per link and O(1) offer/poll.
+ * The ring grows on demand up to {@code maxInFlight}; beyond that packets are
+ * dropped like on an overfull wire. A lock and condition rather than the monitor keep
+ * the waiting timer thread from pinning a carrier when it is a virtual thread.
+ */
+public class DelayLine<T> {
+    private static final Logger logger = LoggerFactory.getLogger(DelayLine.class);
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final long delayNanos;
+    private final int maxInFlight;
+    private final Consumer<T> sink;
+
+    private Object[] items = new Object[INITIAL_CAPACITY];
+    private long[] releaseTimes = new long[INITIAL_CAPACITY];
+    private int head = 0;
+    private int size = 0;
+    private long dropped = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private volatile boolean shutdown = false;
+    private final Thread timerThread;
+
+    public DelayLine(double delaySeconds, int maxInFlight, Consumer<T> sink) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.delayNanos = (long) (delaySeconds * 1_000_000_000L);
+        this.maxInFlight = maxInFlight;
+        this.sink = sink;
+
+        timerThread = Threads.start("delay-line", this::run);
+    }
+
+    /**
+     * Puts a packet on the line; it is passed to the sink once the delay has elapsed.
+     *
+     * @return false if the line already holds {@code maxInFlight} packets and this one was dropped
+     */
+    public boolean offer(T item) {
+        lock.lock();
+        try {
+            if (size >= maxInFlight) {
+                dropped++;
+                return false;
+            }
+            if (size == items.length) {
+                grow();
+            }
+            int tail = (head + size) & (items.length - 1);
+            items[tail] = item;
+            releaseTimes[tail] = System.nanoTime() + delayNanos;
+            size++;
+            if (size == 1) {
+                changed.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void grow() {
+        int capacity = items.length << 1;
+        Object[] newItems = new Object[capacity];
+        long[] newReleaseTimes = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            int from = (head + i) & (items.length - 1);
+            newItems[i] = items[from];
+            newReleaseTimes[i] = releaseTimes[from];
+        }
+        items = newItems;
+        releaseTimes = newReleaseTimes;
+        head = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!shutdown) {
+                if (size == 0) {
+                    changed.await();
+                    continue;
+                }
+                long remaining = releaseTimes[head] - System.nanoTime();
+                if (remaining > 0) {
+                    changed.awaitNanos(remaining);
+                    continue;
+                }
+                T item = (T) items[head];
+                items[head] = null;
+                head = (head + 1) & (items.length - 1);
+                size--;
+                return item;
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (!shutdown) {
+            try {
+                T item = take();
+                if (item != null) {
+                    sink.accept(item);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                logger.error("Error releasing delayed packet", e);
+            }
+        }
+    }
+
+    public void shutdown() {
+        if (!shutdown) {
+            shutdown = true;
+            timerThread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.network;
+
+/**
+ * Token bucket that holds outgoing datagrams to a link rate in bytes per second.
+ *
+ * Tokens are bytes and accrue continuously from a nanosecond clock, so a datagram of
+ * {@code n} bytes takes {@code n / rate} seconds to go out, however fast the rate. The
+ * bucket holds five milliseconds of traffic (at least one maximum-size datagram): a
+ * forwarding thread woken late by a coarse park can catch up, and the long-run rate
+ * stays exact.
+ */
+public class LinkShaper {
+    private static final double BURST_NANOS = 5_000_000;
+
+    private final double bytesPerSecond;
+    private final double burst;
+    private double tokens;
+    private long lastRefill = Long.MIN_VALUE;
+
+    /**
+     * @param bytesPerSecond link rate; 0 or less means unlimited
+     * @param maxDatagram    largest datagram that will be shaped
+     */
+    public LinkShaper(double bytesPerSecond, int maxDatagram) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.burst = Math.max(maxDatagram, bytesPerSecond * BURST_NANOS / 1e9);
+        this.tokens = maxDatagram;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return nanoseconds until a datagram of {@code bytes} may leave, 0 if it may leave now
+     */
+    public long delayUntilNext(int bytes, long now) {
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        if (lastRefill != Long.MIN_VALUE) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+        }
+        lastRefill = now;
+        if (tokens >= bytes) {
+            return 0;
+        }
+        return (long) Math.ceil((bytes - tokens) / bytesPerSecond * 1e9);
+    }
+
+    /**
+     * Takes the tokens for a datagram about to be sent.
+     */
+    public void consume(int bytes) {
+        if (bytesPerSecond > 0) {
+            tokens -= bytes;
+        }
+    }
+
+    /**
+     * Parses a rate such as {@code 1500000}, {@code 250kB}, {@code 100Mbps} or {@code 10Gbps}
+     * into bytes per second. A plain number is bytes per second; a {@code bps} suffix means
+     * bits. k, M and G are powers of 1000.
+     */
+    public static double parseRate(String rate) {
+        String s = rate.trim();
+        double unit = 1;
+        if (s.endsWith("bps")) {
+            unit = 1.0 / 8;
+            s = s.substring(0, s.length() - 3);
+        } else if (s.endsWith("B")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        if (s.endsWith("k")) {
+            unit *= 1e3;
+            s = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("M")) {
+            unit *= 1e6;
+            s = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("G")) {
+            unit *= 1e9;
+            s = s.substring(0, s.length() - 1);
+        }
+        try {
+            return Double.parseDouble(s) * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad rate: " + rate, e);
+        }
+    }
+}
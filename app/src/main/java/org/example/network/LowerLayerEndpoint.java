@@ -1,90 +1,241 @@
 package org.example.network;
 
+import org.example.concurrent.Threads;
+import org.example.metrics.MetricSource;
+import org.example.metrics.MetricWriter;
+import org.example.metrics.MetricsRegistry;
+import org.example.trace.FlightRecorder;
+import org.example.trace.TraceEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
-import java.net.SocketException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
-public class LowerLayerEndpoint {
+/**
+ * UDP socket with emulated bandwidth, queueing and propagation delay.
+ *
+ * Bandwidth is a byte rate: each datagram is held for its length over the rate, on a
+ * nanosecond clock, so rates from kB/s to GB/s and mixed packet sizes are emulated
+ * faithfully. The older constructors take full-size packets per second and convert
+ * with {@link #NOMINAL_PACKET_SIZE}.
+ *
+ * Datagrams waiting for the link are ordered and dropped by a {@link QueueDiscipline}:
+ * tail-drop FIFO by default, or CoDel/RED with ACKs sent ahead of data.
+ *
+ * A point-to-point endpoint talks to one peer: the given remote address, or the first
+ * peer it hears from. A shared endpoint serves many peers from one socket: received
+ * leases carry their source address and sends go to the address on the lease.
+ */
+public class LowerLayerEndpoint implements DatagramEndpoint {
     private static final Logger logger = LoggerFactory.getLogger(LowerLayerEndpoint.class);
     private static final int MAX_PACKET_SIZE = 4096;
+    private static final int MAX_IN_FLIGHT = 65536;
+    private static final int POOL_PREALLOCATE = 8;
+    private static final int POOL_MAX_RETAINED = 4096;
+    // Room for a few milliseconds of a Gbps link; the kernel caps this at its own maximum
+    private static final int SOCKET_BUFFER_SIZE = 4 * 1024 * 1024;
+    // Bytes of a full protocol segment, header included
+    public static final int NOMINAL_PACKET_SIZE = 1425;
 
     private final InetSocketAddress localAddress;
-    private InetSocketAddress remoteAddress;
-    private final BlockingQueue<byte[]> queue;
+    private volatile InetSocketAddress remoteAddress;
+    private final QueueDiscipline queue;
     private final double transmitDelay;
+    private final LinkShaper shaper;
     private final double propagationDelay;
-    private DatagramSocket socket;
+    private final DelayLine<PooledBuffer> delayLine;
+    private final BufferPool bufferPool;
+    private final boolean shared;
+    private DatagramChannel channel;
+    private int localPort;
     private volatile boolean shutdown = false;
     private Thread forwardThread;
 
+    // Metrics: striped counters, since a shared endpoint is sent to and read by many threads
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder packetsReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder delayLineDrops = new LongAdder();
+    private final MetricSource metrics;
+
     public LowerLayerEndpoint(InetSocketAddress localAddress, InetSocketAddress remoteAddress,
                               int queueSize, int bandwidth, double propagationDelay) {
+        this(localAddress, remoteAddress, new TailDropQueue(queueSize, false),
+                (double) bandwidth * NOMINAL_PACKET_SIZE, propagationDelay, false);
+    }
+
+    /**
+     * Creates a shared endpoint that is never connected to a single peer.
+     */
+    public LowerLayerEndpoint(InetSocketAddress localAddress, int queueSize, int bandwidth,
+                              double propagationDelay) {
+        this(localAddress, null, new TailDropQueue(queueSize, false), (double) bandwidth * NOMINAL_PACKET_SIZE,
+                propagationDelay, true);
+    }
+
+    /**
+     * Creates a point-to-point endpoint whose link runs at {@code bytesPerSecond}; 0 for unlimited.
+     */
+    public static LowerLayerEndpoint withByteRate(InetSocketAddress localAddress, InetSocketAddress remoteAddress,
+                                                  int queueSize, double bytesPerSecond, double propagationDelay) {
+        return withByteRate(localAddress, remoteAddress, new TailDropQueue(queueSize, false), bytesPerSecond,
+                propagationDelay);
+    }
+
+    /**
+     * Creates a point-to-point endpoint whose link runs at {@code bytesPerSecond} behind the given queue.
+     */
+    public static LowerLayerEndpoint withByteRate(InetSocketAddress localAddress, InetSocketAddress remoteAddress,
+                                                  QueueDiscipline queue, double bytesPerSecond,
+                                                  double propagationDelay) {
+        return new LowerLayerEndpoint(localAddress, remoteAddress, queue, bytesPerSecond, propagationDelay, false);
+    }
+
+    /**
+     * Creates a shared endpoint whose link runs at {@code bytesPerSecond}; 0 for unlimited.
+     */
+    public static LowerLayerEndpoint sharedWithByteRate(InetSocketAddress localAddress, int queueSize,
+                                                        double bytesPerSecond, double propagationDelay) {
+        return sharedWithByteRate(localAddress, new TailDropQueue(queueSize, false), bytesPerSecond,
+                propagationDelay);
+    }
+
+    /**
+     * Creates a shared endpoint whose link runs at {@code bytesPerSecond} behind the given queue.
+     */
+    public static LowerLayerEndpoint sharedWithByteRate(InetSocketAddress localAddress, QueueDiscipline queue,
+                                                        double bytesPerSecond, double propagationDelay) {
+        return new LowerLayerEndpoint(localAddress, null, queue, bytesPerSecond, propagationDelay, true);
+    }
+
+    private LowerLayerEndpoint(InetSocketAddress localAddress, InetSocketAddress remoteAddress,
+                               QueueDiscipline queue, double bytesPerSecond, double propagationDelay,
+                               boolean shared) {
         this.localAddress = localAddress;
+        this.shared = shared;
         this.remoteAddress = remoteAddress;
-        this.queue = queueSize > 0 ? new LinkedBlockingQueue<>(queueSize) : new LinkedBlockingQueue<>();
-        this.transmitDelay = 1.0 / bandwidth;
+        this.queue = queue;
+        this.shaper = new LinkShaper(bytesPerSecond, MAX_PACKET_SIZE);
+        this.transmitDelay = bytesPerSecond > 0 ? NOMINAL_PACKET_SIZE / bytesPerSecond : 0;
         this.propagationDelay = propagationDelay;
+        this.delayLine = new DelayLine<>(propagationDelay, MAX_IN_FLIGHT, this::enqueue);
+        this.bufferPool = new BufferPool(MAX_PACKET_SIZE, POOL_PREALLOCATE, POOL_MAX_RETAINED);
 
         try {
-            socket = new DatagramSocket(localAddress);
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_SIZE);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER_SIZE);
+            channel.bind(localAddress);
             if (remoteAddress != null) {
-                socket.connect(remoteAddress);
+                channel.connect(remoteAddress);
             }
-        } catch (SocketException e) {
+            localPort = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        } catch (IOException e) {
             logger.error("Failed to create socket", e);
             throw new RuntimeException(e);
         }
 
         startForwardThread();
+        metrics = new Metrics();
+        MetricsRegistry.getDefault().register(metrics);
     }
 
+    @Override
     public double getTransmitDelay() {
         return transmitDelay;
     }
 
+    @Override
     public double getPropagationDelay() {
         return propagationDelay;
     }
 
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    /**
+     * Link rate in bytes per second; 0 or less if unlimited.
+     */
+    public double getBytesPerSecond() {
+        return shaper.getBytesPerSecond();
+    }
+
+    public QueueStats getQueueStats() {
+        return queue.getStats();
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    @Override
+    public PooledBuffer allocate() {
+        return bufferPool.acquire();
+    }
+
     public void send(byte[] data) {
-        new Thread(() -> {
-            try {
-                Thread.sleep((long) (propagationDelay * 1000));
-                enqueue(data);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }).start();
+        PooledBuffer lease = bufferPool.acquire();
+        lease.buffer().put(data).flip();
+        send(lease);
     }
 
-    private void enqueue(byte[] data) {
-        if (!queue.offer(data)) {
-            logger.info("\u001B[31mLower layer queue full => dropped packet\u001B[0m");
+    @Override
+    public void send(PooledBuffer lease) {
+        if (!delayLine.offer(lease)) {
+            logger.debug("Lower layer delay line full => dropped packet");
+            FlightRecorder.getDefault().record(TraceEvent.DROP, System.nanoTime(), localPort, -1,
+                    lease.buffer().remaining());
+            delayLineDrops.increment();
+            lease.release();
+        }
+    }
+
+    private void enqueue(PooledBuffer lease) {
+        if (!queue.offer(lease)) {
+            logger.debug("Lower layer queue dropped packet");
+            FlightRecorder.getDefault().record(TraceEvent.DROP, System.nanoTime(), localPort, queue.size(),
+                    lease.buffer().remaining());
+            lease.release();
         }
     }
 
     private void startForwardThread() {
-        forwardThread = new Thread(() -> {
+        forwardThread = Threads.start("endpoint-forward", () -> {
             while (!shutdown) {
+                PooledBuffer lease = null;
                 try {
-                    byte[] data = queue.poll((long) (transmitDelay * 1000), TimeUnit.MILLISECONDS);
-                    if (data != null) {
-                        DatagramPacket packet;
-                        if (remoteAddress != null) {
-                            packet = new DatagramPacket(data, data.length, remoteAddress);
-                        } else {
-                            packet = new DatagramPacket(data, data.length);
-                        }
-                        socket.send(packet);
+                    // Block for the next datagram, then hold it for its time on the link: the rate
+                    // is enforced by awaitTransmission's timed park, not by a poll timeout, which
+                    // rounded to 0 below 1 ms and spun. shutdown() interrupts the wait.
+                    lease = queue.take();
+                    int length = lease.buffer().remaining();
+                    if (!awaitTransmission(length)) {
+                        break;
+                    }
+                    if (lease.address() != null && !channel.isConnected()) {
+                        channel.send(lease.buffer(), lease.address());
+                        packetsSent.increment();
+                        bytesSent.add(length);
+                        logger.debug("Lower layer forwarded packet to {}", lease.address());
+                    } else if (channel.isConnected()) {
+                        channel.write(lease.buffer());
+                        packetsSent.increment();
+                        bytesSent.add(length);
                         logger.debug("Lower layer forwarded packet");
+                    } else {
+                        logger.warn("No remote address yet => dropped packet");
                     }
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -93,29 +244,58 @@ public class LowerLayerEndpoint {
                     if (!shutdown) {
                         logger.error("Error forwarding packet", e);
                     }
+                } finally {
+                    if (lease != null) {
+                        lease.release();
+                    }
                 }
             }
         });
-        forwardThread.setDaemon(true);
-        forwardThread.start();
     }
 
-    public byte[] recv() {
-        try {
-            byte[] buffer = new byte[MAX_PACKET_SIZE];
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-            socket.receive(packet);
-
-            if (remoteAddress == null) {
-                remoteAddress = new InetSocketAddress(packet.getAddress(), packet.getPort());
-                socket.connect(remoteAddress);
+    /**
+     * Holds the forward thread until a datagram of {@code bytes} has been serialized onto
+     * the emulated link. Parks for the gap; a late wakeup is absorbed by the shaper's burst.
+     *
+     * @return false if the endpoint was shut down meanwhile
+     */
+    private boolean awaitTransmission(int bytes) {
+        long wait;
+        while ((wait = shaper.delayUntilNext(bytes, System.nanoTime())) > 0) {
+            LockSupport.parkNanos(wait);
+            if (shutdown) {
+                return false;
             }
+        }
+        shaper.consume(bytes);
+        return true;
+    }
 
-            byte[] data = new byte[packet.getLength()];
-            System.arraycopy(packet.getData(), 0, data, 0, packet.getLength());
+    /**
+     * Receives one datagram into a pooled buffer, flipped for reading. On a shared
+     * endpoint the lease's address is the datagram's source.
+     */
+    @Override
+    public PooledBuffer recvBuffer() {
+        PooledBuffer lease = bufferPool.acquire();
+        ByteBuffer buffer = lease.buffer();
+        try {
+            if (shared) {
+                lease.address((InetSocketAddress) channel.receive(buffer));
+            } else if (remoteAddress == null) {
+                InetSocketAddress source = (InetSocketAddress) channel.receive(buffer);
+                remoteAddress = source;
+                channel.connect(source);
+            } else {
+                channel.read(buffer);
+            }
+            buffer.flip();
+            packetsReceived.increment();
+            bytesReceived.add(buffer.remaining());
             logger.debug("Lower layer received packet");
-            return data;
+            return lease;
         } catch (IOException e) {
+            lease.release();
             if (!shutdown) {
                 logger.error("Error receiving packet", e);
             }
@@ -123,10 +303,63 @@ public class LowerLayerEndpoint {
         }
     }
 
+    public byte[] recv() {
+        PooledBuffer lease = recvBuffer();
+        if (lease == null) {
+            return null;
+        }
+        byte[] data = new byte[lease.buffer().remaining()];
+        lease.buffer().get(data);
+        lease.release();
+        return data;
+    }
+
+    @Override
     public void shutdown() {
         if (!shutdown) {
             shutdown = true;
-            socket.close();
+            delayLine.shutdown();
+            forwardThread.interrupt();
+            MetricsRegistry.getDefault().unregister(metrics);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Error closing channel", e);
+            }
+        }
+    }
+
+    private final class Metrics implements MetricSource {
+        private final String id = Integer.toString(localPort);
+
+        @Override
+        public String metricType() {
+            return "endpoint";
+        }
+
+        @Override
+        public String metricId() {
+            return id;
+        }
+
+        @Override
+        public void collect(MetricWriter writer) {
+            QueueStats stats = queue.getStats();
+            writer.counter("packets_sent", "Datagrams written to the socket", packetsSent.sum());
+            writer.counter("bytes_sent", "Bytes written to the socket", bytesSent.sum());
+            writer.counter("packets_received", "Datagrams read from the socket", packetsReceived.sum());
+            writer.counter("bytes_received", "Bytes read from the socket", bytesReceived.sum());
+            writer.counter("delay_line_drops", "Datagrams dropped because the delay line was full",
+                    delayLineDrops.sum());
+            writer.counter("queue_enqueued", "Datagrams accepted into the link queue", stats.enqueued());
+            writer.counter("queue_tail_drops", "Datagrams refused by a full link queue", stats.tailDrops());
+            writer.counter("queue_aqm_drops", "Datagrams dropped early by active queue management",
+                    stats.aqmDrops());
+            writer.gauge("queue_depth", "Datagrams waiting for the link", queue.size());
+            writer.gauge("queue_delay_mean_seconds", "Mean time forwarded datagrams waited in the queue",
+                    stats.meanDelayNanos() / 1e9);
+            writer.gauge("queue_delay_max_seconds", "Longest time a forwarded datagram waited in the queue",
+                    stats.maxDelayNanos() / 1e9);
         }
     }
-}
\ No newline at end of file
+}
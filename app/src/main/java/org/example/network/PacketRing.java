@@ -0,0 +1,57 @@
+package org.example.network;
+
+/**
+ * Growable FIFO of leases stamped with their arrival time, for one band of a queue
+ * discipline. Not thread-safe; the discipline's lock guards it.
+ */
+final class PacketRing {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private PooledBuffer[] items = new PooledBuffer[INITIAL_CAPACITY];
+    private long[] arrivals = new long[INITIAL_CAPACITY];
+    private int head = 0;
+    private int size = 0;
+
+    void add(PooledBuffer lease, long arrival) {
+        if (size == items.length) {
+            grow();
+        }
+        int tail = (head + size) & (items.length - 1);
+        items[tail] = lease;
+        arrivals[tail] = arrival;
+        size++;
+    }
+
+    /**
+     * Arrival time of the head; only valid while the ring is not empty.
+     */
+    long headArrival() {
+        return arrivals[head];
+    }
+
+    PooledBuffer poll() {
+        PooledBuffer lease = items[head];
+        items[head] = null;
+        head = (head + 1) & (items.length - 1);
+        size--;
+        return lease;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        int capacity = items.length << 1;
+        PooledBuffer[] newItems = new PooledBuffer[capacity];
+        long[] newArrivals = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            int from = (head + i) & (items.length - 1);
+            newItems[i] = items[from];
+            newArrivals[i] = arrivals[from];
+        }
+        items = newItems;
+        arrivals = newArrivals;
+        head = 0;
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.network;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Lease on a direct buffer from a {@link BufferPool}.
+ *
+ * Whoever holds the lease owns the buffer until it calls {@link #release()} or hands
+ * the lease to {@link DatagramEndpoint#send(PooledBuffer)}, which takes ownership.
+ * On a shared socket the lease also carries the peer: the source of a received
+ * datagram, or the destination of one being sent.
+ */
+public class PooledBuffer {
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private InetSocketAddress address;
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public InetSocketAddress address() {
+        return address;
+    }
+
+    public PooledBuffer address(InetSocketAddress address) {
+        this.address = address;
+        return this;
+    }
+
+    public void release() {
+        pool.release(this);
+    }
+}
@@ -0,0 +1,49 @@
+package org.example.network;
+
+/**
+ * Decides which datagram waiting for the emulated link goes next, and which are dropped.
+ *
+ * The endpoint offers every datagram that comes off the delay line and its forward
+ * thread takes them in the order the discipline chooses. A discipline may refuse a
+ * datagram on arrival (tail drop, RED) or discard it on departure (CoDel).
+ */
+public interface QueueDiscipline {
+    /**
+     * Queues a datagram for the link.
+     *
+     * @return false if the datagram was dropped; the caller still owns the lease
+     */
+    boolean offer(PooledBuffer lease);
+
+    /**
+     * Waits for the next datagram to put on the link. Leases the discipline drops on the
+     * way out are released here.
+     */
+    PooledBuffer take() throws InterruptedException;
+
+    /**
+     * Datagrams waiting, control and bulk together.
+     */
+    int size();
+
+    QueueStats getStats();
+
+    /**
+     * Creates a discipline by its command-line name.
+     *
+     * @param capacity          datagrams that may wait before tail drop; 0 for unbounded
+     * @param prioritizeControl send control datagrams (ACK, SYN, RST) ahead of data
+     */
+    static QueueDiscipline forName(String name, int capacity, boolean prioritizeControl) {
+        switch (name) {
+            case "fifo":
+                return new TailDropQueue(capacity, prioritizeControl);
+            case "red":
+                return new RedQueue(capacity, prioritizeControl);
+            case "codel":
+                return new CoDelQueue(capacity, prioritizeControl);
+            default:
+                throw new IllegalArgumentException("Unknown queue discipline: " + name);
+        }
+    }
+}
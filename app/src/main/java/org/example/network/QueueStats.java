@@ -0,0 +1,24 @@
+package org.example.network;
+
+/**
+ * Counters of one {@link QueueDiscipline} since it was created.
+ *
+ * @param discipline       command-line name of the discipline
+ * @param enqueued         datagrams accepted into the queue
+ * @param forwarded        datagrams handed to the link
+ * @param controlForwarded forwarded datagrams that went through the priority band
+ * @param tailDrops        datagrams refused because the queue was full
+ * @param aqmDrops         datagrams dropped early by active queue management
+ * @param meanDelayNanos   mean time a forwarded datagram waited in the queue
+ * @param maxDelayNanos    longest time a forwarded datagram waited in the queue
+ */
+public record QueueStats(String discipline, long enqueued, long forwarded, long controlForwarded,
+                         long tailDrops, long aqmDrops, long meanDelayNanos, long maxDelayNanos) {
+    @Override
+    public String toString() {
+        return String.format("%s: %d forwarded (%d control), %d tail drops, %d AQM drops, "
+                        + "delay mean %d us max %d us",
+                discipline, forwarded, controlForwarded, tailDrops, aqmDrops, meanDelayNanos / 1000,
+                maxDelayNanos / 1000);
+    }
+}
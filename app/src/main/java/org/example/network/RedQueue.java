@@ -0,0 +1,81 @@
+package org.example.network;
+
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Random Early Detection AQM (Floyd and Jacobson).
+ *
+ * RED tracks an exponentially weighted average of the bulk queue length. Below the
+ * minimum threshold nothing is dropped; between the thresholds arrivals are dropped
+ * with a probability rising to {@code maxP}, spread out by counting arrivals since the
+ * last drop; above the maximum threshold every arrival is dropped. Drops land before
+ * the queue is full, one at a time, instead of as a burst of tail drops. Idle periods
+ * are not aged out of the average.
+ */
+public class RedQueue extends AbstractQueueDiscipline {
+    public static final double DEFAULT_WEIGHT = 0.002;
+    public static final double DEFAULT_MAX_P = 0.1;
+    // Thresholds for an unbounded queue, in datagrams
+    private static final int UNBOUNDED_MIN_THRESHOLD = 20;
+    private static final int UNBOUNDED_MAX_THRESHOLD = 60;
+
+    private final double minThreshold;
+    private final double maxThreshold;
+    private final double maxP;
+    private final double weight;
+    private final Random random;
+
+    private double average = 0;
+    private int count = -1;
+
+    /**
+     * Uses thresholds at a quarter and three quarters of the capacity.
+     */
+    public RedQueue(int capacity, boolean prioritizeControl) {
+        this(capacity, prioritizeControl, minThreshold(capacity), maxThreshold(capacity), DEFAULT_MAX_P,
+                DEFAULT_WEIGHT, new Random(), System::nanoTime);
+    }
+
+    public RedQueue(int capacity, boolean prioritizeControl, double minThreshold, double maxThreshold,
+                    double maxP, double weight, Random random, LongSupplier clock) {
+        super("red", capacity, prioritizeControl, clock);
+        if (minThreshold >= maxThreshold) {
+            throw new IllegalArgumentException("minThreshold must be below maxThreshold");
+        }
+        this.minThreshold = minThreshold;
+        this.maxThreshold = maxThreshold;
+        this.maxP = maxP;
+        this.weight = weight;
+        this.random = random;
+    }
+
+    private static double minThreshold(int capacity) {
+        return capacity > 0 ? Math.max(1, capacity / 4) : UNBOUNDED_MIN_THRESHOLD;
+    }
+
+    private static double maxThreshold(int capacity) {
+        return capacity > 0 ? Math.max(2, capacity * 3 / 4) : UNBOUNDED_MAX_THRESHOLD;
+    }
+
+    @Override
+    protected boolean dropOnEnqueue(long now) {
+        average += weight * (bulkSize() - average);
+        if (average < minThreshold) {
+            count = -1;
+            return false;
+        }
+        if (average >= maxThreshold) {
+            count = 0;
+            return true;
+        }
+        count++;
+        double pb = maxP * (average - minThreshold) / (maxThreshold - minThreshold);
+        double pa = count * pb >= 1 ? 1 : pb / (1 - count * pb);
+        if (random.nextDouble() < pa) {
+            count = 0;
+            return true;
+        }
+        return false;
+    }
+}
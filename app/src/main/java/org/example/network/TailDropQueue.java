@@ -0,0 +1,16 @@
+package org.example.network;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Plain FIFO that drops arrivals once the queue is full; the endpoint's original behaviour.
+ */
+public class TailDropQueue extends AbstractQueueDiscipline {
+    public TailDropQueue(int capacity, boolean prioritizeControl) {
+        this(capacity, prioritizeControl, System::nanoTime);
+    }
+
+    public TailDropQueue(int capacity, boolean prioritizeControl, LongSupplier clock) {
+        super("fifo", capacity, prioritizeControl, clock);
+    }
+}
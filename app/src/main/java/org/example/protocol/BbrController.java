@@ -0,0 +1,226 @@
+package org.example.protocol;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BBR-style model-based congestion control.
+ *
+ * Rather than reacting to loss, the controller keeps a model of the path: the
+ * bottleneck bandwidth (windowed max of delivery-rate samples taken once per round
+ * trip) and the propagation RTT (windowed min of RTT samples). The window is a gain
+ * times their product, the bandwidth-delay product. It starts up with a high gain
+ * until bandwidth stops growing, drains the queue it built, then cycles its pacing
+ * gain around 1 to probe for more bandwidth, with a short low-window phase every
+ * 10 seconds to re-measure the minimum RTT.
+ *
+ * Delivery rate is sampled per round trip from cumulative ACKs rather than per
+ * packet, which is coarser than BBR proper but needs no per-segment state.
+ */
+public class BbrController implements CongestionController {
+    private static final Logger logger = LoggerFactory.getLogger(BbrController.class);
+
+    private enum Mode { STARTUP, DRAIN, PROBE_BW, PROBE_RTT }
+
+    private static final double HIGH_GAIN = 2.885;
+    private static final double DRAIN_GAIN = 1 / HIGH_GAIN;
+    private static final double CWND_GAIN = 2.0;
+    private static final double[] PACING_GAIN_CYCLE = {1.25, 0.75, 1, 1, 1, 1, 1, 1};
+    private static final int BW_WINDOW_ROUNDS = 10;
+    private static final int FULL_BW_ROUNDS = 3;
+    private static final double FULL_BW_GROWTH = 1.25;
+    private static final long MIN_RTT_WINDOW_NANOS = 10_000_000_000L;
+    private static final long PROBE_RTT_NANOS = 200_000_000L;
+    private static final double MIN_CWND = 4;
+
+    private Mode mode = Mode.STARTUP;
+    private double pacingGain = HIGH_GAIN;
+    private double cwndGain = HIGH_GAIN;
+    private double cwnd = MIN_CWND;
+    private boolean recovery = false;
+
+    // Delivery-rate samples, one per round trip, in segments per second
+    private long delivered = 0;
+    private long roundStartDelivered = 0;
+    private long roundStartTime = 0;
+    private final double[] bwSamples = new double[BW_WINDOW_ROUNDS];
+    private int bwSampleIndex = 0;
+    private double btlBw = 0;
+
+    private double minRtt = Double.MAX_VALUE;
+    private long minRttStamp = 0;
+
+    private double fullBw = 0;
+    private int fullBwRounds = 0;
+    private boolean fullBwReached = false;
+    private int cycleIndex = 0;
+    private long cycleStart = 0;
+    private long probeRttDone = 0;
+
+    @Override
+    public double getCwnd() {
+        return cwnd;
+    }
+
+    @Override
+    public double getSsthresh() {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public boolean inRecovery() {
+        return recovery;
+    }
+
+    /**
+     * Pacing rate in segments per second, or 0 before the first bandwidth sample.
+     */
+    public double getPacingRate() {
+        return pacingGain * btlBw;
+    }
+
+    /**
+     * Paces at the gain-adjusted bottleneck bandwidth once the model has a sample,
+     * and at the high startup gain over cwnd per RTT before that.
+     */
+    @Override
+    public double getPacingRate(double srtt) {
+        if (btlBw > 0) {
+            return getPacingRate();
+        }
+        return srtt > 0 ? HIGH_GAIN * cwnd / srtt : 0;
+    }
+
+    /**
+     * Estimated bandwidth-delay product in segments, or 0 while the model is empty.
+     */
+    private double bdp() {
+        if (btlBw == 0 || minRtt == Double.MAX_VALUE) {
+            return 0;
+        }
+        return btlBw * minRtt;
+    }
+
+    @Override
+    public void onAck(int ackedSegments, double rttSample, int inFlight, long now) {
+        recovery = false;
+        delivered += ackedSegments;
+
+        boolean minRttExpired = minRttStamp != 0 && now - minRttStamp > MIN_RTT_WINDOW_NANOS;
+        if (rttSample >= 0 && (rttSample <= minRtt || minRttExpired)) {
+            minRtt = rttSample;
+            minRttStamp = now;
+        }
+
+        if (roundStartTime == 0) {
+            roundStartTime = now;
+        }
+        long interval = now - roundStartTime;
+        if (minRtt != Double.MAX_VALUE && interval >= minRtt * 1e9 && interval > 0) {
+            bwSamples[bwSampleIndex] = (delivered - roundStartDelivered) / (interval / 1e9);
+            bwSampleIndex = (bwSampleIndex + 1) % BW_WINDOW_ROUNDS;
+            btlBw = 0;
+            for (double sample : bwSamples) {
+                btlBw = Math.max(btlBw, sample);
+            }
+            roundStartDelivered = delivered;
+            roundStartTime = now;
+            onRoundEnd(inFlight, now);
+        }
+
+        if (minRttExpired && mode != Mode.PROBE_RTT) {
+            enterProbeRtt(now);
+        }
+        if (mode == Mode.PROBE_RTT && now >= probeRttDone) {
+            minRttStamp = now;
+            if (fullBwReached) {
+                enterProbeBw(now);
+            } else {
+                setMode(Mode.STARTUP, HIGH_GAIN, HIGH_GAIN);
+            }
+        }
+
+        updateCwnd(ackedSegments);
+    }
+
+    private void onRoundEnd(int inFlight, long now) {
+        switch (mode) {
+            case STARTUP:
+                if (btlBw >= fullBw * FULL_BW_GROWTH) {
+                    fullBw = btlBw;
+                    fullBwRounds = 0;
+                } else if (++fullBwRounds >= FULL_BW_ROUNDS) {
+                    fullBwReached = true;
+                    // Drain with the window as well as the pacing gain, so the queue empties
+                    // even when the sender is not pacing
+                    setMode(Mode.DRAIN, DRAIN_GAIN, 1);
+                }
+                break;
+            case DRAIN:
+                if (inFlight <= bdp()) {
+                    enterProbeBw(now);
+                }
+                break;
+            case PROBE_BW:
+                if (now - cycleStart > minRtt * 1e9) {
+                    cycleIndex = (cycleIndex + 1) % PACING_GAIN_CYCLE.length;
+                    pacingGain = PACING_GAIN_CYCLE[cycleIndex];
+                    cycleStart = now;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void enterProbeBw(long now) {
+        setMode(Mode.PROBE_BW, 1, CWND_GAIN);
+        cycleIndex = 0;
+        pacingGain = PACING_GAIN_CYCLE[cycleIndex];
+        cycleStart = now;
+    }
+
+    private void enterProbeRtt(long now) {
+        setMode(Mode.PROBE_RTT, 1, 1);
+        probeRttDone = now + Math.max(PROBE_RTT_NANOS, (long) (minRtt * 1e9));
+    }
+
+    private void setMode(Mode mode, double pacingGain, double cwndGain) {
+        logger.debug("BBR {} -> {}; btlBw {} seg/s, minRtt {}", this.mode, mode, btlBw, minRtt);
+        this.mode = mode;
+        this.pacingGain = pacingGain;
+        this.cwndGain = cwndGain;
+    }
+
+    private void updateCwnd(int ackedSegments) {
+        if (mode == Mode.PROBE_RTT) {
+            cwnd = MIN_CWND;
+            return;
+        }
+        double target = cwndGain * bdp();
+        if (fullBwReached) {
+            cwnd = Math.min(cwnd + ackedSegments, target);
+        } else if (target == 0 || cwnd < target) {
+            cwnd += ackedSegments;
+        }
+        cwnd = Math.max(cwnd, MIN_CWND);
+        logger.debug("BBR {}. CWND set to {}", mode, cwnd);
+    }
+
+    @Override
+    public boolean onDuplicateAck(int dupAckCount) {
+        // Loss is not a congestion signal for the model; only repair it
+        if (!recovery && dupAckCount == 3) {
+            recovery = true;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void onTimeout() {
+        recovery = false;
+        cwnd = 1;
+        logger.debug("Timeout occurred. CWND reset to 1");
+    }
+}
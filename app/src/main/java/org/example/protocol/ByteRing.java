@@ -0,0 +1,73 @@
+package org.example.protocol;
+
+/**
+ * Circular byte buffer. Not thread-safe; the owner guards it.
+ */
+class ByteRing {
+    private byte[] data;
+    private int head = 0;
+    private int size = 0;
+
+    ByteRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.data = new byte[capacity];
+    }
+
+    int capacity() {
+        return data.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int free() {
+        return data.length - size;
+    }
+
+    /**
+     * Moves the contents into a new array of {@code capacity} bytes, which must hold them.
+     */
+    void resize(int capacity) {
+        if (capacity < Math.max(size, 1)) {
+            throw new IllegalArgumentException("capacity " + capacity + " cannot hold " + size + " bytes");
+        }
+        byte[] resized = new byte[capacity];
+        int n = size;
+        get(resized, 0, n);
+        data = resized;
+        head = 0;
+        size = n;
+    }
+
+    /**
+     * Appends all of {@code src}; the caller checks {@link #free()} first.
+     */
+    void put(byte[] src) {
+        if (src.length > free()) {
+            throw new IllegalStateException("Ring full: " + src.length + " bytes, " + free() + " free");
+        }
+        int tail = (head + size) % data.length;
+        int first = Math.min(src.length, data.length - tail);
+        System.arraycopy(src, 0, data, tail, first);
+        System.arraycopy(src, first, data, 0, src.length - first);
+        size += src.length;
+    }
+
+    /**
+     * Moves up to {@code len} bytes into {@code dst}.
+     *
+     * @return the number of bytes moved
+     */
+    int get(byte[] dst, int off, int len) {
+        int n = Math.min(len, size);
+        int first = Math.min(n, data.length - head);
+        System.arraycopy(data, head, dst, off, first);
+        System.arraycopy(data, 0, dst, off + first, n - first);
+        head = (head + n) % data.length;
+        size -= n;
+        return n;
+    }
+}
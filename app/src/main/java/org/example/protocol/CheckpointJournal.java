@@ -0,0 +1,189 @@
+package org.example.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only record of how much of a resumable session's stream is safely in its output
+ * file.
+ *
+ * Each checkpoint appends one record: the body length, the body (the offset below which
+ * the stream is complete, a range count, then start/end offset pairs of ranges held beyond
+ * it) and a CRC32 of the body. The receiver forces its output file before appending and
+ * the record is forced right after, so a record never claims data a crash could lose.
+ *
+ * Recovery reads records until one is torn or fails its checksum and keeps the one with
+ * the highest offset; a connection left over from before a client restart may still
+ * append an older one. Once the journal passes {@link #COMPACT_SIZE} it is replaced by a
+ * copy holding only the latest record, written aside and renamed over it.
+ */
+final class CheckpointJournal implements Closeable {
+    static final int COMPACT_SIZE = 64 * 1024;
+    private static final int MAX_RANGES = Packet.MAX_SACK_BLOCKS;
+    private static final int MAX_BODY_SIZE = 8 + 1 + MAX_RANGES * 16;
+
+    private final Path path;
+    // The receive thread and a shutting-down thread can both checkpoint
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ByteBuffer record = ByteBuffer.allocate(4 + MAX_BODY_SIZE + 4);
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private long size;
+
+    private long offset = 0;
+    private long[] ranges = new long[0];
+
+    private CheckpointJournal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Opens the journal at {@code path}, creating it if needed, and recovers the latest
+     * checkpoint from it.
+     */
+    static CheckpointJournal open(Path path) throws IOException {
+        CheckpointJournal journal = new CheckpointJournal(path);
+        if (Files.exists(path)) {
+            journal.recover(ByteBuffer.wrap(Files.readAllBytes(path)));
+        }
+        journal.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        journal.size = journal.channel.size();
+        return journal;
+    }
+
+    private void recover(ByteBuffer journal) {
+        while (journal.remaining() >= 4) {
+            int length = journal.getInt();
+            if (length < 9 || length > MAX_BODY_SIZE || journal.remaining() < length + 4) {
+                return;
+            }
+            ByteBuffer body = journal.slice(journal.position(), length);
+            journal.position(journal.position() + length);
+            crc.reset();
+            crc.update(body);
+            body.rewind();
+            if ((int) crc.getValue() != journal.getInt()) {
+                return;
+            }
+            long recordOffset = body.getLong();
+            int count = body.get() & 0xFF;
+            if (count > MAX_RANGES || body.remaining() != 16 * count) {
+                return;
+            }
+            if (recordOffset >= offset) {
+                offset = recordOffset;
+                ranges = new long[2 * count];
+                for (int i = 0; i < ranges.length; i++) {
+                    ranges[i] = body.getLong();
+                }
+            }
+        }
+    }
+
+    /**
+     * Offset below which the stream was complete at the latest checkpoint; 0 for a new journal.
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Start/end offset pairs, end exclusive, of the ranges held beyond {@link #getOffset()}.
+     */
+    long[] getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Appends a checkpoint and forces it to disk. The caller has already forced the data it
+     * describes. Only the first {@link Packet#MAX_SACK_BLOCKS} ranges are kept.
+     *
+     * @param ranges start/end pairs, {@code count} of them
+     */
+    void append(long offset, long[] ranges, int count) throws IOException {
+        count = Math.min(count, MAX_RANGES);
+        lock.lock();
+        try {
+            if (channel == null) {
+                return;
+            }
+            record.clear();
+            record.putInt(9 + 16 * count);
+            record.putLong(offset);
+            record.put((byte) count);
+            for (int i = 0; i < 2 * count; i++) {
+                record.putLong(ranges[i]);
+            }
+            crc.reset();
+            crc.update(record.slice(4, record.position() - 4));
+            record.putInt((int) crc.getValue());
+            record.flip();
+
+            if (size + record.remaining() > COMPACT_SIZE) {
+                compact();
+            } else {
+                while (record.hasRemaining()) {
+                    size += channel.write(record);
+                }
+                channel.force(false);
+            }
+            this.offset = offset;
+            this.ranges = Arrays.copyOf(ranges, 2 * count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the journal with one holding only the record in {@code record}.
+     */
+    private void compact() throws IOException {
+        Path compacted = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (record.hasRemaining()) {
+                out.write(record);
+            }
+            out.force(false);
+        }
+        Files.move(compacted, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        channel.close();
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+    }
+
+    /**
+     * Bytes in the journal file.
+     */
+    long size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.protocol;
+
+/**
+ * Congestion control policy for a {@link Sender}.
+ *
+ * The sender owns sequencing, loss detection and retransmission; the controller only
+ * decides how many segments may be in flight. All callbacks are made with the sender's
+ * lock held, so implementations need no synchronization of their own.
+ */
+public interface CongestionController {
+    /**
+     * Congestion window in segments.
+     */
+    double getCwnd();
+
+    double getSsthresh();
+
+    /**
+     * Called for an ACK that advances the cumulative ACK point.
+     *
+     * @param ackedSegments segments newly acknowledged by this ACK
+     * @param rttSample     RTT sample in seconds, or a negative value if the ACK gave none
+     * @param inFlight      segments still in flight after the ACK
+     * @param now           current time from the sender's {@link TimerService}, in nanoseconds
+     */
+    void onAck(int ackedSegments, double rttSample, int inFlight, long now);
+
+    /**
+     * Called for each duplicate ACK.
+     *
+     * @param dupAckCount duplicate ACKs seen in a row, including this one
+     * @return true if the sender should fast-retransmit the first unacknowledged segment now
+     */
+    boolean onDuplicateAck(int dupAckCount);
+
+    void onTimeout();
+
+    /**
+     * Whether the controller is in fast recovery, during which the sender repairs
+     * SACK holes on further duplicate ACKs.
+     */
+    boolean inRecovery();
+
+    /**
+     * Rate in segments per second at which a pacing sender should spread out transmissions.
+     * The default is cwnd per smoothed RTT, doubled in slow start so pacing does not
+     * hold back window growth, and with 20% headroom otherwise.
+     *
+     * @param srtt smoothed RTT in seconds
+     * @return the rate, or 0 if there is not enough information to pace yet
+     */
+    default double getPacingRate(double srtt) {
+        if (srtt <= 0) {
+            return 0;
+        }
+        double gain = getCwnd() < getSsthresh() ? 2.0 : 1.2;
+        return gain * getCwnd() / srtt;
+    }
+
+    /**
+     * Creates a controller from its command-line name.
+     *
+     * @param useSlowStart      for "reno": whether to use slow start instead of plain AIMD
+     * @param useFastRetransmit for "reno": whether to use fast retransmit and recovery
+     */
+    static CongestionController forName(String name, boolean useSlowStart, boolean useFastRetransmit) {
+        switch (name) {
+            case "reno":
+                return new RenoController(useSlowStart, useFastRetransmit);
+            case "cubic":
+                return new CubicController();
+            case "bbr":
+                return new BbrController();
+            default:
+                throw new IllegalArgumentException("Unknown congestion control: " + name);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.example.protocol;
+
+import org.example.network.DatagramEndpoint;
+import org.example.network.LowerLayerEndpoint;
+import org.example.network.PooledBuffer;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * One connection's view of a shared socket. The {@link ConnectionListener} queues the
+ * connection's datagrams here; sends go out through the shared socket to the address
+ * the peer last sent from.
+ */
+class ConnectionEndpoint implements DatagramEndpoint {
+    private static final int QUEUE_SIZE = 1024;
+
+    private final int connectionId;
+    private final LowerLayerEndpoint socket;
+    private final ConnectionListener listener;
+    private final BlockingQueue<PooledBuffer> inbound = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private volatile InetSocketAddress peer;
+    private volatile long lastReceivedNanos = System.nanoTime();
+    private volatile boolean shutdown = false;
+    private volatile PooledBuffer closeMarker;
+
+    ConnectionEndpoint(int connectionId, InetSocketAddress peer, LowerLayerEndpoint socket,
+                       ConnectionListener listener) {
+        this.connectionId = connectionId;
+        this.peer = peer;
+        this.socket = socket;
+        this.listener = listener;
+    }
+
+    int getConnectionId() {
+        return connectionId;
+    }
+
+    InetSocketAddress getPeer() {
+        return peer;
+    }
+
+    /**
+     * When the listener last routed a datagram here, or opened the connection.
+     */
+    long getLastReceivedNanos() {
+        return lastReceivedNanos;
+    }
+
+    /**
+     * Called by the dispatch thread; takes ownership of the lease. Drops it if the
+     * connection is not keeping up, like a full socket buffer would.
+     */
+    void deliver(PooledBuffer lease) {
+        peer = lease.address();
+        lastReceivedNanos = System.nanoTime();
+        if (shutdown || !inbound.offer(lease)) {
+            lease.release();
+        }
+    }
+
+    @Override
+    public PooledBuffer allocate() {
+        return socket.allocate();
+    }
+
+    @Override
+    public void send(PooledBuffer lease) {
+        lease.address(peer);
+        socket.send(lease);
+    }
+
+    @Override
+    public PooledBuffer recvBuffer() {
+        if (shutdown) {
+            return null;
+        }
+        try {
+            PooledBuffer lease = inbound.take();
+            if (lease == closeMarker) {
+                lease.release();
+                return null;
+            }
+            return lease;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public double getTransmitDelay() {
+        return socket.getTransmitDelay();
+    }
+
+    @Override
+    public double getPropagationDelay() {
+        return socket.getPropagationDelay();
+    }
+
+    boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Forgets the connection; the shared socket stays open.
+     */
+    @Override
+    public void shutdown() {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        listener.remove(this);
+
+        PooledBuffer lease;
+        while ((lease = inbound.poll()) != null) {
+            lease.release();
+        }
+        // Wake a receive thread blocked in take()
+        closeMarker = socket.allocate();
+        if (!inbound.offer(closeMarker)) {
+            closeMarker.release();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.example.protocol;
+
+import org.example.concurrent.Threads;
+import org.example.network.DatagramEndpoint;
+import org.example.network.LowerLayerEndpoint;
+import org.example.network.PooledBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Accepts connections multiplexed over one shared socket.
+ *
+ * A dispatch thread reads every datagram from the socket and routes it by the connection
+ * ID in its header. A SYN with an unknown ID opens a connection: a {@link Receiver} is
+ * created over a per-connection endpoint and queued for {@link #accept()}. Datagrams for
+ * unknown connections are dropped, as are new connections while the backlog is full; data
+ * for one is answered with an RST, so a sender whose connection this listener does not
+ * know, say after a restart, finds out instead of retransmitting forever. A FIN for one is
+ * acknowledged: its receiver already saw the end of the stream and closed, and only the
+ * ACK to the FIN was lost.
+ *
+ * Connections that receive nothing for the idle timeout are closed, so peers that vanish
+ * without a FIN, or SYNs nobody follows up, do not hold a receiver forever. A closed
+ * connection's ID stays quarantined for a while: a SYN for it, late or retransmitted,
+ * is dropped instead of opening a fresh receiver for a stream that already ended.
+ */
+public class ConnectionListener {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionListener.class);
+    private static final int DEFAULT_BACKLOG = 4096;
+    public static final long DEFAULT_IDLE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(5);
+    // Long enough for any retransmitted SYN to have arrived, like TCP's TIME_WAIT
+    private static final long CLOSED_QUARANTINE_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final int MAX_RECENTLY_CLOSED = 65536;
+
+    private final LowerLayerEndpoint socket;
+    private final Function<DatagramEndpoint, Receiver> receiverFactory;
+    private final ConcurrentHashMap<Integer, ConnectionEndpoint> connections = new ConcurrentHashMap<>();
+    private final BlockingQueue<Receiver> acceptQueue;
+    // Closing time of each recently closed connection ID, oldest first
+    private final LinkedHashMap<Integer, Long> recentlyClosed = new LinkedHashMap<>();
+    private final TimerService.Timeout reaper;
+    private volatile long idleTimeoutNanos = DEFAULT_IDLE_TIMEOUT_NANOS;
+    private volatile boolean shutdown = false;
+    private final Thread dispatchThread;
+
+    public ConnectionListener(LowerLayerEndpoint socket) {
+        this(socket, Receiver::new);
+    }
+
+    /**
+     * @param socket          a shared endpoint; see {@link LowerLayerEndpoint#isShared()}
+     * @param receiverFactory creates the receiver for each new connection's endpoint
+     */
+    public ConnectionListener(LowerLayerEndpoint socket, Function<DatagramEndpoint, Receiver> receiverFactory) {
+        if (!socket.isShared()) {
+            throw new IllegalArgumentException("ConnectionListener needs a shared endpoint");
+        }
+        this.socket = socket;
+        this.receiverFactory = receiverFactory;
+        this.acceptQueue = new LinkedBlockingQueue<>(DEFAULT_BACKLOG);
+        this.reaper = TimerWheel.getDefault().newTimeout(this::closeIdle);
+        reaper.rearm(idleTimeoutNanos / 2);
+
+        dispatchThread = Threads.start("connection-listener", this::dispatch);
+    }
+
+    /**
+     * Waits for the next new connection.
+     */
+    public Receiver accept() throws InterruptedException {
+        return acceptQueue.take();
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * How long a connection may go without receiving anything before it is closed;
+     * {@link #DEFAULT_IDLE_TIMEOUT_NANOS} unless set.
+     */
+    public void setIdleTimeout(long idleTimeoutNanos) {
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        reaper.rearm(idleTimeoutNanos / 2);
+    }
+
+    void remove(ConnectionEndpoint connection) {
+        if (connections.remove(connection.getConnectionId(), connection)) {
+            synchronized (recentlyClosed) {
+                recentlyClosed.remove(connection.getConnectionId());
+                recentlyClosed.put(connection.getConnectionId(), System.nanoTime());
+                if (recentlyClosed.size() > MAX_RECENTLY_CLOSED) {
+                    recentlyClosed.remove(recentlyClosed.keySet().iterator().next());
+                }
+            }
+        }
+    }
+
+    private boolean isRecentlyClosed(int connectionId) {
+        long now = System.nanoTime();
+        synchronized (recentlyClosed) {
+            Iterator<Long> closedAt = recentlyClosed.values().iterator();
+            while (closedAt.hasNext() && now - closedAt.next() > CLOSED_QUARANTINE_NANOS) {
+                closedAt.remove();
+            }
+            return recentlyClosed.containsKey(connectionId);
+        }
+    }
+
+    /**
+     * Runs on the timer thread: closes every connection idle for longer than the timeout.
+     * Its receiver sees the endpoint close and shuts itself down.
+     */
+    private void closeIdle() {
+        if (shutdown) {
+            return;
+        }
+        long timeout = idleTimeoutNanos;
+        long now = System.nanoTime();
+        for (ConnectionEndpoint connection : connections.values()) {
+            if (now - connection.getLastReceivedNanos() > timeout) {
+                logger.info("Closing connection {} from {}: idle for {} ms", connection.getConnectionId(),
+                        connection.getPeer(), (now - connection.getLastReceivedNanos()) / 1_000_000);
+                connection.shutdown();
+            }
+        }
+        reaper.rearm(timeout / 2);
+    }
+
+    private void dispatch() {
+        PacketView packet = new PacketView();
+        while (!shutdown) {
+            PooledBuffer lease = socket.recvBuffer();
+            if (lease == null) continue;
+
+            ConnectionEndpoint connection;
+            Packet.Type unknownType = null;
+            try {
+                packet.wrap(lease.buffer());
+                connection = connections.get(packet.connectionId());
+                if (connection == null && packet.type() == Packet.Type.SYN) {
+                    if (isRecentlyClosed(packet.connectionId())) {
+                        logger.debug("Ignored SYN for closed connection {} from {}", packet.connectionId(),
+                                lease.address());
+                    } else {
+                        connection = open(packet.connectionId(), lease);
+                    }
+                }
+                unknownType = connection == null ? packet.type() : null;
+            } catch (IllegalArgumentException e) {
+                logger.debug("Dropped malformed datagram from {}: {}", lease.address(), e.getMessage());
+                connection = null;
+            }
+
+            if (connection != null) {
+                connection.deliver(lease);
+            } else {
+                logger.debug("Dropped datagram for unknown connection from {}", lease.address());
+                if (unknownType == Packet.Type.DATA) {
+                    reply(Packet.Type.RST, packet.connectionId(), 0, lease.address());
+                } else if (unknownType == Packet.Type.FIN) {
+                    reply(Packet.Type.ACK, packet.connectionId(), packet.seqNum(), lease.address());
+                }
+                lease.release();
+            }
+        }
+    }
+
+    private ConnectionEndpoint open(int connectionId, PooledBuffer syn) {
+        if (acceptQueue.remainingCapacity() == 0) {
+            logger.warn("Accept backlog full => dropped SYN from {}", syn.address());
+            return null;
+        }
+        ConnectionEndpoint connection = new ConnectionEndpoint(connectionId, syn.address(), socket, this);
+        connections.put(connectionId, connection);
+        acceptQueue.offer(receiverFactory.apply(connection));
+        logger.debug("Opened connection {} from {}", connectionId, syn.address());
+        return connection;
+    }
+
+    private void reply(Packet.Type type, int connectionId, int seqNum, InetSocketAddress peer) {
+        PooledBuffer reply = socket.allocate();
+        PacketView.encode(reply.buffer(), type, connectionId, seqNum, new byte[0]);
+        reply.buffer().flip();
+        socket.send(reply.address(peer));
+    }
+
+    /**
+     * Closes the socket and every connection accepted through it.
+     */
+    public void shutdown() {
+        if (!shutdown) {
+            shutdown = true;
+            reaper.cancel();
+            socket.shutdown();
+            for (ConnectionEndpoint connection : connections.values()) {
+                connection.shutdown();
+            }
+        }
+    }
+}
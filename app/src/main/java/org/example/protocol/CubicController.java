@@ -0,0 +1,123 @@
+package org.example.protocol;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CUBIC congestion control (RFC 8312).
+ *
+ * After a loss the window follows a cubic curve in the time since the reduction,
+ * centred on the window where the loss happened: it climbs back quickly, flattens
+ * out near the old maximum and then probes beyond it. Growth depends on elapsed time
+ * rather than ACK rate, which is what lets it fill long high-BDP paths. Below the
+ * Reno-equivalent window it falls back to Reno's growth rate.
+ */
+public class CubicController implements CongestionController {
+    private static final Logger logger = LoggerFactory.getLogger(CubicController.class);
+    private static final double C = 0.4;
+    private static final double BETA = 0.7;
+
+    private double cwnd = 1;
+    private double ssthresh = Double.MAX_VALUE;
+    private boolean recovery = false;
+
+    private double wMax = 0;
+    private double wLastMax = 0;
+    private double k = 0;
+    private long epochStart = 0;
+    private double renoCwnd = 0;
+    private double minRtt = Double.MAX_VALUE;
+
+    @Override
+    public double getCwnd() {
+        return cwnd;
+    }
+
+    @Override
+    public double getSsthresh() {
+        return ssthresh;
+    }
+
+    @Override
+    public boolean inRecovery() {
+        return recovery;
+    }
+
+    @Override
+    public void onAck(int ackedSegments, double rttSample, int inFlight, long now) {
+        if (rttSample >= 0) {
+            minRtt = Math.min(minRtt, rttSample);
+        }
+        if (recovery) {
+            recovery = false;
+            cwnd = ssthresh;
+            logger.debug("Exited Fast Recovery; CWND set to ssthresh: {}", cwnd);
+            return;
+        }
+        if (cwnd < ssthresh) {
+            cwnd += ackedSegments;
+            logger.debug("Slow Start. CWND increased to {}", cwnd);
+            return;
+        }
+
+        if (epochStart == 0) {
+            epochStart = now;
+            renoCwnd = cwnd;
+            if (cwnd < wMax) {
+                k = Math.cbrt((wMax - cwnd) / C);
+            } else {
+                k = 0;
+                wMax = cwnd;
+            }
+        }
+
+        double rtt = minRtt == Double.MAX_VALUE ? 0 : minRtt;
+        double t = (now - epochStart) / 1e9 + rtt;
+        double target = wMax + C * Math.pow(t - k, 3);
+        if (target > cwnd) {
+            cwnd += (target - cwnd) / cwnd * ackedSegments;
+        } else {
+            cwnd += 0.01 * ackedSegments / cwnd;
+        }
+
+        // TCP-friendly region: never grow slower than Reno would with the same beta
+        renoCwnd += 3 * (1 - BETA) / (1 + BETA) * ackedSegments / renoCwnd;
+        if (renoCwnd > cwnd) {
+            cwnd = renoCwnd;
+        }
+        logger.debug("CUBIC. CWND increased to {} (target {})", cwnd, target);
+    }
+
+    @Override
+    public boolean onDuplicateAck(int dupAckCount) {
+        if (recovery || dupAckCount != 3) {
+            return false;
+        }
+        reduce();
+        cwnd = ssthresh;
+        recovery = true;
+        logger.debug("Fast Retransmit initiated. ssthresh: {}, CWND: {}", ssthresh, cwnd);
+        return true;
+    }
+
+    @Override
+    public void onTimeout() {
+        reduce();
+        cwnd = 1;
+        recovery = false;
+        logger.debug("Timeout occurred. ssthresh set to {}, CWND reset to 1", ssthresh);
+    }
+
+    private void reduce() {
+        epochStart = 0;
+        // Fast convergence: release bandwidth to newer flows when losses come before the old maximum
+        if (cwnd < wLastMax) {
+            wLastMax = cwnd;
+            wMax = cwnd * (1 + BETA) / 2;
+        } else {
+            wLastMax = cwnd;
+            wMax = cwnd;
+        }
+        ssthresh = Math.max(2, cwnd * BETA);
+    }
+}
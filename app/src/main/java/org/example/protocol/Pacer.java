@@ -0,0 +1,58 @@
+package org.example.protocol;
+
+/**
+ * Token bucket that spreads transmissions out at a target rate.
+ *
+ * Tokens are whole segments and accrue continuously from a nanosecond clock. The
+ * bucket holds a small burst, so a sender woken late by a coarse timer can catch up
+ * without letting a whole window out at once.
+ */
+public class Pacer {
+    private static final double MIN_BURST_SEGMENTS = 2;
+    private static final double BURST_NANOS = 2_000_000;
+
+    private double rate = 0;
+    private double tokens = MIN_BURST_SEGMENTS;
+    private long lastRefill = Long.MIN_VALUE;
+
+    /**
+     * @param segmentsPerSecond target rate; 0 or less disables pacing
+     */
+    public void setRate(double segmentsPerSecond) {
+        this.rate = segmentsPerSecond;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    private double burst() {
+        return Math.max(MIN_BURST_SEGMENTS, rate * BURST_NANOS / 1e9);
+    }
+
+    /**
+     * @return nanoseconds until a segment may be sent, 0 if one may be sent now
+     */
+    public long delayUntilNext(long now) {
+        if (rate <= 0) {
+            return 0;
+        }
+        if (lastRefill != Long.MIN_VALUE) {
+            tokens = Math.min(burst(), tokens + (now - lastRefill) * rate / 1e9);
+        }
+        lastRefill = now;
+        if (tokens >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / rate * 1e9);
+    }
+
+    /**
+     * Takes the token for a segment about to be sent.
+     */
+    public void consume() {
+        if (rate > 0) {
+            tokens -= 1;
+        }
+    }
+}
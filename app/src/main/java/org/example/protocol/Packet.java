@@ -6,7 +6,21 @@ public class Packet {
     public enum Type {
         DATA((byte) 'D'),
         ACK((byte) 'A'),
-        SYN((byte) 'S');
+        SYN((byte) 'S'),
+        // Ends the stream: takes the sequence number after the last data segment and is
+        // acknowledged like one
+        FIN((byte) 'F'),
+        // Sent by a listener for data on a connection it does not know, e.g. after a restart
+        RST((byte) 'R');
+
+        // Indexed by the unsigned wire byte; replaces a scan over values(), which clones the array.
+        private static final Type[] BY_VALUE = new Type[256];
+
+        static {
+            for (Type type : values()) {
+                BY_VALUE[type.value & 0xFF] = type;
+            }
+        }
 
         private final byte value;
 
@@ -19,28 +33,53 @@ public class Packet {
         }
 
         public static Type fromByte(byte b) {
-            for (Type type : Type.values()) {
-                if (type.value == b) {
-                    return type;
-                }
+            Type type = BY_VALUE[b & 0xFF];
+            if (type == null) {
+                throw new IllegalArgumentException("Unknown packet type: " + b);
             }
-            throw new IllegalArgumentException("Unknown packet type: " + b);
+            return type;
         }
     }
 
-    private static final int HEADER_SIZE = 5; // 1 byte type + 4 bytes seq_num
+    static final int TYPE_OFFSET = 0;
+    static final int CONN_ID_OFFSET = 1;
+    static final int SEQ_OFFSET = 5;
+    // Timestamp option, always present: the sender's clock in microseconds when the packet
+    // left, and the value the peer is echoing back; 0 means none
+    static final int TSVAL_OFFSET = 9;
+    static final int TSECR_OFFSET = 13;
+    // Position of a DATA payload's first byte in the stream, so a receiver can place it
+    // without reassembling first. In an ACK, how much of a resumed session's stream the
+    // receiver already held when the connection opened. 0 otherwise.
+    static final int STREAM_OFFSET_OFFSET = 17;
+    // 1 byte type + 4 bytes connection_id + 4 bytes seq_num + 4 bytes ts_val + 4 bytes ts_ecr
+    // + 8 bytes stream_offset
+    public static final int HEADER_SIZE = 25;
     public static final int MAX_DATA_SIZE = 1400;
+    // ACK payload: 4 byte advertised window in segments, 1 byte SACK block count, then an
+    // inclusive [start, end] seq_num pair per block
+    static final int WINDOW_SIZE = 4;
+    public static final int MAX_SACK_BLOCKS = 4;
+    static final int SACK_BLOCK_SIZE = 8;
+    // SYN payload of a resumable session: the 8 byte session ID
+    static final int SESSION_ID_SIZE = 8;
 
     private final Type type;
+    private final int connectionId;
     private final int seqNum;
     private final byte[] data;
 
-    public Packet(Type type, int seqNum, byte[] data) {
+    public Packet(Type type, int connectionId, int seqNum, byte[] data) {
         this.type = type;
+        this.connectionId = connectionId;
         this.seqNum = seqNum;
         this.data = data != null ? data : new byte[0];
     }
 
+    public Packet(Type type, int seqNum, byte[] data) {
+        this(type, 0, seqNum, data);
+    }
+
     public Packet(Type type, int seqNum) {
         this(type, seqNum, new byte[0]);
     }
@@ -49,6 +88,10 @@ public class Packet {
         return type;
     }
 
+    public int getConnectionId() {
+        return connectionId;
+    }
+
     public int getSeqNum() {
         return seqNum;
     }
@@ -59,19 +102,13 @@ public class Packet {
 
     public byte[] toBytes() {
         ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + data.length);
-        buffer.put(type.getValue());
-        buffer.putInt(seqNum);
-        buffer.put(data);
+        PacketView.encode(buffer, type, connectionId, seqNum, data);
         return buffer.array();
     }
 
     public static Packet fromBytes(byte[] raw) {
-        ByteBuffer buffer = ByteBuffer.wrap(raw);
-        Type type = Type.fromByte(buffer.get());
-        int seqNum = buffer.getInt();
-        byte[] data = new byte[raw.length - HEADER_SIZE];
-        buffer.get(data);
-        return new Packet(type, seqNum, data);
+        PacketView view = new PacketView().wrap(ByteBuffer.wrap(raw));
+        return new Packet(view.type(), view.connectionId(), view.seqNum(), view.copyPayload());
     }
 
     @Override
@@ -0,0 +1,242 @@
+package org.example.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Flyweight over an encoded packet in a {@link ByteBuffer}.
+ *
+ * A view is wrapped around a received buffer and reads the header fields and payload
+ * in place with absolute gets, so decoding allocates nothing. One view is meant to be
+ * reused by a single thread for every packet it handles; it must not be kept past the
+ * lifetime of the buffer it wraps.
+ *
+ * The static encode helpers do the reverse for send buffers. The receiver builds ACKs in
+ * place: their payload is written after {@link Packet#HEADER_SIZE} reserved bytes and the
+ * header is filled in afterwards. Data segments are encoded whole with {@code encode},
+ * which copies the payload into the lease; see Sender for why that copy stays.
+ */
+public final class PacketView {
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    /**
+     * Points the view at the packet between the buffer's position and limit.
+     */
+    public PacketView wrap(ByteBuffer buffer) {
+        if (buffer.remaining() < Packet.HEADER_SIZE) {
+            throw new IllegalArgumentException("Packet too short: " + buffer.remaining() + " bytes");
+        }
+        this.buffer = buffer;
+        this.offset = buffer.position();
+        this.length = buffer.remaining();
+        return this;
+    }
+
+    public Packet.Type type() {
+        return Packet.Type.fromByte(buffer.get(offset + Packet.TYPE_OFFSET));
+    }
+
+    public int connectionId() {
+        return buffer.getInt(offset + Packet.CONN_ID_OFFSET);
+    }
+
+    public int seqNum() {
+        return buffer.getInt(offset + Packet.SEQ_OFFSET);
+    }
+
+    /**
+     * Sender's timestamp in microseconds, truncated to 32 bits; 0 if not stamped.
+     */
+    public int tsVal() {
+        return buffer.getInt(offset + Packet.TSVAL_OFFSET);
+    }
+
+    /**
+     * Timestamp echoed from the peer; 0 if the peer had none to echo.
+     */
+    public int tsEcr() {
+        return buffer.getInt(offset + Packet.TSECR_OFFSET);
+    }
+
+    /**
+     * Position of a DATA payload's first byte in the sender's stream; in an ACK, the offset
+     * a resumed session continues from.
+     */
+    public long streamOffset() {
+        return buffer.getLong(offset + Packet.STREAM_OFFSET_OFFSET);
+    }
+
+    /**
+     * Session a SYN asks to resume; 0 for a SYN that names none.
+     */
+    public long sessionId() {
+        if (payloadLength() < Packet.SESSION_ID_SIZE) {
+            return 0;
+        }
+        return buffer.getLong(offset + Packet.HEADER_SIZE);
+    }
+
+    public int payloadLength() {
+        return length - Packet.HEADER_SIZE;
+    }
+
+    /**
+     * Copies the payload into {@code dst} starting at {@code dstOffset}.
+     */
+    public void copyPayload(byte[] dst, int dstOffset) {
+        buffer.get(offset + Packet.HEADER_SIZE, dst, dstOffset, payloadLength());
+    }
+
+    public byte[] copyPayload() {
+        byte[] data = new byte[payloadLength()];
+        copyPayload(data, 0);
+        return data;
+    }
+
+    /**
+     * Writes the payload to {@code channel} at {@code position} straight from the wrapped
+     * buffer. The buffer's position and limit are moved for the write and then restored.
+     */
+    public void writePayload(FileChannel channel, long position) throws IOException {
+        int savedPosition = buffer.position();
+        int savedLimit = buffer.limit();
+        buffer.limit(offset + length).position(offset + Packet.HEADER_SIZE);
+        try {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } finally {
+            buffer.limit(savedLimit).position(savedPosition);
+        }
+    }
+
+    /**
+     * Receive window advertised by an ACK, in segments beyond the acknowledged one;
+     * {@link Integer#MAX_VALUE} for an ACK without a window field.
+     */
+    public int window() {
+        if (payloadLength() < Packet.WINDOW_SIZE) {
+            return Integer.MAX_VALUE;
+        }
+        return buffer.getInt(offset + Packet.HEADER_SIZE);
+    }
+
+    /**
+     * Number of SACK blocks carried by an ACK; 0 for an ACK without SACK information.
+     */
+    public int sackBlockCount() {
+        if (payloadLength() <= Packet.WINDOW_SIZE) {
+            return 0;
+        }
+        // A count beyond what the payload holds would read past the packet
+        int fits = (payloadLength() - Packet.WINDOW_SIZE - 1) / Packet.SACK_BLOCK_SIZE;
+        return Math.min(buffer.get(offset + Packet.HEADER_SIZE + Packet.WINDOW_SIZE) & 0xFF, fits);
+    }
+
+    public int sackStart(int block) {
+        return buffer.getInt(sackOffset(block));
+    }
+
+    public int sackEnd(int block) {
+        return buffer.getInt(sackOffset(block) + 4);
+    }
+
+    private int sackOffset(int block) {
+        return offset + Packet.HEADER_SIZE + Packet.WINDOW_SIZE + 1 + block * Packet.SACK_BLOCK_SIZE;
+    }
+
+    /**
+     * Writes an ACK payload at the buffer's position: the advertised window followed by
+     * {@code count} SACK blocks. {@code blocks} holds inclusive start/end pairs.
+     */
+    public static void putAckPayload(ByteBuffer buffer, int window, int[] blocks, int count) {
+        buffer.putInt(window);
+        buffer.put((byte) count);
+        for (int i = 0; i < 2 * count; i++) {
+            buffer.putInt(blocks[i]);
+        }
+    }
+
+    /**
+     * Moves the buffer's position past the header so the payload can be written directly.
+     */
+    public static void reserveHeader(ByteBuffer buffer) {
+        buffer.position(buffer.position() + Packet.HEADER_SIZE);
+    }
+
+    /**
+     * Writes a header at {@code packetStart}, in front of payload already in the buffer.
+     * The buffer's position is left unchanged.
+     */
+    public static void writeHeader(ByteBuffer buffer, int packetStart, Packet.Type type, int connectionId,
+                                   int seqNum) {
+        writeHeader(buffer, packetStart, type, connectionId, seqNum, 0, 0);
+    }
+
+    /**
+     * Writes a header with the timestamp option filled in.
+     */
+    public static void writeHeader(ByteBuffer buffer, int packetStart, Packet.Type type, int connectionId,
+                                   int seqNum, int tsVal, int tsEcr) {
+        writeHeader(buffer, packetStart, type, connectionId, seqNum, tsVal, tsEcr, 0);
+    }
+
+    /**
+     * Writes a header with the timestamp option and a DATA segment's stream offset.
+     */
+    public static void writeHeader(ByteBuffer buffer, int packetStart, Packet.Type type, int connectionId,
+                                   int seqNum, int tsVal, int tsEcr, long streamOffset) {
+        buffer.put(packetStart + Packet.TYPE_OFFSET, type.getValue());
+        buffer.putInt(packetStart + Packet.CONN_ID_OFFSET, connectionId);
+        buffer.putInt(packetStart + Packet.SEQ_OFFSET, seqNum);
+        buffer.putInt(packetStart + Packet.TSVAL_OFFSET, tsVal);
+        buffer.putInt(packetStart + Packet.TSECR_OFFSET, tsEcr);
+        buffer.putLong(packetStart + Packet.STREAM_OFFSET_OFFSET, streamOffset);
+    }
+
+    /**
+     * Encodes a whole packet at the buffer's position and advances past it.
+     */
+    public static void encode(ByteBuffer buffer, Packet.Type type, int connectionId, int seqNum, byte[] data) {
+        encode(buffer, type, connectionId, seqNum, 0, 0, data);
+    }
+
+    public static void encode(ByteBuffer buffer, Packet.Type type, int connectionId, int seqNum, int tsVal,
+                              int tsEcr, byte[] data) {
+        int start = buffer.position();
+        reserveHeader(buffer);
+        buffer.put(data);
+        writeHeader(buffer, start, type, connectionId, seqNum, tsVal, tsEcr);
+    }
+
+    /**
+     * Encodes a packet whose payload is the remaining bytes of {@code payload}, which may be
+     * a slice of a mapped file. The payload buffer's position is left unchanged.
+     */
+    public static void encode(ByteBuffer buffer, Packet.Type type, int connectionId, int seqNum, int tsVal,
+                              int tsEcr, long streamOffset, ByteBuffer payload) {
+        int start = buffer.position();
+        reserveHeader(buffer);
+        int length = payload.remaining();
+        buffer.put(buffer.position(), payload, payload.position(), length);
+        buffer.position(buffer.position() + length);
+        writeHeader(buffer, start, type, connectionId, seqNum, tsVal, tsEcr, streamOffset);
+    }
+
+    /**
+     * Current time on {@code nanoTime}'s clock as a timestamp: microseconds truncated to
+     * 32 bits, never 0 so it cannot be mistaken for "none".
+     */
+    public static int timestamp(long nanoTime) {
+        int ts = (int) (nanoTime / 1000);
+        return ts != 0 ? ts : 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d", type().name(), seqNum());
+    }
+}
@@ -1,81 +1,901 @@
 package org.example.protocol;
 
-import org.example.network.LowerLayerEndpoint;
+import org.example.concurrent.Threads;
+import org.example.metrics.MetricSource;
+import org.example.metrics.MetricWriter;
+import org.example.metrics.MetricsRegistry;
+import org.example.network.DatagramEndpoint;
+import org.example.network.PooledBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Receiver {
     private static final Logger logger = LoggerFactory.getLogger(Receiver.class);
-    private static final int BUF_SIZE = 1000;
+    private static final long DEFAULT_ACK_DELAY_NANOS = 20_000_000L;
+    public static final int INITIAL_RECV_BUFFER_SIZE = 128 * 1024;
+    public static final int DEFAULT_RECV_BUFFER_SIZE = 64 << 20;
+    private static final long IDLE_SHRINK_NANOS = 1_000_000_000L;
+    private static final int MIN_SLOTS = 16;
+    private static final int RECV_CHUNK_SIZE = 64 * 1024;
+    // Marks a reassembly slot whose segment has already been written to the output file
+    private static final byte[] WRITTEN = new byte[0];
+    // Slot contents of a SYN, whose payload is not stream data
+    private static final byte[] NO_DATA = new byte[0];
+    // Slot contents of a FIN: once it is delivered, reads see the end of the stream
+    private static final byte[] END = new byte[0];
+    private static final long CHECKPOINT_INTERVAL_NANOS = 500_000_000L;
 
-    private final LowerLayerEndpoint llEndpoint;
+    private final DatagramEndpoint llEndpoint;
+    private int connectionId = 0;
+    // Sequence numbers start where the SYN says and wrap, so they are compared with Seq
+    private boolean synReceived = false;
     private int lastAckSent = -1;
     private int maxSeqRecv = -1;
-    private final byte[][] recvWindow = new byte[BUF_SIZE][];
-    private final BlockingQueue<byte[]> readyData = new LinkedBlockingQueue<>();
+    private volatile boolean shutdown = false;
+    private boolean finished = false;
+    private final int[] sackBlocks = new int[2 * Packet.MAX_SACK_BLOCKS];
     private Thread recvThread;
+    private final TimerService timers;
 
-    public Receiver(LowerLayerEndpoint llEndpoint) {
+    // Guards all connection state. A lock rather than the monitor so that readers parked in
+    // recv() do not pin their carrier when running on virtual threads.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dataAvailable = lock.newCondition();
+
+    // Delayed ACKs: in-order segments are acknowledged every ackEvery segments or
+    // after ackDelayNanos, whichever comes first
+    private final int ackEvery;
+    private final long ackDelayNanos;
+    private final TimerService.Timeout ackTimer;
+    private int unackedSegments = 0;
+    private long acksSent = 0;
+
+    // Timestamp echo (RFC 7323): ACKs carry the timestamp of the segment at the left edge
+    // when the last ACK was sent, so a delayed ACK echoes the earliest segment it covers and
+    // the ACK for a retransmission echoes the retransmission, not the lost original
+    private int tsRecent = 0;
+    private int lastAckNumSent = -1;
+
+    // Flow control: segments wait in the reassembly slots until they are in order and fit in
+    // the ring the application reads from, and only delivered segments are acknowledged. The
+    // advertised window is the number of full segments the ring still has room for, capped
+    // by the slot count, so the sender can never overrun either.
+    private byte[][] recvWindow;
+    private int slotMask;
+    private final ByteRing readyData;
+    private int windowUpdateThreshold;
+    private int lastWindowSent = 0;
+
+    // Auto-tuning (dynamic right-sizing, like Linux's tcp_rcv_space_adjust): once per round
+    // trip, timed by the sender echoing the timestamps on our ACKs, the ring grows to twice
+    // the most the application has read in one round trip, or in file mode the slots to
+    // twice the most written, so the window keeps ahead of a sender still opening its
+    // congestion window. It stays within the size given at construction and drops back to
+    // its initial size after a second without data.
+    private final int maxRecvBufferSize;
+    private final int initialRecvBufferSize;
+    private final TimerService.Timeout idleTimer;
+    private long rcvRttNanos = 0;
+    private long spaceStartNanos = 0;
+    private long spaceStartRead = 0;
+    private long space = 0;
+    private long bytesRead = 0;
+    private long lastDataNanos = 0;
+
+    // Receive-to-file mode: each segment is written at its stream offset as soon as it
+    // arrives, gaps or not, and its slot only remembers the range it covered. Nothing waits
+    // to be read, so the window is every slot, and the buffer size the slots are tuned to
+    // stands in for the ring's capacity.
+    private final boolean toFile;
+    private FileChannel output;
+    private int fileBufferSize;
+    private long[] slotStart;
+    private long[] slotEnd;
+    private long deliveredOffset = 0;
+
+    // Resumable sessions: with a session directory the SYN names the session, which picks
+    // the output file and its checkpoint journal. Every ACK carries the offset the journal
+    // says an earlier connection got to, and the sender skips that much of the stream.
+    // Checkpoints are due every CHECKPOINT_INTERVAL_NANOS while data arrives; the receive
+    // thread writes them between packets, outside the lock, so the fsyncs are batched and
+    // never stall ACKs or readers. Ranges journaled beyond the offset are not written again.
+    private final Path sessionDir;
+    private CheckpointJournal journal;
+    private long resumeOffset = 0;
+    private long[] heldRanges = new long[0];
+    private final long[] checkpointRanges = new long[2 * Packet.MAX_SACK_BLOCKS];
+    private final TimerService.Timeout checkpointTimer;
+    private volatile boolean checkpointDue = false;
+
+    // Metrics, guarded by lock
+    private long packetsReceived = 0;
+    private long bytesReceived = 0;
+    private long duplicates = 0;
+    private long outOfOrder = 0;
+    private long beyondWindow = 0;
+    private long bytesDelivered = 0;
+    private final MetricSource metrics = new Metrics();
+
+    public Receiver(DatagramEndpoint llEndpoint) {
+        this(llEndpoint, 1, DEFAULT_ACK_DELAY_NANOS, TimerWheel.getDefault());
+    }
+
+    public Receiver(DatagramEndpoint llEndpoint, int ackEvery, long ackDelayNanos) {
+        this(llEndpoint, ackEvery, ackDelayNanos, TimerWheel.getDefault());
+    }
+
+    public Receiver(DatagramEndpoint llEndpoint, int ackEvery, long ackDelayNanos, int recvBufferSize) {
+        this(llEndpoint, ackEvery, ackDelayNanos, recvBufferSize, TimerWheel.getDefault());
+    }
+
+    public Receiver(DatagramEndpoint llEndpoint, int ackEvery, long ackDelayNanos, TimerService timers) {
+        this(llEndpoint, ackEvery, ackDelayNanos, DEFAULT_RECV_BUFFER_SIZE, timers);
+    }
+
+    /**
+     * @param recvBufferSize most bytes of delivered data held for the application before
+     *                       the advertised window closes; at least one full segment. The
+     *                       buffer starts at {@link #INITIAL_RECV_BUFFER_SIZE} or this,
+     *                       whichever is smaller, and grows towards it with the
+     *                       bandwidth-delay product the application keeps up with.
+     */
+    public Receiver(DatagramEndpoint llEndpoint, int ackEvery, long ackDelayNanos, int recvBufferSize,
+                    TimerService timers) {
+        this(llEndpoint, ackEvery, ackDelayNanos, recvBufferSize, null, null, timers);
+    }
+
+    public Receiver(DatagramEndpoint llEndpoint, int ackEvery, long ackDelayNanos, int recvBufferSize,
+                    FileChannel output) {
+        this(llEndpoint, ackEvery, ackDelayNanos, recvBufferSize, output, null, TimerWheel.getDefault());
+    }
+
+    /**
+     * @param output if not null, the stream is written to this channel, byte {@code n} of
+     *               the stream at position {@code n}, and {@link #recv()} and
+     *               {@link #read(byte[], int, int)} only return at the end of the stream
+     *               or once the receiver shuts down. {@code recvBufferSize} then bounds
+     *               how far ahead of a gap segments are taken. The receiver closes the channel when it shuts
+     *               down.
+     */
+    public Receiver(DatagramEndpoint llEndpoint, int ackEvery, long ackDelayNanos, int recvBufferSize,
+                    FileChannel output, TimerService timers) {
+        this(llEndpoint, ackEvery, ackDelayNanos, recvBufferSize, output, null, timers);
+    }
+
+    public Receiver(DatagramEndpoint llEndpoint, int ackEvery, long ackDelayNanos, int recvBufferSize,
+                    Path sessionDir) {
+        this(llEndpoint, ackEvery, ackDelayNanos, recvBufferSize, null, sessionDir, TimerWheel.getDefault());
+    }
+
+    /**
+     * Receives a resumable session to a file, as with an output channel. The SYN's session ID,
+     * in hex, names the file in {@code sessionDir}; a journal of checkpoints is kept next to
+     * it with a {@code .journal} suffix. A session resumed by a later connection, after
+     * either side restarted, continues where the last checkpoint left off. A SYN without a
+     * session ID starts a session named after its connection ID.
+     */
+    public Receiver(DatagramEndpoint llEndpoint, int ackEvery, long ackDelayNanos, int recvBufferSize,
+                    Path sessionDir, TimerService timers) {
+        this(llEndpoint, ackEvery, ackDelayNanos, recvBufferSize, null, sessionDir, timers);
+    }
+
+    private Receiver(DatagramEndpoint llEndpoint, int ackEvery, long ackDelayNanos, int recvBufferSize,
+                     FileChannel output, Path sessionDir, TimerService timers) {
+        if (ackEvery < 1) {
+            throw new IllegalArgumentException("ackEvery must be at least 1: " + ackEvery);
+        }
+        if (recvBufferSize < Packet.MAX_DATA_SIZE) {
+            throw new IllegalArgumentException("recvBufferSize must hold a full segment: " + recvBufferSize);
+        }
         this.llEndpoint = llEndpoint;
+        if (llEndpoint instanceof ConnectionEndpoint connection) {
+            this.connectionId = connection.getConnectionId();
+        }
+        this.ackEvery = ackEvery;
+        this.ackDelayNanos = ackDelayNanos;
+        this.timers = timers;
+        this.ackTimer = timers.newTimeout(this::handleAckTimeout);
+        this.idleTimer = timers.newTimeout(this::handleIdleTimeout);
+        this.checkpointTimer = timers.newTimeout(this::handleCheckpointTimeout);
+        this.maxRecvBufferSize = recvBufferSize;
+        this.initialRecvBufferSize = Math.min(INITIAL_RECV_BUFFER_SIZE, recvBufferSize);
+        this.output = output;
+        this.sessionDir = sessionDir;
+        this.toFile = output != null || sessionDir != null;
+        this.readyData = new ByteRing(toFile ? 1 : initialRecvBufferSize);
+        this.fileBufferSize = initialRecvBufferSize;
+        this.recvWindow = new byte[slotsFor(initialRecvBufferSize)][];
+        this.slotMask = recvWindow.length - 1;
+        if (toFile) {
+            this.slotStart = new long[recvWindow.length];
+            this.slotEnd = new long[recvWindow.length];
+        }
+        this.windowUpdateThreshold = Math.max(1, maxWindow() / 4);
         startRecvThread();
+        MetricsRegistry.getDefault().register(metrics);
     }
 
+    /**
+     * Waits for data and returns up to 64 KiB of it.
+     *
+     * @return the data, or null at the end of the stream, if the receiver was shut down or
+     *         the calling thread interrupted
+     */
     public byte[] recv() {
+        lock.lock();
+        try {
+            if (!awaitData()) {
+                return null;
+            }
+            byte[] data = new byte[Math.min(readyData.size(), RECV_CHUNK_SIZE)];
+            readyData.get(data, 0, data.length);
+            bytesRead += data.length;
+            onRead();
+            return data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for data and moves up to {@code len} bytes of it into {@code dst}.
+     *
+     * @return the number of bytes read, or -1 at the end of the stream, if the receiver was
+     *         shut down or the calling thread interrupted
+     */
+    public int read(byte[] dst, int off, int len) {
+        lock.lock();
+        try {
+            if (len == 0) {
+                return 0;
+            }
+            if (!awaitData()) {
+                return -1;
+            }
+            int n = readyData.get(dst, off, len);
+            bytesRead += n;
+            onRead();
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean awaitData() {
         try {
-            return readyData.take();
+            while (readyData.size() == 0 && !shutdown && !finished) {
+                dataAvailable.await();
+            }
+            return readyData.size() > 0;
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            return null;
+            return false;
+        }
+    }
+
+    /**
+     * Moves segments the full ring was holding back, then tells the sender if that
+     * advanced the ACK or opened the window enough to be worth a packet.
+     */
+    private void onRead() {
+        tuneBuffer();
+        int prevAckSent = lastAckSent;
+        deliver();
+        if (lastAckSent != prevAckSent || advertisedWindow() - lastWindowSent >= windowUpdateThreshold) {
+            sendAck(lastAckSent);
+            logger.debug("rwnd Sent (Window update): ACK {} window {}", lastAckSent, lastWindowSent);
+        }
+    }
+
+    /**
+     * Payload bytes delivered to the read buffer, or in file mode written to the file.
+     */
+    public long getBytesDelivered() {
+        lock.lock();
+        try {
+            return bytesDelivered;
+        } finally {
+            lock.unlock();
         }
     }
 
+    public int getBufferedBytes() {
+        lock.lock();
+        try {
+            return readyData.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bytes the read buffer can currently hold, or in file mode the bytes the reassembly
+     * slots cover; tuned between its initial size and the size given at construction.
+     */
+    public int getReceiveBufferSize() {
+        lock.lock();
+        try {
+            return bufferSize();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAcksSent() {
+        lock.lock();
+        try {
+            return acksSent;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * ID of the connection this receiver serves, learned from the first packet; 0 before that.
+     */
+    public int getConnectionId() {
+        lock.lock();
+        try {
+            return connectionId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Address the peer last sent from, or null if this receiver was not accepted by a
+     * {@link ConnectionListener}.
+     */
+    public InetSocketAddress getRemoteAddress() {
+        return llEndpoint instanceof ConnectionEndpoint connection ? connection.getPeer() : null;
+    }
+
+    /**
+     * Stops receiving and closes the endpoint, and the output file in file mode. A resumable
+     * session is checkpointed first. Data already delivered can still be read.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            ackTimer.cancel();
+            idleTimer.cancel();
+            checkpointTimer.cancel();
+            dataAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        checkpoint();
+        lock.lock();
+        try {
+            closeOutput();
+        } finally {
+            lock.unlock();
+        }
+        llEndpoint.shutdown();
+        MetricsRegistry.getDefault().unregister(metrics);
+    }
+
     private void startRecvThread() {
-        recvThread = new Thread(() -> {
-            while (true) {
-                byte[] raw = llEndpoint.recv();
-                if (raw == null) continue;
+        recvThread = Threads.start("receiver-" + connectionId, () -> {
+            PacketView packet = new PacketView();
+            while (!shutdown) {
+                PooledBuffer lease = llEndpoint.recvBuffer();
+                if (lease == null) {
+                    if (llEndpoint instanceof ConnectionEndpoint connection && connection.isShutdown()) {
+                        // The listener closed the connection: nothing more will arrive
+                        shutdown();
+                    }
+                    continue;
+                }
 
-                Packet packet = Packet.fromBytes(raw);
+                try {
+                    // type() rejects unknown types here rather than in handlePacket
+                    packet.wrap(lease.buffer()).type();
+                } catch (IllegalArgumentException e) {
+                    logger.debug("rwnd Dropped malformed datagram: {}", e.getMessage());
+                    lease.release();
+                    continue;
+                }
                 logger.debug("rwnd Received: {}", packet);
+                handlePacket(packet);
+                lease.release();
+                if (checkpointDue) {
+                    checkpoint();
+                }
+            }
+        });
+    }
 
-                if (packet.getSeqNum() <= lastAckSent) {
-                    sendAck(lastAckSent);
-                    logger.debug("rwnd Sent (Retransmit): ACK {}", lastAckSent);
-                    continue;
+    private void handlePacket(PacketView packet) {
+        lock.lock();
+        try {
+            if (connectionId == 0) {
+                connectionId = packet.connectionId();
+            } else if (packet.connectionId() != connectionId) {
+                logger.debug("rwnd Ignoring packet for connection {}", packet.connectionId());
+                return;
+            }
+
+            int seqNum = packet.seqNum();
+            if (!synReceived) {
+                if (packet.type() != Packet.Type.SYN) {
+                    // Overtook a lost SYN; the sender goes back to the SYN on its timeout
+                    logger.debug("rwnd Dropped before SYN: {}", seqNum);
+                    return;
+                }
+                synReceived = true;
+                lastAckSent = seqNum - 1;
+                maxSeqRecv = seqNum - 1;
+                lastAckNumSent = seqNum - 1;
+                if (sessionDir != null && !openSession(packet.sessionId())) {
+                    return;
                 }
+            }
+
+            long now = timers.nanoTime();
+            int tsVal = packet.tsVal();
+            if (tsVal != 0 && Seq.le(seqNum, lastAckNumSent + 1) && (tsRecent == 0 || tsVal - tsRecent >= 0)) {
+                tsRecent = tsVal;
+            }
+            int tsEcr = packet.tsEcr();
+            if (tsEcr != 0) {
+                sampleRtt((PacketView.timestamp(now) - tsEcr) * 1000L);
+            }
+            packetsReceived++;
+            bytesReceived += packet.payloadLength();
+            lastDataNanos = now;
+
+            if (Seq.le(seqNum, lastAckSent)) {
+                duplicates++;
+                sendAck(lastAckSent);
+                logger.debug("rwnd Sent (Retransmit): ACK {}", lastAckSent);
+                return;
+            }
+
+            if (seqNum - lastAckSent > recvWindow.length) {
+                beyondWindow++;
+                // Its slot still holds an undelivered segment; a sender respecting the window never gets here
+                sendAck(lastAckSent);
+                logger.debug("rwnd Dropped beyond reassembly buffer: {}", seqNum);
+                return;
+            }
+
+            boolean hadGap = Seq.gt(maxSeqRecv, lastAckSent);
+            if (Seq.gt(seqNum, lastAckSent + 1)) {
+                outOfOrder++;
+            }
+            if (!toFile) {
+                recvWindow[seqNum & slotMask] = packet.type() == Packet.Type.DATA ? packet.copyPayload()
+                        : packet.type() == Packet.Type.FIN ? END : NO_DATA;
+            } else if (recvWindow[seqNum & slotMask] == null && !writeToFile(packet)) {
+                return;
+            }
+            if (Seq.gt(seqNum, maxSeqRecv)) {
+                maxSeqRecv = seqNum;
+            }
+
+            int prevAckSent = lastAckSent;
+            deliver();
+            unackedSegments += lastAckSent - prevAckSent;
+            if (toFile) {
+                tuneBuffer();
+            }
 
-                int slot = packet.getSeqNum() % BUF_SIZE;
-                recvWindow[slot] = packet.getData();
-                if (packet.getSeqNum() > maxSeqRecv) {
-                    maxSeqRecv = packet.getSeqNum();
+            // Out-of-order arrivals, gap fills, the SYN and the FIN are acknowledged at once so
+            // the sender's loss recovery and close are not held up; plain in-order data may wait.
+            boolean immediate = hadGap || Seq.gt(maxSeqRecv, lastAckSent) || packet.type() != Packet.Type.DATA;
+            if (immediate || unackedSegments >= ackEvery) {
+                sendAck(lastAckSent);
+                logger.debug("rwnd Sent: ACK {}", lastAckSent);
+            } else if (!ackTimer.isArmed()) {
+                ackTimer.rearm(ackDelayNanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves in-order segments from the reassembly slots into the ring while they fit.
+     */
+    private void deliver() {
+        int delivered = 0;
+        while (Seq.lt(lastAckSent, maxSeqRecv)) {
+            int slot = (lastAckSent + 1) & slotMask;
+            byte[] data = recvWindow[slot];
+            if (data == null || data.length > readyData.free()) break;
+
+            if (data == END) {
+                finished = true;
+                dataAvailable.signalAll();
+            } else if (data != WRITTEN) {
+                readyData.put(data);
+                delivered += data.length;
+            }
+            if (toFile) {
+                deliveredOffset = Math.max(deliveredOffset, slotEnd[slot]);
+            }
+            recvWindow[slot] = null;
+            lastAckSent++;
+        }
+        bytesDelivered += delivered;
+        if (delivered > 0) {
+            dataAvailable.signalAll();
+        }
+    }
+
+    /**
+     * File mode: writes a DATA segment at its stream offset straight from the received
+     * buffer, unless a resumed session's journal says the file already holds it, and marks
+     * its slot. Positional writes to the page cache are cheap enough to make under the lock.
+     * A failed write shuts the receiver down, since the file can no longer be whole.
+     *
+     * @return false if the write failed
+     */
+    private boolean writeToFile(PacketView packet) {
+        long start = packet.streamOffset();
+        long end = start;
+        if (packet.type() == Packet.Type.DATA) {
+            end += packet.payloadLength();
+            try {
+                if (!isHeld(start, end)) {
+                    packet.writePayload(output, start);
                 }
+            } catch (IOException e) {
+                logger.error("Failed to write connection {} at offset {}", connectionId, start, e);
+                shutdown();
+                return false;
+            }
+            bytesDelivered += end - start;
+            if (journal != null && !checkpointTimer.isArmed()) {
+                checkpointTimer.rearm(CHECKPOINT_INTERVAL_NANOS);
+            }
+        }
+        int slot = packet.seqNum() & slotMask;
+        recvWindow[slot] = packet.type() == Packet.Type.FIN ? END : WRITTEN;
+        slotStart[slot] = start;
+        slotEnd[slot] = end;
+        return true;
+    }
+
+    private boolean isHeld(long start, long end) {
+        if (end <= resumeOffset) {
+            return true;
+        }
+        for (int i = 0; i < heldRanges.length; i += 2) {
+            if (start >= heldRanges[i] && end <= heldRanges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens the output file and journal of the session a SYN names and recovers where it
+     * left off.
+     *
+     * @return false if they could not be opened, which shuts the receiver down
+     */
+    private boolean openSession(long sessionId) {
+        String name = Long.toHexString(sessionId != 0 ? sessionId : Integer.toUnsignedLong(connectionId));
+        try {
+            output = FileChannel.open(sessionDir.resolve(name), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            journal = CheckpointJournal.open(sessionDir.resolve(name + ".journal"));
+        } catch (IOException e) {
+            logger.error("Failed to open session {} in {}", name, sessionDir, e);
+            shutdown();
+            return false;
+        }
+        resumeOffset = journal.getOffset();
+        heldRanges = journal.getRanges();
+        deliveredOffset = resumeOffset;
+        logger.info("Connection {} resumes session {} at offset {}", connectionId, name, resumeOffset);
+        return true;
+    }
+
+    private void handleCheckpointTimeout() {
+        checkpointDue = true;
+    }
+
+    /**
+     * Forces the output file, then journals how far the stream is complete and the ranges
+     * held beyond that. The I/O happens outside the lock.
+     */
+    private void checkpoint() {
+        CheckpointJournal journal;
+        FileChannel output;
+        long offset;
+        int count;
+        long[] ranges;
+        lock.lock();
+        try {
+            checkpointDue = false;
+            journal = this.journal;
+            output = this.output;
+            if (journal == null || !output.isOpen()) {
+                return;
+            }
+            offset = deliveredOffset;
+            count = collectHeldRanges();
+            ranges = checkpointRanges.clone();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            output.force(false);
+            journal.append(offset, ranges, count);
+        } catch (ClosedChannelException e) {
+            // Shut down meanwhile, after a later checkpoint of its own
+        } catch (IOException e) {
+            logger.warn("Failed to checkpoint connection {} at offset {}", connectionId, offset, e);
+        }
+    }
+
+    /**
+     * Fills {@code checkpointRanges} with the stream ranges of segments written beyond the
+     * in-order prefix, like {@link #collectSackBlocks()} in offsets rather than segments.
+     *
+     * @return the number of ranges
+     */
+    private int collectHeldRanges() {
+        int count = 0;
+        int seq = lastAckSent + 1;
+        while (Seq.le(seq, maxSeqRecv) && count < Packet.MAX_SACK_BLOCKS) {
+            while (Seq.le(seq, maxSeqRecv) && recvWindow[seq & slotMask] == null) {
+                seq++;
+            }
+            if (Seq.gt(seq, maxSeqRecv)) break;
+            long start = slotStart[seq & slotMask];
+            long end = start;
+            while (Seq.le(seq, maxSeqRecv) && recvWindow[seq & slotMask] != null) {
+                end = slotEnd[seq & slotMask];
+                seq++;
+            }
+            checkpointRanges[2 * count] = start;
+            checkpointRanges[2 * count + 1] = end;
+            count++;
+        }
+        return count;
+    }
+
+    private void closeOutput() {
+        try {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            if (output != null) {
+                output.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to close output of connection {}", connectionId, e);
+        }
+    }
 
-                int ackNum = lastAckSent;
-                while (ackNum < maxSeqRecv) {
-                    int nextSlot = (ackNum + 1) % BUF_SIZE;
-                    byte[] data = recvWindow[nextSlot];
+    private int maxWindow() {
+        if (toFile) {
+            return recvWindow.length;
+        }
+        return Math.min(recvWindow.length, readyData.capacity() / Packet.MAX_DATA_SIZE);
+    }
 
-                    if (data == null) break;
+    private int advertisedWindow() {
+        if (toFile) {
+            return recvWindow.length;
+        }
+        return Math.min(recvWindow.length, readyData.free() / Packet.MAX_DATA_SIZE);
+    }
+
+    private static int slotsFor(int bufferSize) {
+        int segments = Math.max(bufferSize / Packet.MAX_DATA_SIZE, 1);
+        return Math.max(MIN_SLOTS, Integer.highestOneBit(2 * segments - 1));
+    }
+
+    /**
+     * Round trip from sending an ACK to data echoing its timestamp. Quick to follow a
+     * shorter sample and slow to follow a longer one, since a sender with nothing to send
+     * echoes an old timestamp when it starts again.
+     */
+    private void sampleRtt(long rttNanos) {
+        if (rttNanos <= 0) {
+            return;
+        }
+        if (rcvRttNanos == 0 || rttNanos < rcvRttNanos) {
+            rcvRttNanos = rttNanos;
+        } else {
+            rcvRttNanos += (rttNanos - rcvRttNanos) / 8;
+        }
+    }
+
+    /**
+     * Buffer size the window is tuned to: the ring's capacity, or in file mode the size the
+     * slots stand for.
+     */
+    private int bufferSize() {
+        return toFile ? fileBufferSize : readyData.capacity();
+    }
 
-                    ackNum++;
-                    readyData.offer(data);
-                    recvWindow[nextSlot] = null;
+    /**
+     * Once a round trip has passed since the last measurement, grows the buffer to twice
+     * what the application read, or what was written to the file, in it if that is a new
+     * high.
+     */
+    private void tuneBuffer() {
+        if (rcvRttNanos == 0 || bufferSize() >= maxRecvBufferSize) {
+            return;
+        }
+        long now = timers.nanoTime();
+        if (now - spaceStartNanos < rcvRttNanos) {
+            return;
+        }
+        long consumed = toFile ? bytesDelivered : bytesRead;
+        long copied = consumed - spaceStartRead;
+        spaceStartNanos = now;
+        spaceStartRead = consumed;
+        if (copied > space) {
+            space = copied;
+            int size = (int) Math.min(2 * copied, maxRecvBufferSize);
+            if (size > bufferSize()) {
+                logger.debug("rwnd Receive buffer {} -> {} bytes ({} read in {} us)", bufferSize(), size,
+                        copied, rcvRttNanos / 1000);
+                resizeBuffer(size);
+            }
+        }
+    }
+
+    /**
+     * Resizes the read buffer and the reassembly slots in front of it. The slots only
+     * shrink while no segment waits in them.
+     */
+    private void resizeBuffer(int size) {
+        if (toFile) {
+            fileBufferSize = size;
+        } else {
+            readyData.resize(Math.max(size, readyData.size()));
+        }
+        int slots = slotsFor(bufferSize());
+        if (slots > recvWindow.length || (slots < recvWindow.length && maxSeqRecv == lastAckSent)) {
+            byte[][] resized = new byte[slots][];
+            long[] resizedStart = toFile ? new long[slots] : null;
+            long[] resizedEnd = toFile ? new long[slots] : null;
+            for (int seq = lastAckSent + 1; Seq.le(seq, maxSeqRecv); seq++) {
+                resized[seq & (slots - 1)] = recvWindow[seq & slotMask];
+                if (toFile) {
+                    resizedStart[seq & (slots - 1)] = slotStart[seq & slotMask];
+                    resizedEnd[seq & (slots - 1)] = slotEnd[seq & slotMask];
                 }
+            }
+            recvWindow = resized;
+            slotStart = resizedStart;
+            slotEnd = resizedEnd;
+            slotMask = slots - 1;
+        }
+        windowUpdateThreshold = Math.max(1, maxWindow() / 4);
+        if (bufferSize() > initialRecvBufferSize && !idleTimer.isArmed()) {
+            idleTimer.rearm(IDLE_SHRINK_NANOS);
+        }
+    }
 
-                lastAckSent = ackNum;
+    /**
+     * Gives a grown buffer back once no data has arrived for a while and none is waiting
+     * to be read, and tells the sender about the smaller window.
+     */
+    private void handleIdleTimeout() {
+        lock.lock();
+        try {
+            if (shutdown || bufferSize() <= initialRecvBufferSize) {
+                return;
+            }
+            long idle = timers.nanoTime() - lastDataNanos;
+            if (idle < IDLE_SHRINK_NANOS || readyData.size() > 0 || maxSeqRecv != lastAckSent) {
+                idleTimer.rearm(Math.max(IDLE_SHRINK_NANOS - idle, IDLE_SHRINK_NANOS / 4));
+                return;
+            }
+            logger.debug("rwnd Receive buffer {} -> {} bytes after {} ms idle", bufferSize(),
+                    initialRecvBufferSize, idle / 1_000_000);
+            resizeBuffer(initialRecvBufferSize);
+            space = 0;
+            sendAck(lastAckSent);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void handleAckTimeout() {
+        lock.lock();
+        try {
+            if (unackedSegments > 0) {
                 sendAck(lastAckSent);
-                logger.debug("rwnd Sent: ACK {}", lastAckSent);
+                logger.debug("rwnd Sent (Delayed): ACK {}", lastAckSent);
             }
-        });
-        recvThread.setDaemon(true);
-        recvThread.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fills {@code sackBlocks} with the runs of segments buffered beyond the cumulative ACK,
+     * lowest first, so the sender can retransmit only the holes between them.
+     *
+     * @return the number of blocks
+     */
+    private int collectSackBlocks() {
+        int count = 0;
+        int seq = lastAckSent + 1;
+        while (Seq.le(seq, maxSeqRecv) && count < Packet.MAX_SACK_BLOCKS) {
+            while (Seq.le(seq, maxSeqRecv) && recvWindow[seq & slotMask] == null) {
+                seq++;
+            }
+            if (Seq.gt(seq, maxSeqRecv)) break;
+            int start = seq;
+            while (Seq.le(seq, maxSeqRecv) && recvWindow[seq & slotMask] != null) {
+                seq++;
+            }
+            sackBlocks[2 * count] = start;
+            sackBlocks[2 * count + 1] = seq - 1;
+            count++;
+        }
+        return count;
     }
 
     private void sendAck(int ackNum) {
-        Packet ack = new Packet(Packet.Type.ACK, ackNum);
-        llEndpoint.send(ack.toBytes());
+        unackedSegments = 0;
+        acksSent++;
+        ackTimer.cancel();
+
+        lastWindowSent = advertisedWindow();
+        lastAckNumSent = ackNum;
+
+        PooledBuffer lease = llEndpoint.allocate();
+        PacketView.reserveHeader(lease.buffer());
+        PacketView.putAckPayload(lease.buffer(), lastWindowSent, sackBlocks, collectSackBlocks());
+        PacketView.writeHeader(lease.buffer(), 0, Packet.Type.ACK, connectionId, ackNum,
+                PacketView.timestamp(timers.nanoTime()), tsRecent, resumeOffset);
+        lease.buffer().flip();
+        llEndpoint.send(lease);
+    }
+
+    private final class Metrics implements MetricSource {
+        @Override
+        public String metricType() {
+            return "receiver";
+        }
+
+        @Override
+        public String metricId() {
+            int id = getConnectionId();
+            return id == 0 ? null : Integer.toString(id);
+        }
+
+        @Override
+        public void collect(MetricWriter writer) {
+            lock.lock();
+            try {
+                writer.counter("packets_received", "Packets received for this connection", packetsReceived);
+                writer.counter("bytes_received", "Payload bytes received, duplicates included", bytesReceived);
+                writer.counter("bytes_delivered",
+                        "Payload bytes delivered in order to the read buffer, or written to the output file",
+                        bytesDelivered);
+                writer.counter("duplicates", "Segments received again after delivery", duplicates);
+                writer.counter("out_of_order", "Segments received ahead of a gap", outOfOrder);
+                writer.counter("beyond_window", "Segments dropped past the reassembly buffer", beyondWindow);
+                writer.counter("acks_sent", "ACKs sent", acksSent);
+                writer.gauge("buffered_bytes", "Delivered bytes waiting to be read", readyData.size());
+                writer.gauge("advertised_window", "Segments the read buffer has room for", advertisedWindow());
+                writer.gauge("receive_buffer_bytes", "Bytes the read buffer can hold", bufferSize());
+            } finally {
+                lock.unlock();
+            }
+        }
     }
-}
\ No newline at end of file
+}
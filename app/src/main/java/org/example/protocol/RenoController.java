@@ -0,0 +1,93 @@
+package org.example.protocol;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AIMD congestion control with optional slow start and Reno fast retransmit/recovery.
+ */
+public class RenoController implements CongestionController {
+    private static final Logger logger = LoggerFactory.getLogger(RenoController.class);
+
+    private final boolean useSlowStart;
+    private final boolean useFastRetransmit;
+    private double cwnd = 1;
+    private double ssthresh = 64;
+    private boolean fastRecovery = false;
+
+    public RenoController(boolean useSlowStart, boolean useFastRetransmit) {
+        this.useSlowStart = useSlowStart;
+        this.useFastRetransmit = useFastRetransmit;
+    }
+
+    @Override
+    public double getCwnd() {
+        return cwnd;
+    }
+
+    @Override
+    public double getSsthresh() {
+        return ssthresh;
+    }
+
+    @Override
+    public boolean inRecovery() {
+        return fastRecovery;
+    }
+
+    /**
+     * Grows cwnd by the number of segments the ACK covers rather than by one per ACK,
+     * so a receiver that delays or coalesces ACKs does not slow window growth.
+     */
+    @Override
+    public void onAck(int ackedSegments, double rttSample, int inFlight, long now) {
+        if (fastRecovery) {
+            cwnd = ssthresh;
+            fastRecovery = false;
+            logger.debug("Exited Fast Recovery; CWND set to ssthresh: {}", cwnd);
+        } else {
+            if (useSlowStart) {
+                if (ssthresh > cwnd) {
+                    cwnd += ackedSegments;
+                    logger.debug("Slow Start. CWND increased to {}", cwnd);
+                } else {
+                    cwnd += (double) ackedSegments / cwnd;
+                    logger.debug("Congestion Avoidance; CWND increased to {}", cwnd);
+                }
+            } else {
+                cwnd += (double) ackedSegments / cwnd;
+                logger.debug("AIMD. CWND increased to {}", cwnd);
+            }
+        }
+    }
+
+    @Override
+    public boolean onDuplicateAck(int dupAckCount) {
+        if (!useFastRetransmit) return false;
+
+        if (!fastRecovery && dupAckCount == 3) {
+            ssthresh = Math.max(2, cwnd / 2);
+            cwnd = ssthresh + 3;
+            fastRecovery = true;
+            logger.debug("Fast Retransmit initiated. ssthresh: {}, CWND: {}", ssthresh, cwnd);
+            return true;
+        } else if (fastRecovery) {
+            cwnd += 1;
+            logger.debug("In Fast Recovery. CWND increased to {}", cwnd);
+        }
+        return false;
+    }
+
+    @Override
+    public void onTimeout() {
+        if (useSlowStart || useFastRetransmit) {
+            ssthresh = Math.max(2, cwnd / 2);
+            cwnd = 1;
+            fastRecovery = false;
+            logger.debug("Timeout occurred. ssthresh set to {}, CWND reset to 1", ssthresh);
+        } else {
+            cwnd = Math.max(1, cwnd / 2);
+            logger.debug("Timeout occurred. CWND decreased to {}", cwnd);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.protocol;
+
+/**
+ * Retransmission timeout from smoothed RTT and RTT variation, as in RFC 6298.
+ *
+ * Times are nanoseconds. Each sample updates SRTT and RTTVAR with gains of 1/8 and 1/4,
+ * and the RTO is SRTT plus four RTTVAR, at least one timer tick, clamped to
+ * [{@link #MIN_RTO_NANOS}, {@link #MAX_RTO_NANOS}]. The minimum is 200 ms like Linux rather
+ * than the RFC's 1 s, which would stall recovery on the short paths this runs over. Each
+ * timeout doubles the RTO until the next sample brings it back to the estimate.
+ */
+public class RttEstimator {
+    public static final long MIN_RTO_NANOS = 200_000_000L;
+    public static final long MAX_RTO_NANOS = 60_000_000_000L;
+    public static final long INITIAL_RTO_NANOS = 1_000_000_000L;
+    // Clock granularity G: the timer wheel's tick
+    private static final long GRANULARITY_NANOS = 1_000_000L;
+
+    private long srtt = 0;
+    private long rttvar = 0;
+    private long rto;
+    private int backoffs = 0;
+
+    public RttEstimator() {
+        this(INITIAL_RTO_NANOS);
+    }
+
+    /**
+     * @param initialRtoNanos RTO until the first sample
+     */
+    public RttEstimator(long initialRtoNanos) {
+        this.rto = clamp(initialRtoNanos);
+    }
+
+    public void sample(long rttNanos) {
+        if (rttNanos < 0) {
+            return;
+        }
+        if (srtt == 0) {
+            srtt = Math.max(1, rttNanos);
+            rttvar = rttNanos / 2;
+        } else {
+            rttvar = rttvar - (rttvar >> 2) + (Math.abs(srtt - rttNanos) >> 2);
+            srtt = srtt - (srtt >> 3) + (rttNanos >> 3);
+        }
+        rto = clamp(srtt + Math.max(GRANULARITY_NANOS, 4 * rttvar));
+        backoffs = 0;
+    }
+
+    /**
+     * Doubles the RTO after a timeout.
+     */
+    public void backoff() {
+        rto = Math.min(MAX_RTO_NANOS, 2 * rto);
+        backoffs++;
+    }
+
+    private static long clamp(long rto) {
+        return Math.max(MIN_RTO_NANOS, Math.min(MAX_RTO_NANOS, rto));
+    }
+
+    public boolean hasSample() {
+        return srtt != 0;
+    }
+
+    /**
+     * Smoothed RTT, or 0 before the first sample.
+     */
+    public long getSrtt() {
+        return srtt;
+    }
+
+    public long getRttVar() {
+        return rttvar;
+    }
+
+    public long getRto() {
+        return rto;
+    }
+
+    /**
+     * Timeouts since the last sample.
+     */
+    public int getBackoffs() {
+        return backoffs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("srtt %d us, rttvar %d us, rto %d ms", srtt / 1000, rttvar / 1000, rto / 1_000_000);
+    }
+}
@@ -0,0 +1,189 @@
+package org.example.protocol;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer/single-consumer ring of segments indexed by sequence number.
+ *
+ * The producer (the application, serialized by the sender's write lock) claims the
+ * next sequence number, fills its slot and publishes it by advancing a volatile
+ * cursor. The consumer (whoever holds the sender's state lock) reads published
+ * slots and releases them by advancing its own cursor as ACKs arrive. Each cursor has
+ * exactly one writer, so neither side locks; the producer only parks when the ring
+ * already holds {@code capacity} unacknowledged segments.
+ *
+ * The capacity is a limit the consumer may move at any time. The slot array behind it
+ * belongs to the producer, which grows it when a claim needs more room and shrinks it
+ * back once the ring has drained, so a ring tuned up for a long fat path costs little
+ * while idle. Sequence numbers may wrap; cursors are compared by their difference.
+ */
+class SendBuffer<T> {
+    private static final int MIN_SLOTS = 16;
+
+    // Replaced only by the producer, and always before it publishes into the new array
+    private volatile Object[] slots;
+    private volatile int capacity;
+
+    private volatile int published;
+    private volatile int released;
+    private volatile Thread waitingProducer;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity    maximum number of unreleased segments, until changed
+     * @param initialSeq  sequence number the first published segment will carry
+     */
+    SendBuffer(int capacity, int initialSeq) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new Object[slotsFor(capacity)];
+        this.published = initialSeq - 1;
+        this.released = initialSeq - 1;
+    }
+
+    private static int slotsFor(int segments) {
+        return Math.max(MIN_SLOTS, Integer.highestOneBit(Math.max(segments - 1, 1)) << 1);
+    }
+
+    /**
+     * Producer side: waits until the ring has room for another segment.
+     *
+     * @return the sequence number to publish next
+     */
+    int claim() throws InterruptedException {
+        int next = published + 1;
+        while (!closed && next - released > capacity) {
+            waitingProducer = Thread.currentThread();
+            if (!closed && next - released > capacity) {
+                LockSupport.park(this);
+            }
+            waitingProducer = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        resize(next);
+        return next;
+    }
+
+    /**
+     * Producer side: claims the next sequence number even if the ring is at capacity, for
+     * a last segment that must not wait for room.
+     */
+    int claimNow() {
+        int next = published + 1;
+        resize(next);
+        return next;
+    }
+
+    /**
+     * Whether {@link #claim()} would have to wait.
+     */
+    boolean isFull() {
+        return published + 1 - released > capacity;
+    }
+
+    /**
+     * Producer side: grows the slot array to hold everything from the oldest unreleased
+     * segment to {@code next}, or shrinks an oversized one when nothing is unreleased. A
+     * release racing with the copy can leave a released segment referenced from the new
+     * array until its slot is reused; {@link #get} is only asked for unreleased ones.
+     */
+    private void resize(int next) {
+        Object[] current = slots;
+        int oldest = released + 1;
+        int needed = next - oldest + 1;
+        int size;
+        if (needed > current.length) {
+            size = Math.max(current.length * 2, slotsFor(needed));
+        } else if (needed == 1 && current.length > slotsFor(capacity)) {
+            size = slotsFor(capacity);
+        } else {
+            return;
+        }
+        Object[] resized = new Object[size];
+        for (int s = oldest; s != next; s++) {
+            resized[s & (size - 1)] = current[s & (current.length - 1)];
+        }
+        slots = resized;
+    }
+
+    /**
+     * Producer side: makes the segment for a claimed sequence number visible to the consumer.
+     */
+    void publish(int seq, T item) {
+        Object[] current = slots;
+        current[seq & (current.length - 1)] = item;
+        published = seq;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int seq) {
+        Object[] current = slots;
+        return (T) current[seq & (current.length - 1)];
+    }
+
+    /**
+     * Consumer side: frees every slot up to and including {@code seq}.
+     */
+    void release(int seq) {
+        Object[] current = slots;
+        for (int s = released + 1; Seq.le(s, seq); s++) {
+            current[s & (current.length - 1)] = null;
+        }
+        released = seq;
+        unparkProducer();
+    }
+
+    /**
+     * Consumer side: changes the number of unreleased segments the producer may reach.
+     * Lowering it below what is already unreleased only holds the producer back longer.
+     */
+    void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int previous = this.capacity;
+        this.capacity = capacity;
+        if (capacity > previous) {
+            unparkProducer();
+        }
+    }
+
+    /**
+     * Stops claims from waiting for room, for a connection that is gone; the producer is
+     * expected to stop publishing.
+     */
+    void close() {
+        closed = true;
+        unparkProducer();
+    }
+
+    private void unparkProducer() {
+        Thread producer = waitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Length of the slot array currently allocated.
+     */
+    int getSlots() {
+        return slots.length;
+    }
+
+    int getPublished() {
+        return published;
+    }
+
+    int getReleased() {
+        return released;
+    }
+}
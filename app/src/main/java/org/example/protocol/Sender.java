@@ -1,272 +1,1114 @@
 package org.example.protocol;
 
-import org.example.network.LowerLayerEndpoint;
+import org.example.concurrent.Threads;
+import org.example.metrics.Histogram;
+import org.example.metrics.MetricSource;
+import org.example.metrics.MetricWriter;
+import org.example.metrics.MetricsRegistry;
+import org.example.network.DatagramEndpoint;
+import org.example.network.PooledBuffer;
+import org.example.trace.FlightRecorder;
+import org.example.trace.TraceEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
-import java.time.Instant;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.Semaphore;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Sender {
     private static final Logger logger = LoggerFactory.getLogger(Sender.class);
-    private static final int BUF_SIZE = 5000;
-
-    private final LowerLayerEndpoint llEndpoint;
-    private double rtt;
-
-    private int lastAckRecv = -1;
-    private int lastSeqSent = -1;
-    private int lastSeqWritten = 0;
-    private final BufferedPacket[] buffer = new BufferedPacket[BUF_SIZE];
-    private final Semaphore bufSlot = new Semaphore(BUF_SIZE);
-
-    private final boolean useSlowStart;
-    private final boolean useFastRetransmit;
-    private double cwnd = 1;
-    private double ssthresh = 64;
-    private boolean fastRecovery = false;
+    // Send buffer auto-tuning: the ring may hold twice the congestion window, the sender's
+    // running estimate of the bandwidth-delay product, so a window's worth of data is queued
+    // behind the one in flight. It starts small and follows cwnd both ways, up to a cap.
+    public static final int INITIAL_SEND_BUFFER_SIZE = 64 * Packet.MAX_DATA_SIZE;
+    public static final int DEFAULT_MAX_SEND_BUFFER_SIZE = 64 << 20;
+    public static final long DEFAULT_HANDSHAKE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int INITIAL_SEND_SEGMENTS = INITIAL_SEND_BUFFER_SIZE / Packet.MAX_DATA_SIZE;
+    // sendFile() maps this much of a file at a time, a whole number of segments so only the
+    // file's last segment is short
+    private static final long MAP_REGION_SIZE = (64L << 20) / Packet.MAX_DATA_SIZE * Packet.MAX_DATA_SIZE;
+
+    private final DatagramEndpoint llEndpoint;
+    private final int connectionId = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+    // RTO estimation (RFC 6298), guarded by stateLock. Samples come from the timestamp echo
+    // on every ACK that advances, retransmitted segments included; seedRtt is the link's
+    // nominal round trip, used for pacing until the first sample.
+    private final RttEstimator rttEstimator;
+    private final double seedRtt;
+
+    // Application threads only publish into the ring (serialized by writeLock) and never wait
+    // for stateLock: they tryLock it to push out what they wrote, and if ACK or timer handling
+    // holds it they leave workPending for the holder to pick up when it unlocks.
+    private final SendBuffer<BufferedPacket> buffer;
+    private volatile int maxSendSegments = DEFAULT_MAX_SEND_BUFFER_SIZE / Packet.MAX_DATA_SIZE;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private volatile boolean workPending = false;
+
+    // Write coalescing: bytes from write() gather in a partial segment (guarded by writeLock)
+    // until it fills, the application flushes, or the Nagle rule lets it go. ACK and timer
+    // threads never wait for writeLock; they set flushPending and tryLock it, like kick().
+    private byte[] pending = new byte[Packet.MAX_DATA_SIZE];
+    private int pendingLength = 0;
+    private volatile boolean noDelay = false;
+    private volatile long flushDelayNanos = 0;
+    private volatile boolean flushPending = false;
+    private volatile boolean flushDue = false;
+    private final TimerService.Timeout flushTimer;
+    private SenderOutputStream outputStream;
+
+    // Bytes handed to write() and bytes acknowledged, each updated by one lock holder
+    private volatile long bytesWritten = 0;
+    private volatile long bytesAcked = 0;
+    // Stream offset of the next segment published, and whether the FIN that ends the
+    // stream has been, both guarded by writeLock
+    private long publishedBytes = 0;
+    private boolean finPublished = false;
+
+    // Sequence numbers start at a random value and wrap, so they are compared with Seq
+    private final int initialSeq;
+
+    // Resumable sessions: the SYN carries a session ID and the ACK to it the stream offset
+    // the receiver already holds, which writes then skip. Until that ACK, writes to a
+    // resumable sender wait, up to the handshake timeout. A listener that lost the
+    // connection, having restarted, answers with RST. Either fails the sender so the
+    // application can open the session again.
+    private final long sessionId;
+    private final CountDownLatch established = new CountDownLatch(1);
+    private volatile long handshakeTimeoutNanos = DEFAULT_HANDSHAKE_TIMEOUT_NANOS;
+    private volatile long resumeOffset = -1;
+    private volatile boolean reset = false;
+    private volatile boolean failed = false;
+    private volatile int lastAckRecv;
+    private int lastSeqSent;
+
+    private final CongestionController cc;
     private int dupAckCount = 0;
 
+    // Receiver's advertised window: in-flight segments are limited to min(cwnd, rwnd). While
+    // it is zero the RTO timer doubles as the persist timer and sends a window probe.
+    private int rwnd = Integer.MAX_VALUE;
+
+    // SACK scoreboard: sacked segments at or below lastSeqSent, the highest sacked
+    // segment, and where the next hole retransmission in fast recovery starts
+    private int sackedInFlight = 0;
+    private int highSacked;
+    private int recoveryNext;
+
+    // Newest timestamp from the receiver's ACKs, echoed on data so it can time round trips
+    // to size its buffer
+    private int tsRecent = 0;
+
     private volatile boolean shutdown = false;
     private Thread recvThread;
-    private Timer timer;
+    private final TimerService timers;
+    private final TimerService.Timeout rtoTimer;
+
+    // Optional pacing: new segments leave at the controller's pacing rate instead of in window bursts
+    private final Pacer pacer;
+    private final TimerService.Timeout paceTimer;
+
+    // Metrics: the counters are guarded by stateLock like the state they count; the
+    // histograms are lock-free
+    private long packetsSent = 0;
+    private long bytesSent = 0;
+    private long retransmits = 0;
+    private long fastRetransmits = 0;
+    private long timeouts = 0;
+    private long acksReceived = 0;
+    private long duplicateAcks = 0;
+    private final Histogram rttHistogram = new Histogram();
+    private final Histogram deliveryLatency = new Histogram();
+    private final MetricSource metrics = new Metrics();
+
+    // Per-packet events go to the flight recorder rather than the log; tracedCwnd is the
+    // last window recorded, guarded by stateLock, so only changes are traced
+    private final FlightRecorder trace = FlightRecorder.getDefault();
+    private double tracedCwnd = -1;
 
     private static class BufferedPacket {
-        Packet packet;
-        Instant sendTime;
+        final Packet.Type type;
+        final int seqNum;
+        final long streamOffset;
+        // A wrapped copy of written bytes, or a slice of a mapped file from sendFile()
+        final ByteBuffer payload;
+        // From timers.nanoTime(), so RTT samples follow the same clock as the timers
+        long sendTime;
+        boolean sent;
+        // Karn's rule: a retransmitted segment gives no RTT sample
+        boolean retransmitted;
+        boolean sacked;
 
-        BufferedPacket(Packet packet, Instant sendTime) {
-            this.packet = packet;
-            this.sendTime = sendTime;
+        BufferedPacket(Packet.Type type, int seqNum, long streamOffset, ByteBuffer payload) {
+            this.type = type;
+            this.seqNum = seqNum;
+            this.streamOffset = streamOffset;
+            this.payload = payload;
         }
     }
 
-    public Sender(LowerLayerEndpoint llEndpoint, boolean useSlowStart, boolean useFastRetransmit) {
+    public Sender(DatagramEndpoint llEndpoint, boolean useSlowStart, boolean useFastRetransmit) {
+        this(llEndpoint, new RenoController(useSlowStart, useFastRetransmit));
+    }
+
+    public Sender(DatagramEndpoint llEndpoint, CongestionController cc) {
+        this(llEndpoint, cc, false);
+    }
+
+    public Sender(DatagramEndpoint llEndpoint, CongestionController cc, boolean usePacing) {
+        this(llEndpoint, cc, usePacing, TimerWheel.getDefault());
+    }
+
+    public Sender(DatagramEndpoint llEndpoint, CongestionController cc, boolean usePacing,
+                  TimerService timers) {
+        this(llEndpoint, cc, usePacing, timers, ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * @param initialSeq sequence number of the SYN; tests pick one close to wrapping
+     */
+    Sender(DatagramEndpoint llEndpoint, CongestionController cc, boolean usePacing, TimerService timers,
+           int initialSeq) {
+        this(llEndpoint, cc, usePacing, timers, initialSeq, 0);
+    }
+
+    private Sender(DatagramEndpoint llEndpoint, CongestionController cc, boolean usePacing, TimerService timers,
+                   int initialSeq, long sessionId) {
         this.llEndpoint = llEndpoint;
-        this.rtt = 2 * (llEndpoint.getTransmitDelay() + llEndpoint.getPropagationDelay());
-        this.useSlowStart = useSlowStart;
-        this.useFastRetransmit = useFastRetransmit;
+        this.initialSeq = initialSeq;
+        this.sessionId = sessionId;
+        this.buffer = new SendBuffer<>(INITIAL_SEND_SEGMENTS, initialSeq);
+        this.lastAckRecv = initialSeq - 1;
+        this.lastSeqSent = initialSeq - 1;
+        this.highSacked = initialSeq - 1;
+        this.recoveryNext = initialSeq - 1;
+        this.timers = timers;
+        this.rtoTimer = timers.newTimeout(this::handleTimeout);
+        this.flushTimer = timers.newTimeout(this::handleFlushTimeout);
+        this.pacer = usePacing ? new Pacer() : null;
+        this.paceTimer = usePacing ? timers.newTimeout(this::sendPacedPackets) : null;
+        this.seedRtt = 2 * (llEndpoint.getTransmitDelay() + llEndpoint.getPropagationDelay());
+        this.rttEstimator = new RttEstimator(seedRtt > 0
+                ? (long) (2 * seedRtt * 1_000_000_000L) : RttEstimator.INITIAL_RTO_NANOS);
+        this.cc = cc;
 
         startRecvThread();
+        MetricsRegistry.getDefault().register(metrics);
 
         try {
-            bufSlot.acquire();
-            Packet synPacket = new Packet(Packet.Type.SYN, 0);
-            buffer[0] = new BufferedPacket(synPacket, null);
-            transmit(0);
+            int seqNum = buffer.claim();
+            ByteBuffer synPayload = sessionId != 0
+                    ? ByteBuffer.allocate(Packet.SESSION_ID_SIZE).putLong(0, sessionId) : ByteBuffer.allocate(0);
+            buffer.publish(seqNum, new BufferedPacket(Packet.Type.SYN, seqNum, 0, synPayload));
+            stateLock.lock();
+            try {
+                traceCwnd(timers.nanoTime());
+                transmit(seqNum);
+            } finally {
+                stateLock.unlock();
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
     }
 
-    private synchronized void transmit(int seqNum) {
-        int slot = seqNum % BUF_SIZE;
-        BufferedPacket buffered = buffer[slot];
+    /**
+     * Opens a connection in resumable session {@code sessionId}, nonzero, to a receiver
+     * keeping sessions in a directory. Writes wait for the receiver's answer to the SYN,
+     * then skip the first {@link #getResumeOffset()} bytes of the stream, which the receiver
+     * already holds from an earlier connection. Writing the same stream from the start
+     * again on a new sender, after one was reset, resumes where the receiver left off.
+     */
+    public static Sender resumable(DatagramEndpoint llEndpoint, CongestionController cc, boolean usePacing,
+                                   long sessionId) {
+        return resumable(llEndpoint, cc, usePacing, TimerWheel.getDefault(), sessionId);
+    }
+
+    public static Sender resumable(DatagramEndpoint llEndpoint, CongestionController cc, boolean usePacing,
+                                   TimerService timers, long sessionId) {
+        if (sessionId == 0) {
+            throw new IllegalArgumentException("Session ID must be nonzero");
+        }
+        return new Sender(llEndpoint, cc, usePacing, timers, ThreadLocalRandom.current().nextInt(), sessionId);
+    }
+
+    private void transmit(int seqNum) {
+        BufferedPacket buffered = buffer.get(seqNum);
         
         // Add null check
         if (buffered == null) {
             logger.warn("Attempted to transmit null packet at seqNum {}", seqNum);
             return;
         }
-        
-        Packet packet = buffered.packet;
 
-        llEndpoint.send(packet.toBytes());
-        Instant sendTime = Instant.now();
+        long sendTime = timers.nanoTime();
+        // The payload is copied into a fresh lease on every transmission: the endpoint releases
+        // the lease once the datagram is out, but the segment must stay for retransmission
+        PooledBuffer lease = llEndpoint.allocate();
+        PacketView.encode(lease.buffer(), buffered.type, connectionId, seqNum, PacketView.timestamp(sendTime),
+                tsRecent, buffered.streamOffset, buffered.payload);
+        lease.buffer().flip();
+        int length = lease.buffer().remaining();
+        llEndpoint.send(lease);
+        packetsSent++;
+        bytesSent += length;
 
-        if (lastSeqSent < seqNum) {
+        if (Seq.lt(lastSeqSent, seqNum)) {
             lastSeqSent = seqNum;
         }
 
-        if (buffered.sendTime == null) {
-            logger.info("Transmit: {}", packet);
+        if (!buffered.sent) {
+            logger.debug("Transmit: {} {}", buffered.type, seqNum);
+            trace.record(TraceEvent.TRANSMIT, sendTime, connectionId, seqNum, length);
+            buffered.sent = true;
             buffered.sendTime = sendTime;
         } else {
-            logger.info("Retransmit: {}", packet);
-            buffered.sendTime = Instant.EPOCH;
+            logger.debug("Retransmit: {} {}", buffered.type, seqNum);
+            trace.record(TraceEvent.RETRANSMIT, sendTime, connectionId, seqNum, length);
+            buffered.retransmitted = true;
+            retransmits++;
         }
 
-        scheduleTimeout();
+        // RFC 6298 5.1: a send starts the timer but does not push back one already running
+        if (!rtoTimer.isArmed()) {
+            scheduleTimeout();
+        }
+    }
+
+    private void traceCwnd(long now) {
+        double cwnd = cc.getCwnd();
+        if (cwnd != tracedCwnd) {
+            tracedCwnd = cwnd;
+            trace.record(TraceEvent.CWND, now, connectionId, lastAckRecv, (long) (cwnd * 1000));
+        }
     }
 
     private void scheduleTimeout() {
-        if (timer != null) {
-            timer.cancel();
-        }
-        timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                handleTimeout();
-            }
-        }, (long) (2 * rtt * 1000));
+        rtoTimer.rearm(rttEstimator.getRto());
     }
 
+    /**
+     * Smoothed RTT in seconds, or the link's nominal RTT before the first sample.
+     */
+    private double srtt() {
+        return rttEstimator.hasSample() ? rttEstimator.getSrtt() / 1e9 : seedRtt;
+    }
+
+    /**
+     * Sends the data and everything written before it without waiting to coalesce.
+     */
     public void send(byte[] data) {
-        for (int i = 0; i < data.length; i += Packet.MAX_DATA_SIZE) {
-            int end = Math.min(i + Packet.MAX_DATA_SIZE, data.length);
-            byte[] chunk = new byte[end - i];
-            System.arraycopy(data, i, chunk, 0, chunk.length);
-            sendChunk(chunk);
-        }
+        write(ByteBuffer.wrap(data));
+        flush();
     }
 
-    private void sendChunk(byte[] data) {
+    /**
+     * Appends the buffer's remaining bytes to the stream. Data is cut into full segments as
+     * it arrives; a trailing partial segment is held back unless no-delay is set or nothing
+     * is awaiting acknowledgement, and goes out once the outstanding data is ACKed, the
+     * flush delay expires, or {@link #flush()} is called. Blocks while the send buffer is full.
+     */
+    public void write(ByteBuffer src) {
+        writeLock.lock();
         try {
-            bufSlot.acquire();
+            src.position(src.position() + (int) skipResumed(src.remaining()));
+            bytesWritten += src.remaining();
+            while (src.hasRemaining() && !failed) {
+                int n = Math.min(src.remaining(), Packet.MAX_DATA_SIZE - pendingLength);
+                src.get(pending, pendingLength, n);
+                pendingLength += n;
+                if (pendingLength == Packet.MAX_DATA_SIZE) {
+                    publishPending(true);
+                }
+            }
+            if (pendingLength > 0) {
+                if (noDelay || lastAckRecv == buffer.getPublished()) {
+                    publishPending(true);
+                } else if (flushDelayNanos > 0 && !flushTimer.isArmed()) {
+                    flushTimer.rearm(flushDelayNanos);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            unlockWrite();
+        }
+        kick();
+    }
 
-            lastSeqWritten++;
-            Packet packet = new Packet(Packet.Type.DATA, lastSeqWritten, data);
-            int slot = packet.getSeqNum() % BUF_SIZE;
-            buffer[slot] = new BufferedPacket(packet, null);
+    /**
+     * Sends a whole file, cutting segments straight out of read-only mappings of it rather
+     * than copying it onto the heap; see {@link #sendFile(FileChannel, long, long)}.
+     */
+    public void sendFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            sendFile(channel, 0, channel.size());
+        }
+    }
 
-            synchronized (this) {
-                if (lastSeqSent - lastAckRecv < (int) cwnd) {
-                    transmit(packet.getSeqNum());
+    /**
+     * Appends {@code count} bytes of {@code channel} from {@code position} to the stream.
+     * Anything written before goes out first; the file is then mapped a region at a time and
+     * each segment refers into the mapping until it is acknowledged, so the only copy is into
+     * the datagram. The file's last segment is sent short rather than held to coalesce.
+     * Blocks while the send buffer is full. The channel may be closed once this returns, but
+     * the file must not shrink until everything is acknowledged.
+     *
+     * @throws IOException if the file cannot be mapped, the receiver reset the connection,
+     *                     or a resumable session's handshake timed out
+     */
+    public void sendFile(FileChannel channel, long position, long count) throws IOException {
+        writeLock.lock();
+        try {
+            long skipped = skipResumed(count);
+            position += skipped;
+            count -= skipped;
+            bytesWritten += count;
+            if (pendingLength > 0) {
+                publishPending(true);
+            }
+            long end = position + count;
+            while (position < end && !failed) {
+                long regionSize = Math.min(end - position, MAP_REGION_SIZE);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+                for (int offset = 0; offset < regionSize; offset += Packet.MAX_DATA_SIZE) {
+                    int length = (int) Math.min(Packet.MAX_DATA_SIZE, regionSize - offset);
+                    publishSegment(region.slice(offset, length), true);
                 }
+                position += regionSize;
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+        } finally {
+            unlockWrite();
+        }
+        if (failed) {
+            throw new IOException(reset ? "Connection reset" : "No answer to the SYN");
         }
+        kick();
     }
 
-    private synchronized void handleTimeout() {
-        if (useSlowStart || useFastRetransmit) {
-            ssthresh = Math.max(2, cwnd / 2);
-            cwnd = 1;
-            if (useFastRetransmit) {
-                fastRecovery = false;
-                dupAckCount = 0;
+    /**
+     * Resumable sessions: waits for the handshake, then advances the stream over as much of
+     * the next {@code count} bytes as the receiver already holds. If the receiver does not
+     * answer within the handshake timeout the sender fails. Callers hold writeLock.
+     *
+     * @return the number of bytes skipped
+     */
+    private long skipResumed(long count) throws InterruptedException {
+        if (sessionId == 0) {
+            return 0;
+        }
+        if (!established.await(handshakeTimeoutNanos, TimeUnit.NANOSECONDS)) {
+            logger.warn("Connection {} got no answer to its SYN within {} ms", connectionId,
+                    handshakeTimeoutNanos / 1_000_000);
+            failed = true;
+            shutdown = true;
+            buffer.close();
+            // Stops the receive thread, which would otherwise wait for the SYN's ACK
+            llEndpoint.shutdown();
+            return 0;
+        }
+        long skip = Math.min(count, Math.max(0, resumeOffset - publishedBytes));
+        publishedBytes += skip;
+        return skip;
+    }
+
+    /**
+     * Sends any partially filled segment now.
+     */
+    public void flush() {
+        writeLock.lock();
+        try {
+            if (pendingLength > 0) {
+                publishPending(true);
             }
-            logger.debug("\u001B[31mTimeout occurred. ssthresh set to {}, CWND reset to 1\u001B[0m", ssthresh);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            unlockWrite();
+        }
+        kick();
+    }
+
+    /**
+     * Returns a stream view of this sender; its writes coalesce like {@link #write(ByteBuffer)}.
+     */
+    public synchronized OutputStream getOutputStream() {
+        if (outputStream == null) {
+            outputStream = new SenderOutputStream(this);
+        }
+        return outputStream;
+    }
+
+    /**
+     * Disables the Nagle rule: every write sends its trailing partial segment immediately.
+     */
+    public void setNoDelay(boolean noDelay) {
+        this.noDelay = noDelay;
+    }
+
+    public boolean getNoDelay() {
+        return noDelay;
+    }
+
+    /**
+     * Upper bound on how long a partial segment may wait for outstanding data to be ACKed;
+     * 0 (the default) waits for the ACK alone.
+     */
+    public void setFlushDelay(long flushDelayNanos) {
+        this.flushDelayNanos = flushDelayNanos;
+    }
+
+    /**
+     * Stream offset the receiver held when it answered the SYN, which a resumable sender's
+     * writes start from; -1 until then.
+     */
+    public long getResumeOffset() {
+        return resumeOffset;
+    }
+
+    /**
+     * Whether the receiver reset the connection: it lost the connection's state, and
+     * nothing written to this sender is delivered any more.
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    /**
+     * Whether the sender gave up: the receiver reset the connection, or never answered a
+     * resumable session's SYN. Writes are dropped from then on.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * How long writes to a resumable sender wait for the receiver to answer the SYN before
+     * the sender fails; {@link #DEFAULT_HANDSHAKE_TIMEOUT_NANOS} unless set.
+     */
+    public void setHandshakeTimeout(long handshakeTimeoutNanos) {
+        this.handshakeTimeoutNanos = handshakeTimeoutNanos;
+    }
+
+    /**
+     * Number of segments written to the send buffer so far, SYN included.
+     */
+    public int getSegmentsWritten() {
+        return buffer.getPublished() - initialSeq + 1;
+    }
+
+    /**
+     * Bytes of the stream the receiver has acknowledged.
+     */
+    public long getBytesAcked() {
+        return bytesAcked;
+    }
+
+    /**
+     * Bytes written but not yet acknowledged, including any held in a partial segment.
+     */
+    public long getOutstandingBytes() {
+        return bytesWritten - bytesAcked;
+    }
+
+    /**
+     * Caps the memory the send buffer may grow to; it is tuned between
+     * {@link #INITIAL_SEND_BUFFER_SIZE} and this many bytes of segments.
+     */
+    public void setMaxSendBuffer(int bytes) {
+        if (bytes < Packet.MAX_DATA_SIZE) {
+            throw new IllegalArgumentException("Send buffer must hold a full segment: " + bytes);
+        }
+        maxSendSegments = bytes / Packet.MAX_DATA_SIZE;
+        stateLock.lock();
+        try {
+            tuneSendBuffer();
+        } finally {
+            unlockState();
+        }
+    }
+
+    /**
+     * Bytes of segments the send buffer currently lets the application queue.
+     */
+    public int getSendBufferSize() {
+        return buffer.getCapacity() * Packet.MAX_DATA_SIZE;
+    }
+
+    /**
+     * Turns the partial segment into a DATA packet. Callers hold writeLock.
+     *
+     * @param wait whether to wait for room in the send buffer; ACK and timer threads must not
+     * @return false if the buffer was full and the segment stays pending
+     */
+    private boolean publishPending(boolean wait) throws InterruptedException {
+        if (!wait && buffer.isFull()) {
+            return false;
+        }
+        byte[] data;
+        if (pendingLength == pending.length) {
+            data = pending;
+            pending = new byte[Packet.MAX_DATA_SIZE];
         } else {
-            cwnd = Math.max(1, cwnd / 2);
-            logger.debug("\u001B[31mTimeout occurred. CWND decreased to {}\u001B[0m", cwnd);
+            data = Arrays.copyOf(pending, pendingLength);
         }
+        pendingLength = 0;
+        publishSegment(ByteBuffer.wrap(data), wait);
+        if (flushTimer.isArmed()) {
+            flushTimer.cancel();
+        }
+        return true;
+    }
 
-        for (int seq = lastAckRecv + 1; seq <= lastSeqSent; seq++) {
-            int slot = seq % BUF_SIZE;
-            if (buffer[slot] != null) {
-                buffer[slot].sendTime = Instant.EPOCH;
+    /**
+     * Publishes a DATA segment at the current end of the stream. Callers hold writeLock and
+     * have already checked for room if they cannot wait. Once failed, the segment is dropped.
+     */
+    private void publishSegment(ByteBuffer payload, boolean wait) throws InterruptedException {
+        if (wait && buffer.isFull()) {
+            // A write larger than the buffer must get the buffered data moving before it waits,
+            // or no ACK will ever come back to release a slot
+            kick();
+        }
+        int seqNum = buffer.claim();
+        if (failed) {
+            return;
+        }
+        buffer.publish(seqNum, new BufferedPacket(Packet.Type.DATA, seqNum, publishedBytes, payload));
+        publishedBytes += payload.remaining();
+    }
+
+    /**
+     * Publishes the FIN once. It takes a sequence number but never waits for room in the
+     * send buffer, so shutting down does not block on a full window. Callers hold writeLock.
+     */
+    private void publishFin() {
+        if (finPublished || failed) {
+            return;
+        }
+        int seqNum = buffer.claimNow();
+        buffer.publish(seqNum, new BufferedPacket(Packet.Type.FIN, seqNum, publishedBytes, ByteBuffer.allocate(0)));
+        finPublished = true;
+    }
+
+    private void unlockWrite() {
+        writeLock.unlock();
+        if (flushPending) {
+            tryFlush();
+        }
+    }
+
+    /**
+     * Publishes the partial segment on behalf of an ACK or the flush timer if the Nagle rule
+     * or an expired flush delay allows it. Never blocks: if an application thread holds
+     * writeLock, it sees flushPending when it unlocks.
+     */
+    private void tryFlush() {
+        boolean published = false;
+        while (flushPending && writeLock.tryLock()) {
+            try {
+                flushPending = false;
+                if (pendingLength > 0 && (flushDue || lastAckRecv == buffer.getPublished())) {
+                    published = publishPending(false);
+                    flushDue = !published && flushDue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        if (published) {
+            kick();
+        }
+    }
+
+    private void handleFlushTimeout() {
+        flushDue = true;
+        flushPending = true;
+        tryFlush();
+    }
+
+    /**
+     * Sends newly written data if the state lock is free, otherwise leaves it to the
+     * current holder. Never blocks.
+     */
+    private void kick() {
+        workPending = true;
+        while (workPending && stateLock.tryLock()) {
+            try {
+                workPending = false;
+                sendAvailablePackets();
+            } finally {
+                stateLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Releases the state lock, then picks up data an application thread wrote while it was held.
+     */
+    private void unlockState() {
+        stateLock.unlock();
+        if (flushPending) {
+            tryFlush();
+        }
+        if (workPending) {
+            kick();
+        }
+    }
+
+    private void handleTimeout() {
+        stateLock.lock();
+        try {
+            onTimeout();
+        } finally {
+            unlockState();
+        }
+    }
+
+    private void onTimeout() {
+        if (rwnd == 0 && Seq.lt(lastAckRecv, buffer.getPublished())) {
+            // Zero-window probe: the reply carries the current window even if the segment is not taken
+            logger.debug("Zero window probe: {}", lastAckRecv + 1);
+            transmit(lastAckRecv + 1);
+            return;
+        }
+
+        timeouts++;
+        long now = timers.nanoTime();
+        trace.record(TraceEvent.TIMEOUT, now, connectionId, lastAckRecv + 1, rttEstimator.getRto());
+        rttEstimator.backoff();
+        logger.debug("Timeout, backing off: {}", rttEstimator);
+        cc.onTimeout();
+        traceCwnd(now);
+        dupAckCount = 0;
+
+        for (int seq = lastAckRecv + 1; Seq.le(seq, lastSeqSent); seq++) {
+            BufferedPacket buffered = buffer.get(seq);
+            if (buffered != null) {
+                buffered.retransmitted = true;
             }
         }
         lastSeqSent = lastAckRecv;
+        sackedInFlight = 0;
+        tuneSendBuffer();
 
-        transmit(lastAckRecv + 1);
+        // Go back to the cumulative ACK, but sendAvailablePackets skips what the receiver has SACKed
+        sendAvailablePackets();
     }
 
     private void startRecvThread() {
-        recvThread = new Thread(() -> {
-            while (!shutdown || lastAckRecv < lastSeqSent) {
-                byte[] raw = llEndpoint.recv();
-                if (raw == null) continue;
+        recvThread = Threads.start("sender-" + connectionId, () -> {
+            PacketView packet = new PacketView();
+            while (!shutdown || Seq.lt(lastAckRecv, buffer.getPublished())) {
+                PooledBuffer lease = llEndpoint.recvBuffer();
+                if (lease == null) {
+                    if (shutdown) break;
+                    continue;
+                }
 
-                Packet packet = Packet.fromBytes(raw);
-                Instant recvTime = Instant.now();
-                logger.info("Received: {}", packet);
+                Packet.Type type;
+                try {
+                    packet.wrap(lease.buffer());
+                    type = packet.type();
+                } catch (IllegalArgumentException e) {
+                    logger.debug("Dropped malformed datagram: {}", e.getMessage());
+                    lease.release();
+                    continue;
+                }
+                if (packet.connectionId() != connectionId) {
+                    logger.debug("Ignoring ACK for connection {}", packet.connectionId());
+                    lease.release();
+                    continue;
+                }
+                if (type == Packet.Type.RST) {
+                    lease.release();
+                    // Before the SYN is acknowledged an RST only means data overtook it
+                    if (Seq.ge(lastAckRecv, initialSeq)) {
+                        logger.warn("Connection {} reset by the receiver", connectionId);
+                        reset = true;
+                        failed = true;
+                        shutdown = true;
+                        buffer.close();
+                        break;
+                    }
+                    continue;
+                }
+                long recvTime = timers.nanoTime();
+                logger.debug("Received: {}", packet);
 
                 handleAck(packet, recvTime);
+                lease.release();
             }
+            rtoTimer.cancel();
+            flushTimer.cancel();
+            established.countDown();
             llEndpoint.shutdown();
+            MetricsRegistry.getDefault().unregister(metrics);
         });
-        recvThread.start();
     }
 
-    private synchronized void handleAck(Packet packet, Instant recvTime) {
-        if (packet.getSeqNum() == lastAckRecv) {
-            handleDuplicateAck();
+    private void handleAck(PacketView packet, long recvTime) {
+        stateLock.lock();
+        try {
+            onAck(packet, recvTime);
+        } finally {
+            unlockState();
+        }
+    }
+
+    private void onAck(PacketView packet, long recvTime) {
+        int ackNum = packet.seqNum();
+        acksReceived++;
+        trace.record(TraceEvent.ACK, recvTime, connectionId, ackNum, packet.window());
+        if (Seq.lt(ackNum, lastAckRecv)) {
+            return;
+        }
+        int tsVal = packet.tsVal();
+        if (tsVal != 0 && (tsRecent == 0 || tsVal - tsRecent >= 0)) {
+            tsRecent = tsVal;
+        }
+        if (resumeOffset < 0 && Seq.ge(ackNum, initialSeq)) {
+            resumeOffset = packet.streamOffset();
+            established.countDown();
+        }
+
+        updateScoreboard(packet);
+
+        int window = packet.window();
+        if (ackNum == lastAckRecv) {
+            if (window != rwnd) {
+                // Window update, not a sign of loss
+                rwnd = window;
+                sendAvailablePackets();
+            } else {
+                handleDuplicateAck();
+            }
+            return;
+        }
+        rwnd = window;
+
+        if (Seq.gt(ackNum, buffer.getPublished())) {
+            logger.warn("ACK {} beyond last segment written {}", ackNum, buffer.getPublished());
             return;
         }
 
         dupAckCount = 0;
         int prevAckRecv = lastAckRecv;
-        lastAckRecv = packet.getSeqNum();
+        int ackedSegments = ackNum - lastAckRecv;
+        long rttNanos = -1;
+        int tsEcr = packet.tsEcr();
+        if (tsEcr != 0) {
+            // Times the transmission the receiver echoed, so it holds after retransmits too
+            rttNanos = (PacketView.timestamp(recvTime) - tsEcr) * 1000L;
+        }
 
-        while (prevAckRecv < lastAckRecv) {
+        while (Seq.lt(prevAckRecv, ackNum)) {
             prevAckRecv++;
-            int slot = prevAckRecv % BUF_SIZE;
-            BufferedPacket buffered = buffer[slot];
+            BufferedPacket buffered = buffer.get(prevAckRecv);
 
             // FIXED: Check if buffer slot is not null before accessing
             if (buffered != null) {
-                if (buffered.sendTime != null && !buffered.sendTime.equals(Instant.EPOCH)) {
-                    Duration elapsed = Duration.between(buffered.sendTime, recvTime);
-                    rtt = rtt * 0.9 + elapsed.toMillis() / 1000.0 * 0.1;
-                    logger.debug("Updated RTT estimate: {}", rtt);
+                if (buffered.sacked && Seq.le(prevAckRecv, lastSeqSent)) {
+                    sackedInFlight--;
+                }
+                if (buffered.type == Packet.Type.DATA) {
+                    bytesAcked += buffered.payload.remaining();
+                }
+                if (buffered.sent) {
+                    // From first transmission, so retransmission delays show up here but not in RTT
+                    deliveryLatency.record(recvTime - buffered.sendTime);
+                }
+                if (tsEcr == 0 && buffered.sent && !buffered.retransmitted) {
+                    // No echo: Karn's rule, only a segment sent once gives a sample
+                    rttNanos = recvTime - buffered.sendTime;
                 }
-
-                buffer[slot] = null;
-                bufSlot.release();
             } else {
                 // Log warning but continue processing
-                logger.warn("Buffer slot {} is null while processing ACK {}", slot, packet.getSeqNum());
-                bufSlot.release();
+                logger.warn("Buffer slot {} is null while processing ACK {}", prevAckRecv, ackNum);
             }
         }
+        double rttSample = -1;
+        if (rttNanos >= 0) {
+            rttEstimator.sample(rttNanos);
+            rttHistogram.record(rttNanos);
+            trace.record(TraceEvent.RTT, recvTime, connectionId, ackNum, rttNanos);
+            rttSample = rttNanos / 1e9;
+            logger.debug("RTT sample {} us: {}", rttNanos / 1000, rttEstimator);
+        }
+        lastAckRecv = ackNum;
+        buffer.release(ackNum);
 
-        if (lastSeqSent < lastAckRecv) {
+        if (Seq.lt(lastSeqSent, lastAckRecv)) {
             lastSeqSent = lastAckRecv;
         }
 
-        if (timer != null && lastAckRecv == lastSeqSent) {
-            timer.cancel();
-            timer = null;
+        if (lastAckRecv == lastSeqSent) {
+            rtoTimer.cancel();
+        } else {
+            // RFC 6298 5.3: new data acknowledged, so the timer restarts for what is left
+            scheduleTimeout();
+        }
+        if (lastAckRecv == buffer.getPublished()) {
+            // Everything written is acknowledged: the Nagle rule releases a held partial segment
+            flushPending = true;
         }
 
-        updateCwndOnNewAck();
+        cc.onAck(ackedSegments, rttSample, lastSeqSent - lastAckRecv - sackedInFlight, timers.nanoTime());
+        traceCwnd(recvTime);
+        tuneSendBuffer();
         sendAvailablePackets();
     }
 
-    private synchronized void handleDuplicateAck() {
-        if (!useFastRetransmit) return;
+    /**
+     * Sizes the send buffer to twice the congestion window, within its initial size and cap.
+     */
+    private void tuneSendBuffer() {
+        int max = maxSendSegments;
+        int segments = (int) Math.max(Math.min(2 * cc.getCwnd(), max), Math.min(INITIAL_SEND_SEGMENTS, max));
+        if (segments != buffer.getCapacity()) {
+            buffer.setCapacity(segments);
+        }
+    }
 
+    private void handleDuplicateAck() {
+        if (Seq.ge(lastAckRecv, lastSeqSent)) {
+            // Nothing outstanding, so a repeated ACK says nothing about loss
+            return;
+        }
         dupAckCount++;
-        logger.debug("\u001B[33mDuplicate ACK count: {}\u001B[0m", dupAckCount);
+        duplicateAcks++;
+        logger.debug("Duplicate ACK count: {}", dupAckCount);
+        long now = timers.nanoTime();
+        trace.record(TraceEvent.DUP_ACK, now, connectionId, lastAckRecv, dupAckCount);
 
-        if (!fastRecovery && dupAckCount == 3) {
-            ssthresh = Math.max(2, cwnd / 2);
-            cwnd = ssthresh + 3;
-            logger.debug("\u001B[1mFast Retransmit initiated. ssthresh: {}, CWND: {}\u001B[0m", ssthresh, cwnd);
+        boolean retransmit = cc.onDuplicateAck(dupAckCount);
+        traceCwnd(now);
+        if (retransmit) {
+            fastRetransmits++;
             transmit(lastAckRecv + 1);
-            fastRecovery = true;
-        } else if (fastRecovery) {
-            cwnd += 1;
-            logger.debug("In Fast Recovery. CWND increased to {}", cwnd);
+            recoveryNext = lastAckRecv + 2;
+        } else if (cc.inRecovery()) {
+            retransmitNextHole();
             sendAvailablePackets();
         }
     }
 
-    private void updateCwndOnNewAck() {
-        if (fastRecovery) {
-            cwnd = ssthresh;
-            fastRecovery = false;
-            logger.debug("\u001B[1mExited Fast Recovery; CWND set to ssthresh: {}\u001B[0m", cwnd);
-        } else {
-            if (useSlowStart) {
-                if (ssthresh > cwnd) {
-                    cwnd += 1;
-                    logger.debug("Slow Start. CWND increased to {}", cwnd);
-                } else {
-                    cwnd += 1.0 / cwnd;
-                    logger.debug("Congestion Avoidance; CWND increased to {}", cwnd);
+    /**
+     * Marks segments covered by the ACK's SACK blocks so they are not retransmitted.
+     */
+    private void updateScoreboard(PacketView packet) {
+        for (int i = 0; i < packet.sackBlockCount(); i++) {
+            int start = Seq.max(packet.sackStart(i), lastAckRecv + 1);
+            int end = Seq.min(packet.sackEnd(i), buffer.getPublished());
+            for (int seq = start; Seq.le(seq, end); seq++) {
+                BufferedPacket buffered = buffer.get(seq);
+                if (buffered == null || buffered.sacked || buffered.seqNum != seq) continue;
+
+                buffered.sacked = true;
+                if (Seq.le(seq, lastSeqSent)) {
+                    sackedInFlight++;
+                }
+                if (Seq.gt(seq, highSacked)) {
+                    highSacked = seq;
                 }
-            } else {
-                cwnd += 1.0 / cwnd;
-                logger.debug("AIMD. CWND increased to {}", cwnd);
             }
         }
     }
 
+    /**
+     * Retransmits the next unSACKed segment below the highest SACKed one, once per
+     * recovery episode, so each further duplicate ACK repairs one more hole.
+     */
+    private void retransmitNextHole() {
+        int seq = Seq.max(recoveryNext, lastAckRecv + 1);
+        for (; Seq.lt(seq, highSacked) && Seq.le(seq, lastSeqSent); seq++) {
+            BufferedPacket buffered = buffer.get(seq);
+            if (buffered != null && !buffered.sacked) {
+                logger.debug("SACK hole retransmit: {}", seq);
+                transmit(seq);
+                recoveryNext = seq + 1;
+                return;
+            }
+        }
+        recoveryNext = seq;
+    }
+
     private void sendAvailablePackets() {
-        while (lastSeqSent < lastSeqWritten && lastSeqSent - lastAckRecv < (int) cwnd) {
-            transmit(lastSeqSent + 1);
+        int lastSeqWritten = buffer.getPublished();
+        int window = Math.min((int) cc.getCwnd(), rwnd);
+        while (Seq.lt(lastSeqSent, lastSeqWritten) && lastSeqSent - lastAckRecv - sackedInFlight < window) {
+            int next = lastSeqSent + 1;
+            BufferedPacket buffered = buffer.get(next);
+            if (buffered != null && buffered.sacked) {
+                // Already held by the receiver: step over it without spending window
+                lastSeqSent = next;
+                sackedInFlight++;
+                continue;
+            }
+            if (pacer != null) {
+                pacer.setRate(cc.getPacingRate(srtt()));
+                long wait = pacer.delayUntilNext(timers.nanoTime());
+                if (wait > 0) {
+                    if (!paceTimer.isArmed()) {
+                        paceTimer.rearm(wait);
+                    }
+                    break;
+                }
+                pacer.consume();
+            }
+            transmit(next);
+        }
+
+        if (rwnd == 0 && Seq.lt(lastSeqSent, lastSeqWritten) && !rtoTimer.isArmed()) {
+            scheduleTimeout();
+        }
+    }
+
+    private void sendPacedPackets() {
+        stateLock.lock();
+        try {
+            sendAvailablePackets();
+        } finally {
+            unlockState();
+        }
+    }
+
+    /**
+     * Current pacing rate in bytes per second, or 0 when pacing is off or not yet established.
+     */
+    public double getPacingRate() {
+        stateLock.lock();
+        try {
+            return pacer != null ? pacer.getRate() * Packet.MAX_DATA_SIZE : 0;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    public int getConnectionId() {
+        return connectionId;
+    }
+
+    public CongestionController getCongestionController() {
+        return cc;
+    }
+
+    /**
+     * Round-trip times of segments acknowledged without retransmission, in nanoseconds.
+     */
+    public Histogram getRttHistogram() {
+        return rttHistogram;
+    }
+
+    /**
+     * Time from a segment's first transmission to its cumulative ACK, in nanoseconds.
+     */
+    public Histogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    public long getRetransmits() {
+        stateLock.lock();
+        try {
+            return retransmits;
+        } finally {
+            stateLock.unlock();
         }
     }
 
+    private final class Metrics implements MetricSource {
+        @Override
+        public String metricType() {
+            return "sender";
+        }
+
+        @Override
+        public String metricId() {
+            return Integer.toString(connectionId);
+        }
+
+        @Override
+        public void collect(MetricWriter writer) {
+            stateLock.lock();
+            try {
+                writer.counter("packets_sent", "Packets transmitted, retransmissions included", packetsSent);
+                writer.counter("bytes_sent", "Bytes transmitted, headers and retransmissions included",
+                        bytesSent);
+                writer.counter("retransmits", "Segments transmitted again", retransmits);
+                writer.counter("fast_retransmits", "Retransmits triggered by duplicate ACKs", fastRetransmits);
+                writer.counter("timeouts", "Retransmission timeouts", timeouts);
+                writer.counter("acks_received", "ACKs received", acksReceived);
+                writer.counter("duplicate_acks", "Duplicate ACKs while data was outstanding", duplicateAcks);
+                writer.gauge("cwnd", "Congestion window in segments", cc.getCwnd());
+                writer.gauge("ssthresh", "Slow start threshold in segments", cc.getSsthresh());
+                writer.gauge("in_flight", "Segments sent and not yet acknowledged or SACKed",
+                        lastSeqSent - lastAckRecv - sackedInFlight);
+                writer.gauge("rwnd", "Receiver's advertised window in segments",
+                        rwnd == Integer.MAX_VALUE ? Double.POSITIVE_INFINITY : rwnd);
+                writer.gauge("srtt_seconds", "Smoothed RTT estimate", srtt());
+                writer.gauge("rttvar_seconds", "RTT variation estimate", rttEstimator.getRttVar() / 1e9);
+                writer.gauge("rto_seconds", "Retransmission timeout, backoff included", rttEstimator.getRto() / 1e9);
+                writer.gauge("pacing_rate", "Pacing rate in payload bytes per second; 0 when not pacing",
+                        pacer != null ? pacer.getRate() * Packet.MAX_DATA_SIZE : 0);
+                writer.gauge("outstanding_bytes", "Bytes written and not yet acknowledged", getOutstandingBytes());
+                writer.gauge("send_buffer_bytes", "Bytes of segments the send buffer may hold",
+                        getSendBufferSize());
+            } finally {
+                stateLock.unlock();
+            }
+            writer.histogram("rtt_seconds", "RTT of segments acknowledged without retransmission",
+                    rttHistogram);
+            writer.histogram("delivery_latency_seconds", "Time from first transmission to cumulative ACK",
+                    deliveryLatency);
+        }
+    }
+
+    /**
+     * Flushes, ends the stream with a FIN and stops accepting writes; the sender closes its
+     * endpoint once everything written and the FIN have been acknowledged. The receiver's
+     * reads see the end of the stream.
+     */
     public void shutdown() {
+        writeLock.lock();
+        try {
+            if (pendingLength > 0) {
+                publishPending(true);
+            }
+            publishFin();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            unlockWrite();
+        }
         shutdown = true;
+        kick();
+        if (Seq.ge(lastAckRecv, buffer.getPublished())) {
+            // Nothing left to wait for: unblock the receive thread
+            llEndpoint.shutdown();
+        }
+    }
+
+    /**
+     * Waits for a shut down sender to deliver everything written and close.
+     *
+     * @return true if it finished within the timeout
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return recvThread.join(Duration.ofNanos(unit.toNanos(timeout)));
     }
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package org.example.protocol;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link OutputStream} over a {@link Sender}. Writes are coalesced into full segments the
+ * same way as {@link Sender#write(ByteBuffer)}; {@link #flush()} pushes out a partial one.
+ * Closing flushes but leaves the sender open.
+ */
+public class SenderOutputStream extends OutputStream {
+    private final Sender sender;
+
+    SenderOutputStream(Sender sender) {
+        this.sender = sender;
+    }
+
+    @Override
+    public void write(int b) {
+        // No shared scratch byte: a monitor held across a blocking write would pin a virtual thread
+        sender.write(ByteBuffer.wrap(new byte[]{(byte) b}));
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        sender.write(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public void flush() {
+        sender.flush();
+    }
+
+    @Override
+    public void close() {
+        sender.flush();
+    }
+}
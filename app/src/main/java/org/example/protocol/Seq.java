@@ -0,0 +1,39 @@
+package org.example.protocol;
+
+/**
+ * Comparisons on 32-bit sequence numbers that survive wraparound (RFC 1982 serial
+ * number arithmetic).
+ *
+ * Sequence numbers count segments and start at a random value, so a long-lived
+ * connection wraps past {@link Integer#MAX_VALUE}. Two numbers are ordered by the sign of
+ * their difference, which is right as long as they are less than 2^31 segments apart;
+ * windows and buffers are far smaller than that.
+ */
+final class Seq {
+    private Seq() {
+    }
+
+    static boolean lt(int a, int b) {
+        return a - b < 0;
+    }
+
+    static boolean le(int a, int b) {
+        return a - b <= 0;
+    }
+
+    static boolean gt(int a, int b) {
+        return a - b > 0;
+    }
+
+    static boolean ge(int a, int b) {
+        return a - b >= 0;
+    }
+
+    static int max(int a, int b) {
+        return a - b >= 0 ? a : b;
+    }
+
+    static int min(int a, int b) {
+        return a - b <= 0 ? a : b;
+    }
+}
@@ -0,0 +1,26 @@
+package org.example.protocol;
+
+/**
+ * Source of time and timeouts for the protocol.
+ */
+public interface TimerService {
+    long nanoTime();
+
+    /**
+     * Creates a disarmed timeout that runs {@code task} each time it expires.
+     * The handle is meant to be kept and rearmed for the lifetime of its owner.
+     */
+    Timeout newTimeout(Runnable task);
+
+    interface Timeout {
+        /**
+         * (Re)starts the timeout so it expires {@code delayNanos} from now,
+         * replacing any earlier deadline.
+         */
+        void rearm(long delayNanos);
+
+        void cancel();
+
+        boolean isArmed();
+    }
+}
@@ -0,0 +1,195 @@
+package org.example.protocol;
+
+import org.example.concurrent.Threads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel driven by a single thread.
+ *
+ * Timeouts are intrusive doubly linked list nodes hashed into a bucket by deadline
+ * tick, so rearming or cancelling one is an unlink and a relink under a short lock,
+ * with no allocation and no thread creation. Deadlines more than one revolution away
+ * stay in their bucket until the wheel comes round to the right tick. Expired tasks
+ * run on the wheel thread and should be short.
+ */
+public class TimerWheel implements TimerService {
+    private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+    private static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static TimerWheel defaultWheel;
+
+    private final long tickNanos;
+    private final long startTime;
+    private final WheelTimeout[] buckets;
+    private final int mask;
+    private long currentTick = 0;
+
+    private volatile boolean shutdown = false;
+    private final Thread wheelThread;
+
+    public TimerWheel(long tickNanos, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        }
+        this.tickNanos = tickNanos;
+        this.buckets = new WheelTimeout[wheelSize];
+        this.mask = wheelSize - 1;
+        this.startTime = System.nanoTime();
+
+        wheelThread = Threads.start("timer-wheel", this::run);
+    }
+
+    /**
+     * The wheel shared by every connection in this JVM.
+     */
+    public static synchronized TimerWheel getDefault() {
+        if (defaultWheel == null) {
+            defaultWheel = new TimerWheel(DEFAULT_TICK_NANOS, DEFAULT_WHEEL_SIZE);
+        }
+        return defaultWheel;
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public Timeout newTimeout(Runnable task) {
+        return new WheelTimeout(task);
+    }
+
+    private final class WheelTimeout implements Timeout {
+        private final Runnable task;
+        private long deadlineTick;
+        private boolean armed;
+        private volatile int generation;
+        private WheelTimeout prev;
+        private WheelTimeout next;
+        private WheelTimeout nextExpired;
+        private int expiredGeneration;
+
+        WheelTimeout(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void rearm(long delayNanos) {
+            synchronized (TimerWheel.this) {
+                long tick = (System.nanoTime() - startTime + delayNanos + tickNanos - 1) / tickNanos;
+                tick = Math.max(tick, currentTick + 1);
+                generation++;
+                if (armed) {
+                    if ((tick & mask) == (deadlineTick & mask)) {
+                        deadlineTick = tick;
+                        return;
+                    }
+                    unlink(this);
+                }
+                deadlineTick = tick;
+                armed = true;
+                link(this);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (TimerWheel.this) {
+                generation++;
+                if (armed) {
+                    unlink(this);
+                    armed = false;
+                }
+            }
+        }
+
+        @Override
+        public boolean isArmed() {
+            synchronized (TimerWheel.this) {
+                return armed;
+            }
+        }
+    }
+
+    private void link(WheelTimeout timeout) {
+        int index = (int) (timeout.deadlineTick & mask);
+        WheelTimeout head = buckets[index];
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        buckets[index] = timeout;
+    }
+
+    private void unlink(WheelTimeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[(int) (timeout.deadlineTick & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+    }
+
+    /**
+     * Advances to the next tick and unlinks everything due in it.
+     *
+     * @return the expired timeouts, chained through {@code nextExpired}
+     */
+    private synchronized WheelTimeout advance() {
+        currentTick++;
+        WheelTimeout expired = null;
+        WheelTimeout timeout = buckets[(int) (currentTick & mask)];
+        while (timeout != null) {
+            WheelTimeout next = timeout.next;
+            if (timeout.deadlineTick <= currentTick) {
+                unlink(timeout);
+                timeout.armed = false;
+                timeout.expiredGeneration = timeout.generation;
+                timeout.nextExpired = expired;
+                expired = timeout;
+            }
+            timeout = next;
+        }
+        return expired;
+    }
+
+    private void run() {
+        while (!shutdown) {
+            long wakeup = startTime + (currentTick + 1) * tickNanos;
+            long remaining;
+            while ((remaining = wakeup - System.nanoTime()) > 0 && !shutdown) {
+                LockSupport.parkNanos(remaining);
+            }
+
+            WheelTimeout expired = advance();
+            while (expired != null) {
+                WheelTimeout next = expired.nextExpired;
+                expired.nextExpired = null;
+                // Skip timeouts that were rearmed or cancelled after being collected
+                if (expired.generation == expired.expiredGeneration) {
+                    try {
+                        expired.task.run();
+                    } catch (RuntimeException e) {
+                        logger.error("Timeout task failed", e);
+                    }
+                }
+                expired = next;
+            }
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(wheelThread);
+    }
+}
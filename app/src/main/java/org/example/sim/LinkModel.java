@@ -0,0 +1,64 @@
+package org.example.sim;
+
+/**
+ * Behaviour of one direction of a simulated link.
+ *
+ * @param bandwidth  packets per second the link serializes
+ * @param delay      propagation delay in seconds
+ * @param jitter     extra delay in seconds, drawn uniformly per packet; packets can overtake
+ * @param loss       probability that a packet is lost on the wire
+ * @param reorder    probability that a packet is held back one more propagation delay
+ * @param duplicate  probability that a packet arrives twice
+ * @param queueSize  packets that may wait for the link before tail drop; 0 for unbounded
+ */
+public record LinkModel(int bandwidth, double delay, double jitter, double loss, double reorder,
+                        double duplicate, int queueSize) {
+    public LinkModel {
+        if (bandwidth < 1) {
+            throw new IllegalArgumentException("bandwidth must be positive: " + bandwidth);
+        }
+        if (delay < 0 || jitter < 0) {
+            throw new IllegalArgumentException("delay and jitter must not be negative");
+        }
+        checkProbability("loss", loss);
+        checkProbability("reorder", reorder);
+        checkProbability("duplicate", duplicate);
+        if (queueSize < 0) {
+            throw new IllegalArgumentException("queueSize must not be negative: " + queueSize);
+        }
+    }
+
+    /**
+     * A link that only limits rate and adds delay, like {@code LowerLayerEndpoint} with an
+     * unbounded queue.
+     */
+    public static LinkModel of(int bandwidth, double delay) {
+        return new LinkModel(bandwidth, delay, 0, 0, 0, 0, 0);
+    }
+
+    public LinkModel withJitter(double jitter) {
+        return new LinkModel(bandwidth, delay, jitter, loss, reorder, duplicate, queueSize);
+    }
+
+    public LinkModel withLoss(double loss) {
+        return new LinkModel(bandwidth, delay, jitter, loss, reorder, duplicate, queueSize);
+    }
+
+    public LinkModel withReorder(double reorder) {
+        return new LinkModel(bandwidth, delay, jitter, loss, reorder, duplicate, queueSize);
+    }
+
+    public LinkModel withDuplicate(double duplicate) {
+        return new LinkModel(bandwidth, delay, jitter, loss, reorder, duplicate, queueSize);
+    }
+
+    public LinkModel withQueueSize(int queueSize) {
+        return new LinkModel(bandwidth, delay, jitter, loss, reorder, duplicate, queueSize);
+    }
+
+    private static void checkProbability(String name, double p) {
+        if (p < 0 || p > 1) {
+            throw new IllegalArgumentException(name + " must be between 0 and 1: " + p);
+        }
+    }
+}
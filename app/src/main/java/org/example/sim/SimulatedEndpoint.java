@@ -0,0 +1,130 @@
+package org.example.sim;
+
+import org.example.network.DatagramEndpoint;
+import org.example.network.PooledBuffer;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One end of a simulated point-to-point link; see {@link SimulatedNetwork}.
+ *
+ * Delivery is a rendezvous with the protocol's receive thread: {@link #deliver} hands
+ * over a datagram and returns only once that thread has handled it and is back waiting in
+ * {@link #recvBuffer()}. So only one thread works at a time, everything it sends or arms
+ * is scheduled before the clock moves on, and a run is reproducible although the
+ * protocol keeps its own threads. Every endpoint therefore needs a reader until it is
+ * shut down; datagrams for a shut down endpoint are dropped.
+ */
+public class SimulatedEndpoint implements DatagramEndpoint {
+    private final SimulatedNetwork network;
+    private final String name;
+    private final ArrayDeque<PooledBuffer> inbound = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private boolean readerWaiting = false;
+    private boolean shutdown = false;
+    private SimulatedNetwork.Link outbound;
+
+    SimulatedEndpoint(SimulatedNetwork network, String name) {
+        this.network = network;
+        this.name = name;
+    }
+
+    void connect(SimulatedNetwork.Link outbound) {
+        this.outbound = outbound;
+    }
+
+    /**
+     * Called on the simulation thread when a datagram arrives; takes ownership of the lease.
+     */
+    void deliver(PooledBuffer lease) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                lease.release();
+                return;
+            }
+            inbound.add(lease);
+            changed.signalAll();
+            while (!shutdown && !(readerWaiting && inbound.isEmpty())) {
+                changed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public PooledBuffer allocate() {
+        return network.allocate();
+    }
+
+    @Override
+    public void send(PooledBuffer lease) {
+        if (outbound == null || isShutdown()) {
+            lease.release();
+            return;
+        }
+        network.transmit(outbound, lease);
+    }
+
+    @Override
+    public PooledBuffer recvBuffer() {
+        lock.lock();
+        try {
+            readerWaiting = true;
+            changed.signalAll();
+            while (inbound.isEmpty() && !shutdown) {
+                changed.awaitUninterruptibly();
+            }
+            readerWaiting = false;
+            return shutdown ? null : inbound.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getTransmitDelay() {
+        return outbound != null ? 1.0 / outbound.model().bandwidth() : 0;
+    }
+
+    @Override
+    public double getPropagationDelay() {
+        return outbound != null ? outbound.model().delay() : 0;
+    }
+
+    private boolean isShutdown() {
+        lock.lock();
+        try {
+            return shutdown;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        lock.lock();
+        try {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            PooledBuffer lease;
+            while ((lease = inbound.poll()) != null) {
+                lease.release();
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,151 @@
+package org.example.sim;
+
+import org.example.network.BufferPool;
+import org.example.network.PooledBuffer;
+
+import java.util.Random;
+
+/**
+ * In-memory network of point-to-point links on a {@link VirtualClock}, standing in for
+ * {@code LowerLayerEndpoint} and real UDP sockets.
+ *
+ * Each direction of a link serializes packets at its bandwidth behind a queue, then
+ * applies loss, propagation delay, jitter, reordering and duplication as its
+ * {@link LinkModel} says. All randomness comes from one generator seeded at
+ * construction, and events run in a fixed order, so the same seed, models and
+ * workload give the same run every time.
+ */
+public class SimulatedNetwork {
+    private static final int MAX_PACKET_SIZE = 4096;
+
+    private final VirtualClock clock;
+    private final Random random;
+    private final BufferPool pool = new BufferPool(MAX_PACKET_SIZE, 256, 65536);
+
+    private long packetsSent = 0;
+    private long packetsLost = 0;
+    private long packetsDropped = 0;
+    private long packetsReordered = 0;
+    private long packetsDuplicated = 0;
+
+    /**
+     * One direction of a link. {@code busyUntil} is when the last queued packet has
+     * finished serializing.
+     */
+    static final class Link {
+        private final LinkModel model;
+        private final SimulatedEndpoint to;
+        private long busyUntil = 0;
+
+        Link(LinkModel model, SimulatedEndpoint to) {
+            this.model = model;
+            this.to = to;
+        }
+
+        LinkModel model() {
+            return model;
+        }
+    }
+
+    public SimulatedNetwork(long seed) {
+        this(new VirtualClock(), seed);
+    }
+
+    public SimulatedNetwork(VirtualClock clock, long seed) {
+        this.clock = clock;
+        this.random = new Random(seed);
+    }
+
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    public SimulatedEndpoint newEndpoint(String name) {
+        return new SimulatedEndpoint(this, name);
+    }
+
+    /**
+     * Links two endpoints in both directions, each with its own queue but the same model.
+     */
+    public void connect(SimulatedEndpoint a, SimulatedEndpoint b, LinkModel model) {
+        connect(a, b, model, model);
+    }
+
+    public void connect(SimulatedEndpoint a, SimulatedEndpoint b, LinkModel aToB, LinkModel bToA) {
+        a.connect(new Link(aToB, b));
+        b.connect(new Link(bToA, a));
+    }
+
+    PooledBuffer allocate() {
+        return pool.acquire();
+    }
+
+    /**
+     * Puts a packet on the link; takes ownership of the lease. Called by whichever thread
+     * is currently running the simulation.
+     */
+    synchronized void transmit(Link link, PooledBuffer lease) {
+        LinkModel model = link.model;
+        long now = clock.nanoTime();
+        long transmitNanos = 1_000_000_000L / model.bandwidth();
+        packetsSent++;
+
+        long backlog = Math.max(0, link.busyUntil - now);
+        if (model.queueSize() > 0 && backlog >= model.queueSize() * transmitNanos) {
+            packetsDropped++;
+            lease.release();
+            return;
+        }
+        long departure = Math.max(now, link.busyUntil) + transmitNanos;
+        link.busyUntil = departure;
+
+        if (model.loss() > 0 && random.nextDouble() < model.loss()) {
+            packetsLost++;
+            lease.release();
+            return;
+        }
+
+        long delayNanos = (long) (model.delay() * 1_000_000_000L);
+        long arrival = departure + delayNanos;
+        if (model.jitter() > 0) {
+            arrival += (long) (random.nextDouble() * model.jitter() * 1_000_000_000L);
+        }
+        if (model.reorder() > 0 && random.nextDouble() < model.reorder()) {
+            packetsReordered++;
+            arrival += Math.max(delayNanos, transmitNanos);
+        }
+        if (model.duplicate() > 0 && random.nextDouble() < model.duplicate()) {
+            packetsDuplicated++;
+            PooledBuffer copy = pool.acquire();
+            copy.buffer().put(lease.buffer().duplicate()).flip();
+            clock.schedule(arrival + transmitNanos - now, () -> link.to.deliver(copy));
+        }
+        clock.schedule(arrival - now, () -> link.to.deliver(lease));
+    }
+
+    public synchronized long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * Packets lost on the wire, not counting queue drops.
+     */
+    public synchronized long getPacketsLost() {
+        return packetsLost;
+    }
+
+    /**
+     * Packets tail-dropped because the link's queue was full.
+     */
+    public synchronized long getPacketsDropped() {
+        return packetsDropped;
+    }
+
+    public synchronized long getPacketsReordered() {
+        return packetsReordered;
+    }
+
+    public synchronized long getPacketsDuplicated() {
+        return packetsDuplicated;
+    }
+}
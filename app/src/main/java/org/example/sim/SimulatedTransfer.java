@@ -0,0 +1,200 @@
+package org.example.sim;
+
+import ch.qos.logback.classic.Level;
+import org.example.protocol.CongestionController;
+import org.example.protocol.Packet;
+import org.example.protocol.Receiver;
+import org.example.protocol.Sender;
+import org.example.trace.FlightRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Bulk transfer from a {@link Sender} to a {@link Receiver} over a {@link SimulatedNetwork}.
+ *
+ * The application side runs on the simulation thread between events: it writes while the
+ * sender's buffer, as tuned so far, has room for another chunk, so it never blocks, and
+ * reads whatever has been delivered, checking every byte.
+ */
+public class SimulatedTransfer {
+    private static final Logger logger = LoggerFactory.getLogger(SimulatedTransfer.class);
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * @param elapsedNanos simulated time from the first SYN to the last byte read
+     */
+    public record Result(boolean completed, long bytesDelivered, long elapsedNanos, long packetsSent,
+                         long packetsLost, long packetsDropped, long acksSent, long events) {
+        /** Application bytes per simulated second. */
+        public double goodput() {
+            return elapsedNanos == 0 ? 0 : bytesDelivered * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %,d bytes in %.3f s simulated (%,.0f bytes/s), %,d packets sent, " +
+                            "%,d lost, %,d dropped, %,d ACKs, %,d events",
+                    completed ? "completed" : "INCOMPLETE", bytesDelivered, elapsedNanos / 1e9, goodput(),
+                    packetsSent, packetsLost, packetsDropped, acksSent, events);
+        }
+    }
+
+    private static byte expectedByte(long offset) {
+        return (byte) (offset * 31 + (offset >>> 11));
+    }
+
+    /**
+     * Runs the transfer until every byte is read or {@code timeLimitSeconds} of simulated
+     * time have passed.
+     */
+    public static Result run(long seed, LinkModel forward, LinkModel backward, CongestionController cc,
+                             boolean usePacing, long bytes, double timeLimitSeconds) {
+        SimulatedNetwork network = new SimulatedNetwork(seed);
+        VirtualClock clock = network.getClock();
+        SimulatedEndpoint clientEndpoint = network.newEndpoint("client");
+        SimulatedEndpoint serverEndpoint = network.newEndpoint("server");
+        network.connect(clientEndpoint, serverEndpoint, forward, backward);
+
+        Receiver receiver = new Receiver(serverEndpoint, 1, 20_000_000L, Receiver.DEFAULT_RECV_BUFFER_SIZE, clock);
+        Sender sender = new Sender(clientEndpoint, cc, usePacing, clock);
+
+        long limit = (long) (timeLimitSeconds * 1_000_000_000L);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        byte[] readBuffer = new byte[CHUNK_SIZE];
+        long written = 0;
+        long read = 0;
+        boolean corrupt = false;
+
+        while (read < bytes && clock.nanoTime() <= limit && !corrupt) {
+            // Application: top up the send buffer, drain the receive buffer. Writes leave two
+            // segments of slack, one the chunk leaves partial and one an earlier flush sent short.
+            while (written < bytes && sender.getOutstandingBytes() + CHUNK_SIZE + 2 * Packet.MAX_DATA_SIZE
+                    <= sender.getSendBufferSize()) {
+                int n = (int) Math.min(chunk.length, bytes - written);
+                for (int i = 0; i < n; i++) {
+                    chunk[i] = expectedByte(written + i);
+                }
+                sender.write(ByteBuffer.wrap(chunk, 0, n));
+                written += n;
+                if (written == bytes) {
+                    sender.flush();
+                }
+            }
+            while (receiver.getBufferedBytes() > 0) {
+                int n = receiver.read(readBuffer, 0, readBuffer.length);
+                for (int i = 0; i < n && !corrupt; i++) {
+                    corrupt = readBuffer[i] != expectedByte(read + i);
+                }
+                read += n;
+            }
+            if (read >= bytes || corrupt || !clock.runNext()) break;
+        }
+
+        Result result = new Result(read == bytes && !corrupt, read, clock.nanoTime(), network.getPacketsSent(),
+                network.getPacketsLost(), network.getPacketsDropped(), receiver.getAcksSent(), clock.getEventsRun());
+        if (corrupt) {
+            logger.error("Data corrupted at offset {}", read);
+        }
+        sender.shutdown();
+        receiver.shutdown();
+        clientEndpoint.shutdown();
+        return result;
+    }
+
+    public static void main(String[] args) {
+        int bandwidth = 1000;
+        double delay = 0.05;
+        double jitter = 0;
+        double loss = 0;
+        double reorder = 0;
+        double duplicate = 0;
+        int queueSize = 0;
+        long bytes = 10_000_000;
+        double timeLimit = 3600;
+        long seed = 1;
+        String congestionControl = "reno";
+        boolean usePacing = false;
+        boolean verbose = false;
+        String traceFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-b":
+                    bandwidth = Integer.parseInt(args[++i]);
+                    break;
+                case "-d":
+                    delay = Double.parseDouble(args[++i]);
+                    break;
+                case "-j":
+                    jitter = Double.parseDouble(args[++i]);
+                    break;
+                case "-l":
+                    loss = Double.parseDouble(args[++i]);
+                    break;
+                case "-r":
+                    reorder = Double.parseDouble(args[++i]);
+                    break;
+                case "-u":
+                    duplicate = Double.parseDouble(args[++i]);
+                    break;
+                case "-q":
+                    queueSize = Integer.parseInt(args[++i]);
+                    break;
+                case "-n":
+                    bytes = Long.parseLong(args[++i]);
+                    break;
+                case "-t":
+                    timeLimit = Double.parseDouble(args[++i]);
+                    break;
+                case "-seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "-cc":
+                    congestionControl = args[++i];
+                    break;
+                case "-pace":
+                    usePacing = true;
+                    break;
+                case "-v":
+                    verbose = true;
+                    break;
+                case "-trace":
+                    traceFile = args[++i];
+                    break;
+                default:
+                    System.err.println("Usage: java SimulatedTransfer [-b <bandwidth>] [-d <delay>] [-j <jitter>] " +
+                            "[-l <loss>] [-r <reorder>] [-u <duplicate>] [-q <queue_size>] [-n <bytes>] " +
+                            "[-t <time_limit_s>] [-seed <seed>] [-cc <reno|cubic|bbr>] [-pace] [-v] [-trace <file>]");
+                    System.exit(1);
+            }
+        }
+
+        if (verbose) {
+            // Per-packet events are logged at DEBUG; the flight recorder keeps them either way
+            ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("org.example.protocol")).setLevel(Level.DEBUG);
+        }
+
+        LinkModel model = new LinkModel(bandwidth, delay, jitter, loss, reorder, duplicate, queueSize);
+        logger.info("Simulating {} bytes over {} with seed {}, cc={}, pacing={}",
+                bytes, model, seed, congestionControl, usePacing);
+
+        long start = System.nanoTime();
+        Result result = run(seed, model, model, CongestionController.forName(congestionControl, true, true),
+                usePacing, bytes, timeLimit);
+        logger.info("{} ({} ms wall time)", result, (System.nanoTime() - start) / 1_000_000);
+        if (traceFile != null) {
+            // Times in the trace are simulated, so plots show the modelled link rather than the host
+            try {
+                FlightRecorder.getDefault().dump(Path.of(traceFile));
+                logger.info("Wrote trace to {}", traceFile);
+            } catch (IOException e) {
+                logger.error("Failed to write trace to {}", traceFile, e);
+            }
+        }
+        System.exit(result.completed() ? 0 : 1);
+    }
+}
@@ -0,0 +1,172 @@
+package org.example.sim;
+
+import org.example.protocol.TimerService;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Discrete-event clock for simulations. Time only moves when the next event is run, so
+ * a simulated hour passes as fast as its events can be processed.
+ *
+ * Events run one at a time on the thread that calls {@link #runNext()}, in order of due
+ * time and then of scheduling, which makes a run reproducible. Timeouts created through
+ * the {@link TimerService} interface run their tasks the same way, so a Sender or
+ * Receiver given this clock keeps all its timers on simulated time.
+ */
+public class VirtualClock implements TimerService {
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long now = 0;
+    private long scheduled = 0;
+    private long eventsRun = 0;
+
+    private record Event(long time, long seq, Runnable task) implements Comparable<Event> {
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(seq, other.seq);
+        }
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    /**
+     * Runs {@code task} once, {@code delayNanos} from now.
+     */
+    public void schedule(long delayNanos, Runnable task) {
+        lock.lock();
+        try {
+            events.add(new Event(now + Math.max(0, delayNanos), scheduled++, task));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Advances to the earliest pending event and runs it.
+     *
+     * @return false if there was none
+     */
+    public boolean runNext() {
+        Event event;
+        lock.lock();
+        try {
+            event = events.poll();
+            if (event == null) {
+                return false;
+            }
+            now = event.time;
+            eventsRun++;
+        } finally {
+            lock.unlock();
+        }
+        event.task.run();
+        return true;
+    }
+
+    /**
+     * Runs every event due up to {@code timeNanos}, then moves the clock there.
+     */
+    public void runUntil(long timeNanos) {
+        while (true) {
+            lock.lock();
+            try {
+                Event next = events.peek();
+                if (next == null || next.time > timeNanos) {
+                    now = Math.max(now, timeNanos);
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            runNext();
+        }
+    }
+
+    public long getEventsRun() {
+        lock.lock();
+        try {
+            return eventsRun;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPendingEvents() {
+        lock.lock();
+        try {
+            return events.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Timeout newTimeout(Runnable task) {
+        return new VirtualTimeout(task);
+    }
+
+    /**
+     * Rearming leaves the old event queued; it is skipped when its generation is stale.
+     */
+    private class VirtualTimeout implements Timeout {
+        private final Runnable task;
+        private long generation = 0;
+        private boolean armed = false;
+
+        VirtualTimeout(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void rearm(long delayNanos) {
+            long current;
+            lock.lock();
+            try {
+                current = ++generation;
+                armed = true;
+            } finally {
+                lock.unlock();
+            }
+            schedule(delayNanos, () -> fire(current));
+        }
+
+        private void fire(long expected) {
+            lock.lock();
+            try {
+                if (!armed || generation != expected) {
+                    return;
+                }
+                armed = false;
+            } finally {
+                lock.unlock();
+            }
+            task.run();
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                armed = false;
+                generation++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isArmed() {
+            lock.lock();
+            try {
+                return armed;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
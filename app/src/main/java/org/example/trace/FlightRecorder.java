@@ -0,0 +1,210 @@
+package org.example.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Always-on trace of transport events in a preallocated ring, replacing per-packet logging.
+ *
+ * Recording claims a slot with one atomic increment and writes four longs into it, with no
+ * allocation, formatting or locking, so it is cheap enough to leave on in the data path.
+ * When the ring is full the oldest records are overwritten. Each slot carries a stamp:
+ * negative while a writer holds the slot and the record's index after, so a reader skips
+ * records that are being overwritten instead of returning torn ones. A writer that finds
+ * its slot still held, by one stalled for a whole lap of the ring, drops its record.
+ *
+ * {@link #dump} writes what the ring holds in a compact binary format that
+ * {@link TraceReader} reads back and {@link TracePlot} renders. Records can also be
+ * mirrored to JFR as {@code org.example.tplxp.Transport} events.
+ */
+public final class FlightRecorder {
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecorder.class);
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    static final int MAGIC = 0x54504C54; // "TPLT"
+    static final short VERSION = 1;
+    // Time, event and ID, sequence, value
+    private static final int SLOT_LONGS = 4;
+
+    private static final FlightRecorder defaultRecorder = new FlightRecorder(DEFAULT_CAPACITY);
+
+    private final int mask;
+    private final long[] slots;
+    private final AtomicLongArray stamps;
+    private final AtomicLong next = new AtomicLong();
+    private volatile boolean enabled = true;
+    private volatile boolean jfrEnabled = false;
+
+    /**
+     * @param capacity records kept; rounded up to a power of two
+     */
+    public FlightRecorder(int capacity) {
+        if (capacity < 1 || capacity > 1 << 26) {
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        }
+        int size = Math.max(1, Integer.highestOneBit(capacity - 1) << 1);
+        this.mask = size - 1;
+        this.slots = new long[size * SLOT_LONGS];
+        this.stamps = new AtomicLongArray(size);
+    }
+
+    public static FlightRecorder getDefault() {
+        return defaultRecorder;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Also emits every record as a JFR event, committed only while a recording has it enabled.
+     */
+    public void setJfrEnabled(boolean jfrEnabled) {
+        this.jfrEnabled = jfrEnabled;
+    }
+
+    /**
+     * Records one event. Safe to call from any thread.
+     *
+     * @param timeNanos time on the caller's clock, e.g. its {@code TimerService}
+     */
+    public void record(TraceEvent event, long timeNanos, int id, int seq, long value) {
+        if (!enabled) {
+            return;
+        }
+        long index = next.getAndIncrement();
+        int slot = (int) index & mask;
+        int base = slot * SLOT_LONGS;
+        long stamp = stamps.get(slot);
+        // The CAS also keeps the stores below from moving above it
+        if (stamp < 0 || !stamps.compareAndSet(slot, stamp, -(index + 1))) {
+            return;
+        }
+        slots[base] = timeNanos;
+        slots[base + 1] = (long) event.ordinal() << 32 | (id & 0xFFFFFFFFL);
+        slots[base + 2] = seq;
+        slots[base + 3] = value;
+        stamps.setRelease(slot, index + 1);
+
+        if (jfrEnabled) {
+            emitJfr(event, id, seq, value);
+        }
+    }
+
+    private static void emitJfr(TraceEvent event, int id, int seq, long value) {
+        TransportEvent jfr = new TransportEvent();
+        if (jfr.shouldCommit()) {
+            jfr.event = event.name();
+            jfr.id = id;
+            jfr.seq = seq;
+            jfr.value = value;
+            jfr.commit();
+        }
+    }
+
+    /**
+     * Events offered since creation, including those since overwritten.
+     */
+    public long getRecorded() {
+        return next.get();
+    }
+
+    /**
+     * Records still in the ring, oldest first.
+     */
+    public List<TraceRecord> snapshot() {
+        long end = next.get();
+        long start = Math.max(0, end - getCapacity());
+        List<TraceRecord> records = new ArrayList<>((int) (end - start));
+        for (long index = start; index < end; index++) {
+            int slot = (int) index & mask;
+            int base = slot * SLOT_LONGS;
+            long stamp = stamps.getAcquire(slot);
+            if (stamp != index + 1) {
+                continue;
+            }
+            long time = slots[base];
+            long eventAndId = slots[base + 1];
+            long seq = slots[base + 2];
+            long value = slots[base + 3];
+            VarHandle.loadLoadFence();
+            if (stamps.get(slot) != stamp) {
+                continue;
+            }
+            records.add(new TraceRecord(time, TraceEvent.of((int) (eventAndId >>> 32)), (int) eventAndId,
+                    (int) seq, value));
+        }
+        return records;
+    }
+
+    /**
+     * Writes the records still in the ring: a header of magic, version and record count,
+     * then 25 bytes per record (time, event, ID, sequence, value).
+     */
+    public void dump(OutputStream out) throws IOException {
+        List<TraceRecord> records = snapshot();
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeInt(records.size());
+        for (TraceRecord record : records) {
+            data.writeLong(record.timeNanos());
+            data.writeByte(record.event().ordinal());
+            data.writeInt(record.id());
+            data.writeInt(record.seq());
+            data.writeLong(record.value());
+        }
+        data.flush();
+    }
+
+    public void dump(Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            dump(out);
+        }
+    }
+
+    /**
+     * Dumps the ring to {@code file} when the JVM exits, including on Ctrl-C.
+     */
+    public void dumpOnExit(Path file) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                dump(file);
+                logger.info("Wrote trace to {}", file);
+            } catch (IOException e) {
+                logger.error("Failed to write trace to {}", file, e);
+            }
+        }, "trace-dump"));
+    }
+
+    /**
+     * Forgets every record, e.g. between runs in one process.
+     */
+    public void clear() {
+        for (int slot = 0; slot < getCapacity(); slot++) {
+            long stamp = stamps.get(slot);
+            if (stamp > 0) {
+                stamps.compareAndSet(slot, stamp, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.example.trace;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Minimal scatter and step-line chart written as a standalone SVG file.
+ */
+final class SvgChart {
+    private static final int WIDTH = 900;
+    private static final int HEIGHT = 450;
+    private static final int LEFT = 70;
+    private static final int RIGHT = 20;
+    private static final int TOP = 40;
+    private static final int BOTTOM = 50;
+    private static final int TICKS = 5;
+
+    private record Series(String name, String color, boolean step, double[] xs, double[] ys) {
+    }
+
+    private final String title;
+    private final String xLabel;
+    private final String yLabel;
+    private final List<Series> series = new ArrayList<>();
+
+    SvgChart(String title, String xLabel, String yLabel) {
+        this.title = title;
+        this.xLabel = xLabel;
+        this.yLabel = yLabel;
+    }
+
+    /**
+     * Adds points drawn as dots.
+     */
+    SvgChart points(String name, String color, double[] xs, double[] ys) {
+        series.add(new Series(name, color, false, xs, ys));
+        return this;
+    }
+
+    /**
+     * Adds points joined by a line that holds each value until the next.
+     */
+    SvgChart steps(String name, String color, double[] xs, double[] ys) {
+        series.add(new Series(name, color, true, xs, ys));
+        return this;
+    }
+
+    boolean isEmpty() {
+        return series.stream().allMatch(s -> s.xs().length == 0);
+    }
+
+    void write(Path file) throws IOException {
+        Files.writeString(file, render(), StandardCharsets.UTF_8);
+    }
+
+    String render() {
+        double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+        double minY = 0, maxY = Double.NEGATIVE_INFINITY;
+        for (Series s : series) {
+            for (int i = 0; i < s.xs().length; i++) {
+                minX = Math.min(minX, s.xs()[i]);
+                maxX = Math.max(maxX, s.xs()[i]);
+                minY = Math.min(minY, s.ys()[i]);
+                maxY = Math.max(maxY, s.ys()[i]);
+            }
+        }
+        if (minX > maxX) {
+            minX = 0;
+            maxX = 1;
+        }
+        if (maxX == minX) {
+            maxX = minX + 1;
+        }
+        if (maxY <= minY) {
+            maxY = minY + 1;
+        }
+        Scale x = new Scale(minX, maxX, LEFT, WIDTH - RIGHT);
+        Scale y = new Scale(minY, maxY, HEIGHT - BOTTOM, TOP);
+
+        StringBuilder svg = new StringBuilder();
+        svg.append(String.format(Locale.ROOT, "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\" "
+                + "font-family=\"sans-serif\" font-size=\"12\">\n", WIDTH, HEIGHT));
+        svg.append("<rect width=\"100%\" height=\"100%\" fill=\"white\"/>\n");
+        svg.append(String.format(Locale.ROOT, "<text x=\"%d\" y=\"20\" font-size=\"14\">%s</text>\n",
+                LEFT, escape(title)));
+
+        // Axes, ticks and grid
+        svg.append(String.format(Locale.ROOT, "<g stroke=\"black\"><line x1=\"%d\" y1=\"%d\" x2=\"%d\" y2=\"%d\"/>"
+                        + "<line x1=\"%d\" y1=\"%d\" x2=\"%d\" y2=\"%d\"/></g>\n",
+                LEFT, HEIGHT - BOTTOM, WIDTH - RIGHT, HEIGHT - BOTTOM, LEFT, TOP, LEFT, HEIGHT - BOTTOM));
+        for (int i = 0; i <= TICKS; i++) {
+            double vx = minX + (maxX - minX) * i / TICKS;
+            double vy = minY + (maxY - minY) * i / TICKS;
+            svg.append(String.format(Locale.ROOT, "<line x1=\"%.1f\" y1=\"%d\" x2=\"%.1f\" y2=\"%d\" stroke=\"#ddd\"/>"
+                            + "<text x=\"%.1f\" y=\"%d\" text-anchor=\"middle\">%s</text>\n",
+                    x.map(vx), TOP, x.map(vx), HEIGHT - BOTTOM, x.map(vx), HEIGHT - BOTTOM + 16, label(vx)));
+            svg.append(String.format(Locale.ROOT, "<line x1=\"%d\" y1=\"%.1f\" x2=\"%d\" y2=\"%.1f\" stroke=\"#ddd\"/>"
+                            + "<text x=\"%d\" y=\"%.1f\" text-anchor=\"end\">%s</text>\n",
+                    LEFT, y.map(vy), WIDTH - RIGHT, y.map(vy), LEFT - 6, y.map(vy) + 4, label(vy)));
+        }
+        svg.append(String.format(Locale.ROOT, "<text x=\"%d\" y=\"%d\" text-anchor=\"middle\">%s</text>\n",
+                (LEFT + WIDTH - RIGHT) / 2, HEIGHT - 10, escape(xLabel)));
+        svg.append(String.format(Locale.ROOT, "<text transform=\"translate(16,%d) rotate(-90)\" "
+                + "text-anchor=\"middle\">%s</text>\n", (TOP + HEIGHT - BOTTOM) / 2, escape(yLabel)));
+
+        int legendX = WIDTH - RIGHT - 10;
+        for (int i = 0; i < series.size(); i++) {
+            Series s = series.get(i);
+            svg.append(String.format(Locale.ROOT, "<text x=\"%d\" y=\"%d\" text-anchor=\"end\" fill=\"%s\">%s</text>\n",
+                    legendX, TOP + 14 * (i + 1), s.color(), escape(s.name())));
+        }
+
+        for (Series s : series) {
+            if (s.xs().length == 0) continue;
+            if (s.step()) {
+                StringBuilder path = new StringBuilder();
+                for (int i = 0; i < s.xs().length; i++) {
+                    double px = x.map(s.xs()[i]);
+                    double py = y.map(s.ys()[i]);
+                    if (i == 0) {
+                        path.append(String.format(Locale.ROOT, "M%.1f %.1f", px, py));
+                    } else {
+                        path.append(String.format(Locale.ROOT, " H%.1f V%.1f", px, py));
+                    }
+                }
+                svg.append(String.format(Locale.ROOT, "<path d=\"%s\" fill=\"none\" stroke=\"%s\"/>\n",
+                        path, s.color()));
+            } else {
+                svg.append(String.format(Locale.ROOT, "<g fill=\"%s\">", s.color()));
+                for (int i = 0; i < s.xs().length; i++) {
+                    svg.append(String.format(Locale.ROOT, "<circle cx=\"%.1f\" cy=\"%.1f\" r=\"1.5\"/>",
+                            x.map(s.xs()[i]), y.map(s.ys()[i])));
+                }
+                svg.append("</g>\n");
+            }
+        }
+        svg.append("</svg>\n");
+        return svg.toString();
+    }
+
+    private record Scale(double min, double max, double from, double to) {
+        double map(double v) {
+            return from + (v - min) / (max - min) * (to - from);
+        }
+    }
+
+    private static String label(double v) {
+        if (v == Math.rint(v) && Math.abs(v) < 1e9) {
+            return Long.toString((long) v);
+        }
+        return String.format(Locale.ROOT, "%.3g", v);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,37 @@
+package org.example.trace;
+
+/**
+ * Kinds of event a {@link FlightRecorder} keeps. Each record carries an ID, a sequence
+ * number and a value whose meaning depends on the kind.
+ */
+public enum TraceEvent {
+    /** First transmission of a segment: ID is the connection, value the datagram length. */
+    TRANSMIT,
+    /** A segment sent again: ID is the connection, value the datagram length. */
+    RETRANSMIT,
+    /** An ACK at the sender: sequence is the cumulative ACK, value the advertised window. */
+    ACK,
+    /** A duplicate ACK: sequence is the cumulative ACK, value the duplicates in a row. */
+    DUP_ACK,
+    /** A retransmission timeout: sequence is the first unacknowledged segment, value the RTO in ns. */
+    TIMEOUT,
+    /** The congestion window changed: sequence is the cumulative ACK, value cwnd in thousandths of a segment. */
+    CWND,
+    /** An RTT sample: sequence is the acknowledged segment, value the RTT in ns. */
+    RTT,
+    /**
+     * A datagram dropped before the link: ID is the local port, or 0 for an active queue
+     * management drop; sequence is the queue depth, or -1 if the delay line was full; value
+     * is the length.
+     */
+    DROP;
+
+    private static final TraceEvent[] VALUES = values();
+
+    static TraceEvent of(int ordinal) {
+        if (ordinal < 0 || ordinal >= VALUES.length) {
+            throw new IllegalArgumentException("Unknown trace event " + ordinal);
+        }
+        return VALUES[ordinal];
+    }
+}
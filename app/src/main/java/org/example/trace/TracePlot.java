@@ -0,0 +1,136 @@
+package org.example.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Offline tool that renders a {@link FlightRecorder} dump as SVG plots, three per sender
+ * connection: the time-sequence graph (transmits, retransmits and ACKs), the congestion
+ * window and the RTT samples.
+ */
+public class TracePlot {
+    private static final Logger logger = LoggerFactory.getLogger(TracePlot.class);
+
+    public static void main(String[] args) {
+        String dump = null;
+        String prefix = null;
+        Integer connection = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-c":
+                    connection = Integer.parseInt(args[++i]);
+                    break;
+                case "-o":
+                    prefix = args[++i];
+                    break;
+                default:
+                    if (dump == null && !args[i].startsWith("-")) {
+                        dump = args[i];
+                        break;
+                    }
+                    System.err.println("Usage: java TracePlot <dump> [-c <connection_id>] [-o <output_prefix>]");
+                    System.exit(1);
+            }
+        }
+        if (dump == null) {
+            System.err.println("Usage: java TracePlot <dump> [-c <connection_id>] [-o <output_prefix>]");
+            System.exit(1);
+        }
+        if (prefix == null) {
+            prefix = dump.endsWith(".trace") ? dump.substring(0, dump.length() - ".trace".length()) : dump;
+        }
+
+        try {
+            List<TraceRecord> records = TraceReader.read(Path.of(dump));
+            logger.info("Read {} records from {}", records.size(), dump);
+            for (int id : connections(records)) {
+                if (connection != null && id != connection) continue;
+                logger.info("Connection {}: {}", id, summary(records, id));
+                for (Map.Entry<String, SvgChart> chart : plots(records, id).entrySet()) {
+                    if (chart.getValue().isEmpty()) continue;
+                    Path file = Path.of(prefix + "-" + id + "-" + chart.getKey() + ".svg");
+                    chart.getValue().write(file);
+                    logger.info("Wrote {}", file);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to plot {}", dump, e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * IDs of the sender connections in the trace.
+     */
+    static TreeSet<Integer> connections(List<TraceRecord> records) {
+        TreeSet<Integer> ids = new TreeSet<>();
+        for (TraceRecord record : records) {
+            if (record.event() == TraceEvent.TRANSMIT) {
+                ids.add(record.id());
+            }
+        }
+        return ids;
+    }
+
+    static Map<TraceEvent, Integer> summary(List<TraceRecord> records, int id) {
+        Map<TraceEvent, Integer> counts = new EnumMap<>(TraceEvent.class);
+        for (TraceRecord record : records) {
+            if (record.id() == id) {
+                counts.merge(record.event(), 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * The connection's charts by name: {@code seq}, {@code cwnd} and {@code rtt}. Time is
+     * in seconds since the connection's first record.
+     */
+    static Map<String, SvgChart> plots(List<TraceRecord> records, int id) {
+        List<TraceRecord> own = records.stream().filter(r -> r.id() == id && r.event() != TraceEvent.DROP).toList();
+        long start = own.isEmpty() ? 0 : own.get(0).timeNanos();
+
+        Map<String, SvgChart> charts = new TreeMap<>();
+        charts.put("seq", new SvgChart("Connection " + id + ": time-sequence", "time (s)", "segment")
+                .points("transmit", "black", times(own, TraceEvent.TRANSMIT, start),
+                        values(own, TraceEvent.TRANSMIT, true, 1))
+                .points("retransmit", "red", times(own, TraceEvent.RETRANSMIT, start),
+                        values(own, TraceEvent.RETRANSMIT, true, 1))
+                .steps("ack", "blue", times(own, TraceEvent.ACK, start), values(own, TraceEvent.ACK, true, 1)));
+        charts.put("cwnd", new SvgChart("Connection " + id + ": congestion window", "time (s)", "segments")
+                .steps("cwnd", "green", times(own, TraceEvent.CWND, start),
+                        values(own, TraceEvent.CWND, false, 1e-3))
+                .points("timeout", "red", times(own, TraceEvent.TIMEOUT, start),
+                        new double[count(own, TraceEvent.TIMEOUT)]));
+        charts.put("rtt", new SvgChart("Connection " + id + ": RTT samples", "time (s)", "RTT (ms)")
+                .points("rtt", "purple", times(own, TraceEvent.RTT, start), values(own, TraceEvent.RTT, false, 1e-6)));
+        return charts;
+    }
+
+    private static int count(List<TraceRecord> records, TraceEvent event) {
+        return (int) records.stream().filter(r -> r.event() == event).count();
+    }
+
+    private static double[] times(List<TraceRecord> records, TraceEvent event, long start) {
+        return records.stream().filter(r -> r.event() == event)
+                .mapToDouble(r -> (r.timeNanos() - start) / 1e9).toArray();
+    }
+
+    /**
+     * @param seq   plot the sequence number rather than the value
+     * @param scale factor applied to the plotted number
+     */
+    private static double[] values(List<TraceRecord> records, TraceEvent event, boolean seq, double scale) {
+        return records.stream().filter(r -> r.event() == event)
+                .mapToDouble(r -> (seq ? r.seq() : r.value()) * scale).toArray();
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a dump written by {@link FlightRecorder#dump}.
+ */
+public final class TraceReader {
+    private TraceReader() {
+    }
+
+    public static List<TraceRecord> read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        if (data.readInt() != FlightRecorder.MAGIC) {
+            throw new IOException("Not a trace dump");
+        }
+        short version = data.readShort();
+        if (version != FlightRecorder.VERSION) {
+            throw new IOException("Unsupported trace dump version " + version);
+        }
+        int count = data.readInt();
+        List<TraceRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long time = data.readLong();
+            TraceEvent event;
+            try {
+                event = TraceEvent.of(data.readUnsignedByte());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt trace dump at record " + i, e);
+            }
+            records.add(new TraceRecord(time, event, data.readInt(), data.readInt(), data.readLong()));
+        }
+        return records;
+    }
+
+    public static List<TraceRecord> read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.example.trace;
+
+/**
+ * One event read back from a {@link FlightRecorder} or a dump.
+ *
+ * @param timeNanos time on the recording component's clock, in nanoseconds
+ */
+public record TraceRecord(long timeNanos, TraceEvent event, int id, int seq, long value) {
+    @Override
+    public String toString() {
+        return String.format("%d %s id=%d seq=%d value=%d", timeNanos, event, id, seq, value);
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR mirror of a {@link FlightRecorder} record, emitted when JFR output is switched on
+ * and a recording has the event enabled.
+ */
+@Name("org.example.tplxp.Transport")
+@Label("Transport Event")
+@Category("TPLxP")
+@Description("Transmit, ACK, loss and congestion window events of the transport")
+@StackTrace(false)
+class TransportEvent extends Event {
+    @Label("Event")
+    String event;
+
+    @Label("ID")
+    @Description("Connection ID, or local port for drops")
+    int id;
+
+    @Label("Sequence")
+    int seq;
+
+    @Label("Value")
+    long value;
+}
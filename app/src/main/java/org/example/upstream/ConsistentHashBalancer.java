@@ -0,0 +1,62 @@
+package org.example.upstream;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps each client host to an upstream on a hash ring, so a client keeps landing on the
+ * same server and adding or removing one server only moves the clients nearest to it.
+ * Every upstream gets {@link #VIRTUAL_NODES} points on the ring to even out the split.
+ * The client's port is left out: it changes with every session.
+ */
+public class ConsistentHashBalancer implements LoadBalancer {
+    static final int VIRTUAL_NODES = 128;
+
+    private List<Upstream> ringFor;
+    private TreeMap<Integer, Upstream> ring;
+
+    @Override
+    public Upstream choose(List<Upstream> upstreams, InetSocketAddress client) {
+        TreeMap<Integer, Upstream> ring = ringFor(upstreams);
+        int hash = client == null ? 0 : hash(client.getAddress() != null
+                ? client.getAddress().getAddress()
+                : client.getHostString().getBytes(StandardCharsets.UTF_8));
+        Map.Entry<Integer, Upstream> entry = ring.ceilingEntry(hash);
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    private synchronized TreeMap<Integer, Upstream> ringFor(List<Upstream> upstreams) {
+        if (ringFor != upstreams) {
+            TreeMap<Integer, Upstream> points = new TreeMap<>();
+            for (Upstream upstream : upstreams) {
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    byte[] key = (upstream + "#" + i).getBytes(StandardCharsets.UTF_8);
+                    points.putIfAbsent(hash(key), upstream);
+                }
+            }
+            ring = points;
+            ringFor = upstreams;
+        }
+        return ring;
+    }
+
+    /**
+     * 32-bit FNV-1a with a final avalanche, so similar addresses spread over the ring.
+     */
+    static int hash(byte[] key) {
+        int h = 0x811c9dc5;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.upstream;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Sends each session to the upstream with the fewest unacknowledged bytes, so a slow or
+ * congested server gets new sessions only once it catches up. Ties go to the one with
+ * fewer active sessions, then to the first listed.
+ */
+public class LeastOutstandingBalancer implements LoadBalancer {
+    @Override
+    public Upstream choose(List<Upstream> upstreams, InetSocketAddress client) {
+        Upstream best = null;
+        long bestBytes = Long.MAX_VALUE;
+        int bestSessions = Integer.MAX_VALUE;
+        for (Upstream upstream : upstreams) {
+            long bytes = upstream.getOutstandingBytes();
+            int sessions = upstream.getActiveSessions();
+            if (bytes < bestBytes || (bytes == bestBytes && sessions < bestSessions)) {
+                best = upstream;
+                bestBytes = bytes;
+                bestSessions = sessions;
+            }
+        }
+        return best;
+    }
+}
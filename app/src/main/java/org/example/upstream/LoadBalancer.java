@@ -0,0 +1,31 @@
+package org.example.upstream;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Picks the upstream server for a new client session.
+ */
+public interface LoadBalancer {
+    /**
+     * @param upstreams the candidates, never empty, in the same order on every call
+     * @param client    address of the client opening the session; may be null
+     */
+    Upstream choose(List<Upstream> upstreams, InetSocketAddress client);
+
+    /**
+     * Creates a balancer by its command-line name.
+     */
+    static LoadBalancer forName(String name) {
+        switch (name) {
+            case "round-robin":
+                return new RoundRobinBalancer();
+            case "least-bytes":
+                return new LeastOutstandingBalancer();
+            case "hash":
+                return new ConsistentHashBalancer();
+            default:
+                throw new IllegalArgumentException("Unknown load balancer: " + name);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.example.upstream;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands sessions to each upstream in turn.
+ */
+public class RoundRobinBalancer implements LoadBalancer {
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public Upstream choose(List<Upstream> upstreams, InetSocketAddress client) {
+        return upstreams.get(Math.floorMod(next.getAndIncrement(), upstreams.size()));
+    }
+}
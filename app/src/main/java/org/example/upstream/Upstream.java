@@ -0,0 +1,193 @@
+package org.example.upstream;
+
+import org.example.metrics.MetricSource;
+import org.example.metrics.MetricWriter;
+import org.example.metrics.MetricsRegistry;
+import org.example.protocol.Sender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * One upstream server and a pool of warm transport connections to it.
+ *
+ * A session borrows a {@link Sender} with {@link #acquire()} and hands it back with
+ * {@link #release(Sender)} instead of shutting it down, so the next session reuses an
+ * established connection: no SYN round trip and a congestion window already opened by
+ * earlier traffic. Successive sessions share the upstream byte stream, one at a time:
+ * their bytes follow each other with no framing, so the server cannot tell where one
+ * session ended unless the application protocol marks it. Up to {@code maxIdle}
+ * connections are kept; the rest are shut down on release, which ends their stream with a
+ * FIN, so with {@code maxIdle} 0 every session has a stream of its own. A server's
+ * listener closes connections idle past its timeout, so one parked longer than that is
+ * reset on its next write and the session using it fails.
+ */
+public class Upstream {
+    private static final Logger logger = LoggerFactory.getLogger(Upstream.class);
+
+    private final InetSocketAddress address;
+    private final Supplier<Sender> connector;
+    private final int maxIdle;
+    private final ConcurrentLinkedDeque<Sender> idle = new ConcurrentLinkedDeque<>();
+    private final Set<Sender> open = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong connectionsReused = new AtomicLong();
+    private final MetricSource metrics = new Metrics();
+
+    /**
+     * @param connector opens a new connection to {@code address}
+     * @param maxIdle   warm connections to keep; this many are opened right away
+     */
+    public Upstream(InetSocketAddress address, Supplier<Sender> connector, int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle must not be negative: " + maxIdle);
+        }
+        this.address = address;
+        this.connector = connector;
+        this.maxIdle = maxIdle;
+        for (int i = 0; i < maxIdle; i++) {
+            Sender sender = connect();
+            idle.push(sender);
+            idleCount.incrementAndGet();
+        }
+        MetricsRegistry.getDefault().register(metrics);
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Takes the most recently used idle connection, or opens a new one if none is left.
+     * Idle connections that failed while waiting, reset by a restarted server, are
+     * discarded on the way.
+     */
+    public Sender acquire() {
+        activeSessions.incrementAndGet();
+        Sender sender;
+        while ((sender = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (sender.isFailed()) {
+                discard(sender);
+                continue;
+            }
+            connectionsReused.incrementAndGet();
+            logger.debug("Reusing upstream connection {} to {}", sender.getConnectionId(), address);
+            return sender;
+        }
+        return connect();
+    }
+
+    /**
+     * Returns a connection after its session ended. Everything the session wrote has been
+     * flushed; it stays in the pool if there is room and is shut down otherwise. A failed
+     * connection, whose writes would be dropped, is never pooled.
+     */
+    public void release(Sender sender) {
+        activeSessions.decrementAndGet();
+        if (sender.isFailed()) {
+            discard(sender);
+            return;
+        }
+        sender.flush();
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.push(sender);
+            return;
+        }
+        idleCount.decrementAndGet();
+        open.remove(sender);
+        sender.shutdown();
+    }
+
+    private void discard(Sender sender) {
+        logger.info("Discarding failed upstream connection {} to {}", sender.getConnectionId(), address);
+        open.remove(sender);
+        sender.shutdown();
+    }
+
+    private Sender connect() {
+        Sender sender = connector.get();
+        open.add(sender);
+        connectionsOpened.incrementAndGet();
+        logger.info("Opened upstream connection {} to {}", sender.getConnectionId(), address);
+        return sender;
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    public int getIdleConnections() {
+        return idleCount.get();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    /**
+     * Sessions that were given a warm connection instead of a new one.
+     */
+    public long getConnectionsReused() {
+        return connectionsReused.get();
+    }
+
+    /**
+     * Bytes written to this upstream's connections and not yet acknowledged.
+     */
+    public long getOutstandingBytes() {
+        long total = 0;
+        for (Sender sender : open) {
+            total += sender.getOutstandingBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Shuts down every idle connection.
+     */
+    public void shutdown() {
+        Sender sender;
+        while ((sender = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            open.remove(sender);
+            sender.shutdown();
+        }
+        MetricsRegistry.getDefault().unregister(metrics);
+    }
+
+    @Override
+    public String toString() {
+        return address.getHostString() + ":" + address.getPort();
+    }
+
+    private final class Metrics implements MetricSource {
+        @Override
+        public String metricType() {
+            return "upstream";
+        }
+
+        @Override
+        public String metricId() {
+            return Upstream.this.toString();
+        }
+
+        @Override
+        public void collect(MetricWriter writer) {
+            writer.counter("connections_opened", "Transport connections opened", getConnectionsOpened());
+            writer.counter("connections_reused", "Sessions served by a warm connection", getConnectionsReused());
+            writer.gauge("active_sessions", "Sessions currently forwarding", getActiveSessions());
+            writer.gauge("idle_connections", "Warm connections waiting in the pool", getIdleConnections());
+            writer.gauge("outstanding_bytes", "Bytes written and not yet acknowledged", getOutstandingBytes());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.example;
+
+import org.example.metrics.MetricsRegistry;
+import org.example.network.LowerLayerEndpoint;
+import org.example.protocol.ConnectionListener;
+import org.example.protocol.Receiver;
+import org.example.protocol.RenoController;
+import org.example.protocol.Sender;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ProxySessionTest {
+    private static final int LINES = 500;
+    private static final int RECV_BUFFER_SIZE = 8 * 1024;
+
+    private static String expected() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= LINES; i++) {
+            sb.append(String.format("Line%04d\n", i));
+        }
+        return sb.toString();
+    }
+
+    private static LowerLayerEndpoint listen() {
+        return new LowerLayerEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 0, 20_000, 0.005);
+    }
+
+    private static Sender connect(LowerLayerEndpoint server) {
+        LowerLayerEndpoint endpoint = new LowerLayerEndpoint(null,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), 0, 20_000, 0.005);
+        return new Sender(endpoint, new RenoController(true, true));
+    }
+
+    /**
+     * Binds a listener to the port, retrying while a shut down one's socket still holds it.
+     */
+    private static ConnectionListener listenShared(int port) throws InterruptedException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new ConnectionListener(new LowerLayerEndpoint(address, 0, 20_000, 0.005));
+            } catch (RuntimeException e) {
+                if (!(e.getCause() instanceof BindException) || attempt == 100) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static Receiver receiver(LowerLayerEndpoint endpoint) {
+        return new Receiver(endpoint, 1, TimeUnit.MILLISECONDS.toNanos(20), RECV_BUFFER_SIZE);
+    }
+
+    @Test public void forwardsInOrder() throws Exception {
+        LowerLayerEndpoint proxyEndpoint = listen();
+        LowerLayerEndpoint serverEndpoint = listen();
+        Receiver server = receiver(serverEndpoint);
+        ProxySession session = new ProxySession(receiver(proxyEndpoint), connect(serverEndpoint), 4);
+        Sender client = connect(proxyEndpoint);
+
+        for (int i = 1; i <= LINES; i++) {
+            client.write(ByteBuffer.wrap(String.format("Line%04d\n", i).getBytes(StandardCharsets.US_ASCII)));
+        }
+        client.flush();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (out.size() < expected().length()) {
+            out.write(server.recv());
+        }
+        assertEquals(expected(), out.toString(StandardCharsets.US_ASCII));
+        assertEquals(expected().length(), session.getBytesForwarded());
+        assertTrue(session.getMaxQueueDepth() <= 4);
+        client.shutdown();
+    }
+
+    @Test public void clientFinClosesSession() throws Exception {
+        LowerLayerEndpoint proxyEndpoint = listen();
+        LowerLayerEndpoint serverEndpoint = listen();
+        Receiver server = receiver(serverEndpoint);
+        Receiver clientSide = receiver(proxyEndpoint);
+        ProxySession session = new ProxySession(clientSide, connect(serverEndpoint), 4);
+        Sender client = connect(proxyEndpoint);
+
+        client.write(ByteBuffer.wrap(expected().getBytes(StandardCharsets.US_ASCII)));
+        client.shutdown();
+
+        // The client's FIN ends the session, whose sender's FIN in turn ends the server's stream
+        assertTrue(session.awaitTermination(30, TimeUnit.SECONDS));
+        assertTrue(session.isDone());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] data;
+        while ((data = server.recv()) != null) {
+            out.write(data);
+        }
+        assertEquals(expected(), out.toString(StandardCharsets.US_ASCII));
+        assertTrue(client.awaitTermination(10, TimeUnit.SECONDS));
+
+        // Both stage threads are gone and the session and its client side no longer report metrics
+        String id = Integer.toString(clientSide.getConnectionId());
+        for (MetricsRegistry.Entry entry : MetricsRegistry.getDefault().getEntries()) {
+            String type = entry.source().metricType();
+            assertFalse(type + " " + id + " still registered",
+                    (type.equals("proxy_session") || type.equals("receiver")) && id.equals(entry.source().metricId()));
+        }
+        server.shutdown();
+    }
+
+    @Test public void upstreamResetEndsSession() throws Exception {
+        LowerLayerEndpoint proxyEndpoint = listen();
+        ConnectionListener server = listenShared(0);
+        int port = server.getLocalPort();
+        Sender upstream = new Sender(new LowerLayerEndpoint(null,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0, 20_000, 0.005),
+                new RenoController(true, true));
+        Receiver serverSide = server.accept();
+        Receiver clientSide = receiver(proxyEndpoint);
+        ProxySession session = new ProxySession(clientSide, upstream, 4);
+        Sender client = connect(proxyEndpoint);
+
+        client.send("Line0001\n".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("Line0001\n", new String(serverSide.recv(), StandardCharsets.US_ASCII));
+
+        // The server restarts and forgets the connection, so the next data forwarded is reset
+        server.shutdown();
+        ConnectionListener restarted = listenShared(port);
+        try {
+            client.send(expected().getBytes(StandardCharsets.US_ASCII));
+            assertTrue(session.awaitTermination(30, TimeUnit.SECONDS));
+            assertTrue(upstream.isReset());
+            assertTrue(session.isUpstreamFailed());
+            // The client side is shut down instead of draining into a dead connection
+            assertNull(clientSide.recv());
+            assertEquals(0, restarted.getConnectionCount());
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    @Test public void stalledUpstreamClosesClientWindow() throws Exception {
+        LowerLayerEndpoint proxyEndpoint = listen();
+        LowerLayerEndpoint serverEndpoint = listen();
+        // Nobody reads the server side, so the upstream sender stalls once its window closes
+        receiver(serverEndpoint);
+        Receiver clientSide = receiver(proxyEndpoint);
+        ProxySession session = new ProxySession(clientSide, connect(serverEndpoint), 2);
+        Sender client = connect(proxyEndpoint);
+
+        // More than the upstream and client senders' buffers hold together, so the proxy has to
+        // stop reading while the client is still writing
+        byte[] data = new byte[20 * 1024 * 1024];
+        Thread writer = new Thread(() -> client.send(data));
+        writer.setDaemon(true);
+        writer.start();
+
+        // Wait for the proxy to stop forwarding, not just for the client side to fill for a moment
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        long forwarded = -1;
+        while (System.nanoTime() < deadline) {
+            long current = session.getBytesForwarded();
+            if (current == forwarded && clientSide.getBufferedBytes() >= RECV_BUFFER_SIZE - 1400) {
+                break;
+            }
+            forwarded = current;
+            Thread.sleep(200);
+        }
+        Thread.sleep(200);
+
+        assertTrue("client-side buffer filled", clientSide.getBufferedBytes() >= RECV_BUFFER_SIZE - 1400);
+        assertEquals("nothing forwarded while stalled", forwarded, session.getBytesForwarded());
+        assertTrue(forwarded < data.length);
+        assertTrue(writer.isAlive());
+    }
+}
@@ -0,0 +1,150 @@
+package org.example;
+
+import org.example.network.LowerLayerEndpoint;
+import org.example.protocol.ConnectionListener;
+import org.example.protocol.Receiver;
+import org.example.protocol.RenoController;
+import org.example.protocol.Sender;
+import org.example.upstream.RoundRobinBalancer;
+import org.example.upstream.Upstream;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ProxyTest {
+    private static final int CLIENTS = 3;
+
+    private static String payload(int client) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= 200; i++) {
+            sb.append(String.format("C%d Line%04d\n", client, i));
+        }
+        return sb.toString();
+    }
+
+    private static InetSocketAddress loopback(int port) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Binds a listener to the port a shut down one used, once the old socket has let go of it.
+     */
+    private static ConnectionListener rebind(int port) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new ConnectionListener(new LowerLayerEndpoint(loopback(port), 0, 20_000, 0.005));
+            } catch (RuntimeException e) {
+                if (!(e.getCause() instanceof BindException) || attempt == 100) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static Sender client(ConnectionListener listener, String payload) {
+        LowerLayerEndpoint endpoint = new LowerLayerEndpoint(null, loopback(listener.getLocalPort()), 0, 20_000, 0.005);
+        Sender client = new Sender(endpoint, new RenoController(true, true));
+        client.send(payload.getBytes(StandardCharsets.US_ASCII));
+        client.shutdown();
+        return client;
+    }
+
+    private static String read(Receiver receiver, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (out.size() < length) {
+            out.writeBytes(receiver.recv());
+        }
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    @Test public void finishedSessionsReuseUpstreamConnection() throws Exception {
+        LowerLayerEndpoint serverEndpoint = new LowerLayerEndpoint(loopback(0), null, 0, 20_000, 0.005);
+        Receiver server = new Receiver(serverEndpoint);
+        InetSocketAddress serverAddress = loopback(serverEndpoint.getLocalPort());
+        Upstream upstream = new Upstream(serverAddress, () -> new Sender(
+                new LowerLayerEndpoint(null, serverAddress, 0, 20_000, 0.005), new RenoController(true, true)), 1);
+        ConnectionListener listener = new ConnectionListener(new LowerLayerEndpoint(loopback(0), 0, 20_000, 0.005));
+        Proxy proxy = new Proxy(listener, List.of(upstream), new RoundRobinBalancer(), 4);
+
+        StringBuilder expected = new StringBuilder();
+        for (int c = 0; c < CLIENTS; c++) {
+            client(listener, payload(c));
+            expected.append(payload(c));
+
+            // The client's FIN ends the session, which hands the warm connection back to the pool
+            ProxySession session = proxy.accept();
+            assertTrue(session.awaitTermination(30, TimeUnit.SECONDS));
+            assertEquals(0, listener.getConnectionCount());
+            assertEquals(0, upstream.getActiveSessions());
+            assertEquals(1, upstream.getIdleConnections());
+        }
+        assertEquals(1, upstream.getConnectionsOpened());
+        assertEquals(CLIENTS, upstream.getConnectionsReused());
+
+        // The sessions share one upstream stream, back to back, which ends once the proxy closes it
+        proxy.shutdown();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] data;
+        while ((data = server.recv()) != null) {
+            out.write(data);
+        }
+        assertEquals(expected.toString(), out.toString(StandardCharsets.US_ASCII));
+        server.shutdown();
+    }
+
+    @Test public void failedUpstreamConnectionIsNotReused() throws Exception {
+        ConnectionListener server = new ConnectionListener(new LowerLayerEndpoint(loopback(0), 0, 20_000, 0.005));
+        int port = server.getLocalPort();
+        InetSocketAddress serverAddress = loopback(port);
+        List<Sender> opened = new CopyOnWriteArrayList<>();
+        Upstream upstream = new Upstream(serverAddress, () -> {
+            Sender sender = new Sender(new LowerLayerEndpoint(null, serverAddress, 0, 20_000, 0.005),
+                    new RenoController(true, true));
+            opened.add(sender);
+            return sender;
+        }, 1);
+        ConnectionListener listener = new ConnectionListener(new LowerLayerEndpoint(loopback(0), 0, 20_000, 0.005));
+        Proxy proxy = new Proxy(listener, List.of(upstream), new RoundRobinBalancer(), 4);
+        Receiver warm = server.accept();
+        ConnectionListener restarted = null;
+        try {
+            client(listener, payload(0));
+            assertTrue(proxy.accept().awaitTermination(30, TimeUnit.SECONDS));
+            assertEquals(payload(0), read(warm, payload(0).length()));
+
+            // The server restarts: the next session's data draws an RST that fails the pooled
+            // connection, possibly only after the session has handed it back
+            server.shutdown();
+            restarted = rebind(port);
+            client(listener, payload(1));
+            assertTrue(proxy.accept().awaitTermination(30, TimeUnit.SECONDS));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!opened.get(0).isFailed() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(opened.get(0).isReset());
+
+            // The next session skips it and opens a fresh connection to the restarted server
+            client(listener, payload(2));
+            assertTrue(proxy.accept().awaitTermination(30, TimeUnit.SECONDS));
+            assertEquals(payload(2), read(restarted.accept(), payload(2).length()));
+            assertEquals(2, upstream.getConnectionsOpened());
+            assertEquals(2, opened.size());
+        } finally {
+            proxy.shutdown();
+            if (restarted != null) {
+                restarted.shutdown();
+            }
+        }
+    }
+}
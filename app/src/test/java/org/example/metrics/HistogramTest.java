@@ -0,0 +1,81 @@
+package org.example.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+    @Test public void bucketsCoverEveryValueWithinAnEighth() {
+        int previous = -1;
+        for (long v = 0; v < 100_000; v++) {
+            int bucket = Histogram.bucketOf(v);
+            assertTrue("bucket order at " + v, bucket >= previous);
+            assertTrue("upper bound at " + v, Histogram.upperBound(bucket) >= v);
+            assertTrue("precision at " + v, Histogram.upperBound(bucket) - v <= Math.max(0, v / 8));
+            previous = bucket;
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.upperBound(Histogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test public void summaryStatistics() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500_000L, histogram.getSum());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500, histogram.getMean(), 0.001);
+        assertEquals(500_000, histogram.getPercentile(0.5), 500_000 / 8.0);
+        assertEquals(990_000, histogram.getPercentile(0.99), 990_000 / 8.0);
+        assertEquals(1_000_000, histogram.getPercentile(1.0));
+    }
+
+    @Test public void emptyHistogramReportsZero() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(0.99));
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test public void negativeValuesCountAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.countAtOrBelow(0));
+        assertEquals(0, histogram.getSum());
+    }
+
+    @Test public void cumulativeCountsAreExactAtPowersOfTwo() {
+        Histogram histogram = new Histogram();
+        for (long v : new long[]{1000, 1023, 1024, 2047, 2048, 5000}) {
+            histogram.record(v);
+        }
+        long[] cumulative = histogram.cumulativeCounts(new long[]{1023, 2047, 4095});
+        assertArrayEquals(new long[]{2, 4, 5, 6}, cumulative);
+        assertEquals(4, histogram.countAtOrBelow(2047));
+    }
+
+    @Test public void concurrentRecordingLosesNothing() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400_000, histogram.getCount());
+        assertEquals(400_000, histogram.countAtOrBelow(Long.MAX_VALUE));
+        assertEquals(4L * 99_999 * 100_000 / 2, histogram.getSum());
+        assertEquals(99_999, histogram.getMax());
+    }
+}
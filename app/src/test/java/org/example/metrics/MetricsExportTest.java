@@ -0,0 +1,133 @@
+package org.example.metrics;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class MetricsExportTest {
+    private static final class TestSource implements MetricSource {
+        private final String id;
+        final Histogram rtt = new Histogram();
+        long packets;
+
+        TestSource(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String metricType() {
+            return "test";
+        }
+
+        @Override
+        public String metricId() {
+            return id;
+        }
+
+        @Override
+        public void collect(MetricWriter writer) {
+            writer.counter("packets_sent", "Packets sent", packets);
+            writer.gauge("cwnd", "Congestion window", 10.5);
+            writer.histogram("rtt_seconds", "Round-trip time", rtt);
+        }
+    }
+
+    @Test public void prometheusGroupsSourcesIntoFamilies() {
+        MetricsRegistry registry = new MetricsRegistry();
+        TestSource a = new TestSource("1");
+        TestSource b = new TestSource(null);
+        a.packets = 7;
+        a.rtt.record(1500);
+        a.rtt.record(3_000_000);
+        registry.register(a);
+        registry.register(b);
+
+        String text = PrometheusFormat.format(registry);
+        assertEquals(1, count(text, "# TYPE tplxp_test_packets_sent_total counter\n"));
+        assertEquals(1, count(text, "# TYPE tplxp_test_rtt_seconds histogram\n"));
+        assertTrue(text.contains("tplxp_test_packets_sent_total{id=\"1\"} 7\n"));
+        assertTrue(text.contains("tplxp_test_packets_sent_total{id=\"#2\"} 0\n"));
+        assertTrue(text.contains("tplxp_test_cwnd{id=\"1\"} 10.5\n"));
+        assertTrue(text.contains("tplxp_test_rtt_seconds_bucket{id=\"1\",le=\"2.048E-6\"} 1\n"));
+        assertTrue(text.contains("tplxp_test_rtt_seconds_bucket{id=\"1\",le=\"0.004194304\"} 2\n"));
+        assertTrue(text.contains("tplxp_test_rtt_seconds_bucket{id=\"1\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("tplxp_test_rtt_seconds_count{id=\"1\"} 2\n"));
+        assertTrue(text.contains("tplxp_test_rtt_seconds_sum{id=\"1\"} 0.0030015\n"));
+
+        registry.unregister(a);
+        registry.unregister(b);
+        assertEquals("", PrometheusFormat.format(registry));
+    }
+
+    @Test public void httpEndpointServesTheRegistry() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        TestSource source = new TestSource("42");
+        source.packets = 3;
+        registry.register(source);
+        MetricsHttpServer server = new MetricsHttpServer(registry, 0);
+        try {
+            HttpURLConnection connection = (HttpURLConnection)
+                    URI.create("http://127.0.0.1:" + server.getPort() + "/metrics").toURL().openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(PrometheusFormat.CONTENT_TYPE, connection.getContentType());
+            String body;
+            try (InputStream in = connection.getInputStream()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertTrue(body.contains("tplxp_test_packets_sent_total{id=\"42\"} 3\n"));
+
+            HttpURLConnection post = (HttpURLConnection)
+                    URI.create("http://127.0.0.1:" + server.getPort() + "/metrics").toURL().openConnection();
+            post.setRequestMethod("POST");
+            assertEquals(405, post.getResponseCode());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test public void jmxFollowsTheRegistry() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        TestSource before = new TestSource("1");
+        before.packets = 5;
+        registry.register(before);
+        JmxExporter exporter = new JmxExporter(registry, server);
+
+        TestSource after = new TestSource("2");
+        after.rtt.record(1000);
+        registry.register(after);
+
+        ObjectName first = new ObjectName(JmxExporter.DOMAIN + ":type=test,instance=1");
+        ObjectName second = new ObjectName(JmxExporter.DOMAIN + ":type=test,instance=2");
+        assertEquals("1", server.getAttribute(first, "Id"));
+        assertEquals(5L, server.getAttribute(first, "PacketsSent"));
+        assertEquals(10.5, server.getAttribute(first, "Cwnd"));
+        assertEquals(1L, server.getAttribute(second, "RttCount"));
+        assertEquals(1000L, server.getAttribute(second, "RttMaxNanos"));
+
+        before.packets = 6;
+        assertEquals(6L, server.getAttribute(first, "PacketsSent"));
+
+        registry.unregister(before);
+        assertFalse(server.isRegistered(first));
+        exporter.shutdown();
+        assertFalse(server.isRegistered(second));
+    }
+
+    private static int count(String text, String needle) {
+        int n = 0;
+        for (int i = text.indexOf(needle); i >= 0; i = text.indexOf(needle, i + 1)) {
+            n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.network;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DelayLineTest {
+    private static final double DELAY = 0.05;
+    private static final long DELAY_NANOS = (long) (DELAY * 1_000_000_000L);
+
+    @Test public void releasesPacketsInOrderAfterDelay() throws InterruptedException {
+        int count = 100;
+        long[] offeredAt = new long[count];
+        long[] releasedAt = new long[count];
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(count);
+        DelayLine<Integer> line = new DelayLine<>(DELAY, 1024, i -> {
+            assertEquals(next.getAndIncrement(), i.intValue());
+            releasedAt[i] = System.nanoTime();
+            done.countDown();
+        });
+
+        for (int i = 0; i < count; i++) {
+            offeredAt[i] = System.nanoTime();
+            assertTrue(line.offer(i));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            assertTrue("packet " + i + " released early", releasedAt[i] - offeredAt[i] >= DELAY_NANOS);
+        }
+        line.shutdown();
+    }
+
+    @Test public void dropsWhenLineIsFull() {
+        DelayLine<Integer> line = new DelayLine<>(10.0, 4, i -> { });
+        for (int i = 0; i < 4; i++) {
+            assertTrue(line.offer(i));
+        }
+        assertFalse(line.offer(4));
+        assertEquals(1, line.getDropped());
+        assertEquals(4, line.size());
+        line.shutdown();
+    }
+
+    @Test public void delaysOneHundredThousandPacketsPerSecondWithoutThreadGrowth() throws InterruptedException {
+        int rate = 100_000;
+        int count = rate;
+        long[] offeredAt = new long[count];
+        long[] releasedAt = new long[count];
+        CountDownLatch done = new CountDownLatch(count);
+        DelayLine<Integer> line = new DelayLine<>(DELAY, count, i -> {
+            releasedAt[i] = System.nanoTime();
+            done.countDown();
+        });
+        int threadsBefore = Thread.activeCount();
+        int maxThreads = threadsBefore;
+
+        // Offer in 1 ms batches so the line sees a sustained 100k packets/s for one second.
+        long start = System.nanoTime();
+        int batch = rate / 1000;
+        for (int i = 0; i < count; i++) {
+            if (i % batch == 0) {
+                long due = start + (i / batch) * 1_000_000L;
+                while (System.nanoTime() < due) {
+                    Thread.onSpinWait();
+                }
+                maxThreads = Math.max(maxThreads, Thread.activeCount());
+            }
+            offeredAt[i] = System.nanoTime();
+            assertTrue(line.offer(i));
+        }
+
+        assertTrue("not all packets released", done.await(10, TimeUnit.SECONDS));
+        assertTrue("thread count grew from " + threadsBefore + " to " + maxThreads,
+                maxThreads <= threadsBefore + 1);
+        for (int i = 0; i < count; i++) {
+            assertTrue("packet " + i + " released early", releasedAt[i] - offeredAt[i] >= DELAY_NANOS);
+        }
+        assertEquals(0, line.getDropped());
+        line.shutdown();
+    }
+}
@@ -0,0 +1,77 @@
+package org.example.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LinkShaperTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    /**
+     * Sends {@code size}-byte datagrams whenever allowed for one simulated second, jumping
+     * straight to each wakeup, and returns the bytes sent.
+     */
+    private static long sendForOneSecond(LinkShaper shaper, int size) {
+        long now = 0;
+        long sent = 0;
+        while (now < SECOND) {
+            long wait = shaper.delayUntilNext(size, now);
+            if (wait > 0) {
+                now += wait;
+                continue;
+            }
+            shaper.consume(size);
+            sent += size;
+        }
+        return sent;
+    }
+
+    @Test public void holdsRateAcrossOrdersOfMagnitude() {
+        // 8 kbit/s to 80 Gbit/s
+        for (double rate = 1e3; rate <= 1e10; rate *= 10) {
+            long sent = sendForOneSecond(new LinkShaper(rate, 1500), 1500);
+            assertEquals("rate " + rate, rate, sent, rate * 0.01 + 3000);
+        }
+    }
+
+    @Test public void serializationDelayIsProportionalToSize() {
+        LinkShaper shaper = new LinkShaper(1e6, 4096);
+        shaper.delayUntilNext(4096, 0);
+        shaper.consume(4096);
+        assertEquals(100_000, shaper.delayUntilNext(100, 0));
+        assertEquals(1_000_000, shaper.delayUntilNext(1000, 0));
+    }
+
+    @Test public void smallPacketsGoFasterThanLargeOnes() {
+        long small = sendForOneSecond(new LinkShaper(1e6, 1500), 100) / 100;
+        long large = sendForOneSecond(new LinkShaper(1e6, 1500), 1000) / 1000;
+        assertEquals(10 * large, small, small * 0.01);
+    }
+
+    @Test public void burstAfterIdleIsBounded() {
+        LinkShaper shaper = new LinkShaper(1e6, 1500);
+        shaper.delayUntilNext(1000, 0);
+        int burst = 0;
+        // A long idle period earns at most five milliseconds of traffic
+        while (shaper.delayUntilNext(1000, 10 * SECOND) == 0) {
+            shaper.consume(1000);
+            burst++;
+        }
+        assertEquals(5, burst);
+    }
+
+    @Test public void unlimitedNeverWaits() {
+        LinkShaper shaper = new LinkShaper(0, 1500);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, shaper.delayUntilNext(1500, 0));
+            shaper.consume(1500);
+        }
+    }
+
+    @Test public void parsesRates() {
+        assertEquals(1500, LinkShaper.parseRate("1500"), 0);
+        assertEquals(250_000, LinkShaper.parseRate("250kB"), 0);
+        assertEquals(12_500_000, LinkShaper.parseRate("100Mbps"), 0);
+        assertEquals(1.25e9, LinkShaper.parseRate("10Gbps"), 0);
+    }
+}
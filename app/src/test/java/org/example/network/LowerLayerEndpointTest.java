@@ -0,0 +1,97 @@
+package org.example.network;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class LowerLayerEndpointTest {
+    @Test public void pooledBuffersAreReusedOnLoopback() throws Exception {
+        LowerLayerEndpoint server = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 0, 1000, 0.0);
+        InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                server.getLocalPort());
+        LowerLayerEndpoint client = new LowerLayerEndpoint(null, serverAddress, 0, 1000, 0.0);
+
+        int count = 2000;
+        long allocatedBefore = 0;
+        for (int i = 0; i < count; i++) {
+            client.send(("packet" + i).getBytes(StandardCharsets.US_ASCII));
+            PooledBuffer lease = server.recvBuffer();
+            assertNotNull(lease);
+            byte[] data = new byte[lease.buffer().remaining()];
+            lease.buffer().get(data);
+            lease.release();
+            assertEquals("packet" + i, new String(data, StandardCharsets.US_ASCII));
+            if (i == 100) {
+                allocatedBefore = client.getBufferPool().getAllocated() + server.getBufferPool().getAllocated();
+            }
+        }
+        long allocatedAfter = client.getBufferPool().getAllocated() + server.getBufferPool().getAllocated();
+        assertEquals("buffers allocated after warm-up", allocatedBefore, allocatedAfter);
+
+        client.shutdown();
+        server.shutdown();
+    }
+
+    /**
+     * Streams datagrams through a link shaped to {@code bytesPerSecond} for about a second
+     * and returns the rate the receiver saw. The clock starts with the first send, so a late
+     * receiver only makes the link look slower; the first datagram, which the shaper lets
+     * straight through, is not counted.
+     */
+    private static double measureRate(double bytesPerSecond, int size) {
+        return measureRate(bytesPerSecond, size,
+                serverAddress -> LowerLayerEndpoint.withByteRate(null, serverAddress, 0, bytesPerSecond, 0.0));
+    }
+
+    private static double measureRate(double bytesPerSecond, int size,
+                                      Function<InetSocketAddress, LowerLayerEndpoint> connect) {
+        // Shared, so the first datagram does not connect the socket and drop what is queued behind it
+        LowerLayerEndpoint server = LowerLayerEndpoint.sharedWithByteRate(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0, 0, 0.0);
+        InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                server.getLocalPort());
+        LowerLayerEndpoint client = connect.apply(serverAddress);
+
+        int count = 1 + (int) (bytesPerSecond / size);
+        byte[] data = new byte[size];
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            client.send(data);
+        }
+        for (int i = 0; i < count; i++) {
+            PooledBuffer lease = server.recvBuffer();
+            assertNotNull(lease);
+            assertEquals(size, lease.buffer().remaining());
+            lease.release();
+        }
+        long elapsed = System.nanoTime() - start;
+        client.shutdown();
+        server.shutdown();
+        return (double) (count - 1) * size * 1e9 / elapsed;
+    }
+
+    @Test public void measuredThroughputMatchesConfiguredRate() {
+        // 800 kbit/s to 80 Mbit/s over real sockets; LinkShaperTest covers the rest on synthetic time
+        double[] rates = {1e5, 1e6, 1e7};
+        int[] sizes = {1000, 1000, 4000};
+        for (int i = 0; i < rates.length; i++) {
+            double measured = measureRate(rates[i], sizes[i]);
+            assertEquals("rate " + rates[i], rates[i], measured, rates[i] * 0.05);
+        }
+    }
+
+    @Test public void packetRateConstructorLimitsThroughput() {
+        // The -b option: full-size packets per second, which the forward thread must still hold back
+        int packetsPerSecond = 200;
+        double expected = (double) packetsPerSecond * LowerLayerEndpoint.NOMINAL_PACKET_SIZE;
+        double measured = measureRate(expected, LowerLayerEndpoint.NOMINAL_PACKET_SIZE,
+                serverAddress -> new LowerLayerEndpoint(null, serverAddress, 0, packetsPerSecond, 0.0));
+        assertEquals("rate for -b " + packetsPerSecond, expected, measured, expected * 0.05);
+    }
+}
@@ -0,0 +1,188 @@
+package org.example.network;
+
+import org.example.protocol.Packet;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QueueDisciplineTest {
+    private static final long MS = 1_000_000;
+
+    private final BufferPool pool = new BufferPool(2048, 0, 1024);
+    private long now = 0;
+
+    private PooledBuffer datagram(Packet.Type type, int size) {
+        PooledBuffer lease = pool.acquire();
+        lease.buffer().limit(size);
+        lease.buffer().put(0, type.getValue());
+        return lease;
+    }
+
+    private PooledBuffer datagram(int size) {
+        return datagram(Packet.Type.DATA, size);
+    }
+
+    private PooledBuffer ack() {
+        return datagram(Packet.Type.ACK, 30);
+    }
+
+    /**
+     * Queues {@code count} full-size datagrams at once, then forwards one per millisecond
+     * until the queue is empty.
+     */
+    private void drainStandingQueue(QueueDiscipline queue, int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            assertTrue(queue.offer(datagram(1409)));
+        }
+        while (queue.size() > 0) {
+            now += MS;
+            queue.take().release();
+        }
+    }
+
+    /**
+     * Feeds a link that forwards one datagram per millisecond from a source that speeds up
+     * a little every millisecond and backs off by 30% whenever the queue drops, like a
+     * CUBIC sender with a negligible round trip.
+     */
+    private void runAimd(QueueDiscipline queue, int millis) throws InterruptedException {
+        double rate = 1;
+        double credit = 0;
+        long drops = 0;
+        for (int t = 0; t < millis; t++) {
+            now += MS;
+            credit += rate;
+            for (; credit >= 1; credit--) {
+                PooledBuffer lease = datagram(1409);
+                if (!queue.offer(lease)) {
+                    lease.release();
+                }
+            }
+            if (queue.size() > 0) {
+                queue.take().release();
+            }
+            QueueStats stats = queue.getStats();
+            long dropsNow = stats.tailDrops() + stats.aqmDrops();
+            rate = dropsNow > drops ? rate * 0.7 : rate + 0.001;
+            drops = dropsNow;
+        }
+    }
+
+    @Test public void controlDatagramsOvertakeQueuedData() throws Exception {
+        QueueDiscipline queue = new TailDropQueue(0, true, () -> now);
+        for (int i = 0; i < 10; i++) {
+            queue.offer(datagram(1409));
+        }
+        queue.offer(ack());
+
+        assertEquals(30, queue.take().buffer().remaining());
+        assertEquals(1409, queue.take().buffer().remaining());
+        assertEquals(1, queue.getStats().controlForwarded());
+    }
+
+    @Test public void shortDataAndFinWaitBehindQueuedData() throws Exception {
+        QueueDiscipline queue = new TailDropQueue(0, true, () -> now);
+        queue.offer(datagram(1409));
+        // A one-byte write is shorter than an ACK, and the FIN follows the data it ends
+        queue.offer(datagram(26));
+        queue.offer(datagram(Packet.Type.FIN, 25));
+
+        assertEquals(1409, queue.take().buffer().remaining());
+        assertEquals(26, queue.take().buffer().remaining());
+        assertEquals(25, queue.take().buffer().remaining());
+        assertEquals(0, queue.getStats().controlForwarded());
+    }
+
+    @Test public void withoutPriorityControlWaitsItsTurn() throws Exception {
+        QueueDiscipline queue = new TailDropQueue(0, false, () -> now);
+        queue.offer(datagram(1409));
+        queue.offer(ack());
+
+        assertEquals(1409, queue.take().buffer().remaining());
+        assertEquals(30, queue.take().buffer().remaining());
+    }
+
+    @Test public void fullDataBandStillAdmitsControl() {
+        QueueDiscipline queue = new TailDropQueue(4, true, () -> now);
+        for (int i = 0; i < 6; i++) {
+            queue.offer(datagram(1409));
+        }
+        assertTrue(queue.offer(ack()));
+
+        QueueStats stats = queue.getStats();
+        assertEquals(5, stats.enqueued());
+        assertEquals(2, stats.tailDrops());
+    }
+
+    @Test public void codelKeepsStandingQueueShortAtFullThroughput() throws Exception {
+        QueueDiscipline fifo = new TailDropQueue(300, false, () -> now);
+        runAimd(fifo, 10_000);
+        now = 0;
+        QueueDiscipline codel = new CoDelQueue(300, false, CoDelQueue.DEFAULT_TARGET_NANOS,
+                CoDelQueue.DEFAULT_INTERVAL_NANOS, () -> now);
+        runAimd(codel, 10_000);
+
+        QueueStats fifoStats = fifo.getStats();
+        QueueStats codelStats = codel.getStats();
+        assertTrue(codelStats.toString(), codelStats.aqmDrops() > 0);
+        assertEquals(0, codelStats.tailDrops());
+        assertTrue(fifoStats + " vs " + codelStats, codelStats.meanDelayNanos() * 4 < fifoStats.meanDelayNanos());
+        assertTrue(codelStats.toString(), codelStats.forwarded() > 9_000);
+    }
+
+    @Test public void codelAbsorbsShortBurst() throws Exception {
+        QueueDiscipline queue = new CoDelQueue(0, false, CoDelQueue.DEFAULT_TARGET_NANOS,
+                CoDelQueue.DEFAULT_INTERVAL_NANOS, () -> now);
+        // Drains within one interval, so it is a burst and not a standing queue
+        drainStandingQueue(queue, 80);
+        assertEquals(0, queue.getStats().aqmDrops());
+    }
+
+    @Test public void codelNeverDropsControl() throws Exception {
+        QueueDiscipline queue = new CoDelQueue(0, true, CoDelQueue.DEFAULT_TARGET_NANOS,
+                CoDelQueue.DEFAULT_INTERVAL_NANOS, () -> now);
+        for (int i = 0; i < 300; i++) {
+            queue.offer(ack());
+        }
+        while (queue.size() > 0) {
+            now += MS;
+            queue.take().release();
+        }
+        assertEquals(300, queue.getStats().controlForwarded());
+        assertEquals(0, queue.getStats().aqmDrops());
+    }
+
+    @Test public void redDropsBeforeQueueIsFull() {
+        QueueDiscipline queue = new RedQueue(100, false, 25, 75, 0.1, 0.2, new Random(1), () -> now);
+        for (int i = 0; i < 200; i++) {
+            queue.offer(datagram(1409));
+        }
+
+        QueueStats stats = queue.getStats();
+        assertTrue(stats.toString(), stats.aqmDrops() > 0);
+        assertEquals(0, stats.tailDrops());
+        assertTrue(queue.size() < 100);
+    }
+
+    @Test public void redLeavesShortQueueAlone() {
+        QueueDiscipline queue = new RedQueue(100, false, 25, 75, 0.1, 0.2, new Random(1), () -> now);
+        for (int i = 0; i < 25; i++) {
+            queue.offer(datagram(1409));
+        }
+        assertEquals(0, queue.getStats().aqmDrops());
+        assertEquals(25, queue.size());
+    }
+
+    @Test public void forNameBuildsEachDiscipline() {
+        assertEquals("fifo", QueueDiscipline.forName("fifo", 10, false).getStats().discipline());
+        assertEquals("red", QueueDiscipline.forName("red", 10, true).getStats().discipline());
+        assertEquals("codel", QueueDiscipline.forName("codel", 0, true).getStats().discipline());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownNameIsRejected() {
+        QueueDiscipline.forName("sfq", 10, false);
+    }
+}
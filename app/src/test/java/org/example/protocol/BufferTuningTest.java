@@ -0,0 +1,150 @@
+package org.example.protocol;
+
+import org.example.sim.LinkModel;
+import org.example.sim.SimulatedEndpoint;
+import org.example.sim.SimulatedNetwork;
+import org.example.sim.VirtualClock;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+public class BufferTuningTest {
+    // 70 MB/s of full segments and a 100 ms round trip: a 7 MB bandwidth-delay product
+    private static final LinkModel LONG_FAT = LinkModel.of(50_000, 0.05);
+    private static final long BYTES = 40_000_000;
+
+    private final SimulatedNetwork network = new SimulatedNetwork(1);
+    private final VirtualClock clock = network.getClock();
+
+    private Sender sender;
+    private Receiver receiver;
+    private boolean toFile;
+
+    private void connect(int recvBufferSize) {
+        connect(recvBufferSize, null);
+    }
+
+    private void connect(int recvBufferSize, FileChannel output) {
+        SimulatedEndpoint client = network.newEndpoint("client");
+        SimulatedEndpoint server = network.newEndpoint("server");
+        network.connect(client, server, LONG_FAT, LONG_FAT);
+        toFile = output != null;
+        receiver = toFile ? new Receiver(server, 1, 20_000_000L, recvBufferSize, output, clock)
+                : new Receiver(server, 1, 20_000_000L, recvBufferSize, clock);
+        // CUBIC rather than Reno, whose initial ssthresh would end slow start at 64 segments
+        sender = new Sender(client, new CubicController(), false, clock);
+    }
+
+    /**
+     * Moves {@code bytes} through the connection, writing only while the send buffer has
+     * room so the simulation thread never blocks.
+     *
+     * @return simulated nanoseconds taken
+     */
+    private long transfer(long bytes) {
+        byte[] chunk = new byte[16 * 1024];
+        long start = clock.nanoTime();
+        long written = 0;
+        long read = 0;
+        long delivered = receiver.getBytesDelivered();
+        while (read < bytes) {
+            while (written < bytes && sender.getOutstandingBytes() + chunk.length + 2 * Packet.MAX_DATA_SIZE
+                    <= sender.getSendBufferSize()) {
+                int n = (int) Math.min(chunk.length, bytes - written);
+                sender.write(ByteBuffer.wrap(chunk, 0, n));
+                written += n;
+                if (written == bytes) {
+                    sender.flush();
+                }
+            }
+            if (toFile) {
+                read = receiver.getBytesDelivered() - delivered;
+            }
+            while (receiver.getBufferedBytes() > 0) {
+                read += receiver.read(chunk, 0, chunk.length);
+            }
+            if (read < bytes) {
+                assertTrue("stalled after " + read + " bytes", clock.runNext());
+            }
+        }
+        return clock.nanoTime() - start;
+    }
+
+    private void shutdown() {
+        sender.shutdown();
+        receiver.shutdown();
+    }
+
+    @Test public void buffersGrowWithTheBandwidthDelayProductAndShrinkWhenIdle() {
+        connect(Receiver.DEFAULT_RECV_BUFFER_SIZE);
+        try {
+            assertEquals(Receiver.INITIAL_RECV_BUFFER_SIZE, receiver.getReceiveBufferSize());
+            assertEquals(Sender.INITIAL_SEND_BUFFER_SIZE, sender.getSendBufferSize());
+
+            long elapsed = transfer(BYTES);
+            // The initial 128 KB window alone would need half a minute
+            assertTrue("took " + elapsed / 1_000_000 + " ms", elapsed < 5_000_000_000L);
+            assertTrue("receive buffer " + receiver.getReceiveBufferSize(),
+                    receiver.getReceiveBufferSize() > 4_000_000);
+            assertTrue("send buffer " + sender.getSendBufferSize(), sender.getSendBufferSize() > 4_000_000);
+
+            clock.runUntil(clock.nanoTime() + 3_000_000_000L);
+            assertEquals(Receiver.INITIAL_RECV_BUFFER_SIZE, receiver.getReceiveBufferSize());
+            // The connection still works at the smaller window
+            transfer(1_000_000);
+        } finally {
+            shutdown();
+        }
+    }
+
+    @Test public void fileWindowGrowsFromItsInitialSize() throws Exception {
+        Path path = Files.createTempFile("tplxp-recv", ".bin");
+        connect(Receiver.DEFAULT_RECV_BUFFER_SIZE, FileChannel.open(path, StandardOpenOption.WRITE));
+        try {
+            // The slots start small instead of covering the whole 64 MiB at once
+            assertEquals(Receiver.INITIAL_RECV_BUFFER_SIZE, receiver.getReceiveBufferSize());
+
+            long elapsed = transfer(BYTES);
+            assertTrue("took " + elapsed / 1_000_000 + " ms", elapsed < 5_000_000_000L);
+            assertTrue("receive buffer " + receiver.getReceiveBufferSize(),
+                    receiver.getReceiveBufferSize() > 4_000_000);
+
+            clock.runUntil(clock.nanoTime() + 3_000_000_000L);
+            assertEquals(Receiver.INITIAL_RECV_BUFFER_SIZE, receiver.getReceiveBufferSize());
+            transfer(1_000_000);
+            assertEquals(BYTES + 1_000_000, Files.size(path));
+        } finally {
+            shutdown();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test public void receiveBufferStaysWithinItsCap() {
+        int cap = 1 << 20;
+        connect(cap);
+        try {
+            transfer(10_000_000);
+            assertEquals(cap, receiver.getReceiveBufferSize());
+        } finally {
+            shutdown();
+        }
+    }
+
+    @Test public void sendBufferStaysWithinItsCap() {
+        connect(Receiver.DEFAULT_RECV_BUFFER_SIZE);
+        int cap = 200 * Packet.MAX_DATA_SIZE;
+        sender.setMaxSendBuffer(cap);
+        try {
+            transfer(10_000_000);
+            assertEquals(cap, sender.getSendBufferSize());
+        } finally {
+            shutdown();
+        }
+    }
+}
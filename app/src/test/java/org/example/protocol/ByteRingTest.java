@@ -0,0 +1,45 @@
+package org.example.protocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ByteRingTest {
+    @Test public void wrapsAroundWithoutLosingOrder() {
+        ByteRing ring = new ByteRing(8);
+        byte[] out = new byte[8];
+
+        ring.put(new byte[] {1, 2, 3, 4, 5, 6});
+        assertEquals(4, ring.get(out, 0, 4));
+        ring.put(new byte[] {7, 8, 9, 10, 11});
+        assertEquals(1, ring.free());
+
+        assertEquals(7, ring.get(out, 0, 8));
+        assertArrayEquals(new byte[] {5, 6, 7, 8, 9, 10, 11}, java.util.Arrays.copyOf(out, 7));
+        assertEquals(0, ring.size());
+    }
+
+    @Test public void resizeKeepsContentsInOrder() {
+        ByteRing ring = new ByteRing(4);
+        byte[] out = new byte[6];
+        ring.put(new byte[] {1, 2, 3});
+        ring.get(out, 0, 2);
+        ring.put(new byte[] {4, 5});
+
+        ring.resize(8);
+        assertEquals(8, ring.capacity());
+        ring.put(new byte[] {6, 7, 8});
+        assertEquals(6, ring.get(out, 0, 6));
+        assertArrayEquals(new byte[] {3, 4, 5, 6, 7, 8}, out);
+
+        ring.resize(2);
+        assertEquals(2, ring.free());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsPutBeyondCapacity() {
+        ByteRing ring = new ByteRing(4);
+        ring.put(new byte[] {1, 2, 3});
+        ring.put(new byte[] {4, 5});
+    }
+}
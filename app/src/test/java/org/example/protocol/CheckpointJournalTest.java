@@ -0,0 +1,107 @@
+package org.example.protocol;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+public class CheckpointJournalTest {
+    private static Path newJournal() throws Exception {
+        Path path = Files.createTempFile("tplxp", ".journal");
+        Files.delete(path);
+        return path;
+    }
+
+    @Test public void newJournalStartsAtZero() throws Exception {
+        Path path = newJournal();
+        try (CheckpointJournal journal = CheckpointJournal.open(path)) {
+            assertEquals(0, journal.getOffset());
+            assertEquals(0, journal.getRanges().length);
+            assertTrue(Files.exists(path));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test public void recoversLatestCheckpoint() throws Exception {
+        Path path = newJournal();
+        try {
+            try (CheckpointJournal journal = CheckpointJournal.open(path)) {
+                journal.append(1_000, new long[0], 0);
+                journal.append(5_000_000_000L, new long[] {5_000_001_000L, 5_000_002_000L, 6_000_000_000L,
+                        6_000_000_100L}, 2);
+            }
+            try (CheckpointJournal journal = CheckpointJournal.open(path)) {
+                assertEquals(5_000_000_000L, journal.getOffset());
+                assertArrayEquals(new long[] {5_000_001_000L, 5_000_002_000L, 6_000_000_000L, 6_000_000_100L},
+                        journal.getRanges());
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test public void ignoresTornAndCorruptTail() throws Exception {
+        Path path = newJournal();
+        try {
+            try (CheckpointJournal journal = CheckpointJournal.open(path)) {
+                journal.append(1_000, new long[] {2_000, 3_000}, 1);
+                journal.append(4_000, new long[0], 0);
+            }
+            long size = Files.size(path);
+            // A record cut short by a crash, then one whose checksum fails
+            Files.write(path, new byte[] {0, 0, 0, 9, 0, 0}, StandardOpenOption.APPEND);
+            try (CheckpointJournal journal = CheckpointJournal.open(path)) {
+                assertEquals(4_000, journal.getOffset());
+            }
+            byte[] bytes = Files.readAllBytes(path);
+            bytes[(int) size - 6]++;
+            Files.write(path, bytes);
+            try (CheckpointJournal journal = CheckpointJournal.open(path)) {
+                assertEquals(1_000, journal.getOffset());
+                assertArrayEquals(new long[] {2_000, 3_000}, journal.getRanges());
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test public void keepsHighestOffset() throws Exception {
+        Path path = newJournal();
+        try {
+            try (CheckpointJournal journal = CheckpointJournal.open(path)) {
+                journal.append(9_000, new long[0], 0);
+                // A connection left over from before a restart checkpoints behind the new one
+                journal.append(3_000, new long[0], 0);
+            }
+            try (CheckpointJournal journal = CheckpointJournal.open(path)) {
+                assertEquals(9_000, journal.getOffset());
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test public void compactsOnceLarge() throws Exception {
+        Path path = newJournal();
+        try {
+            try (CheckpointJournal journal = CheckpointJournal.open(path)) {
+                long[] ranges = new long[2 * Packet.MAX_SACK_BLOCKS];
+                for (long offset = 1; offset <= 1_000; offset++) {
+                    journal.append(offset * 1_000, ranges, Packet.MAX_SACK_BLOCKS);
+                    assertTrue(journal.size() <= CheckpointJournal.COMPACT_SIZE);
+                }
+                assertEquals(Files.size(path), journal.size());
+            }
+            try (CheckpointJournal journal = CheckpointJournal.open(path)) {
+                assertEquals(1_000_000, journal.getOffset());
+            }
+            assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".tmp")));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
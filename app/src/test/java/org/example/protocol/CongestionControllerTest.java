@@ -0,0 +1,81 @@
+package org.example.protocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CongestionControllerTest {
+    private static final long MS = 1_000_000L;
+
+    @Test public void renoSlowStartThenHalvesOnFastRetransmit() {
+        RenoController reno = new RenoController(true, true);
+        for (int i = 0; i < 10; i++) {
+            reno.onAck(1, 0.01, 0, i * MS);
+        }
+        assertEquals(11, reno.getCwnd(), 1e-9);
+
+        assertFalse(reno.onDuplicateAck(1));
+        assertFalse(reno.onDuplicateAck(2));
+        assertTrue(reno.onDuplicateAck(3));
+        assertTrue(reno.inRecovery());
+        assertEquals(5.5, reno.getSsthresh(), 1e-9);
+        assertEquals(8.5, reno.getCwnd(), 1e-9);
+
+        reno.onAck(1, -1, 0, 20 * MS);
+        assertFalse(reno.inRecovery());
+        assertEquals(5.5, reno.getCwnd(), 1e-9);
+    }
+
+    @Test public void renoWithoutFastRetransmitIgnoresDuplicateAcks() {
+        RenoController aimd = new RenoController(false, false);
+        for (int i = 1; i <= 5; i++) {
+            assertFalse(aimd.onDuplicateAck(i));
+        }
+        aimd.onTimeout();
+        assertEquals(1, aimd.getCwnd(), 1e-9);
+    }
+
+    @Test public void cubicReducesByBetaAndRegrowsPastOldMaximum() {
+        CubicController cubic = new CubicController();
+        long now = 0;
+        while (cubic.getCwnd() < 100) {
+            cubic.onAck(1, 0.05, 0, now += MS);
+        }
+        double beforeLoss = cubic.getCwnd();
+        assertTrue(cubic.onDuplicateAck(3));
+        assertEquals(beforeLoss * 0.7, cubic.getSsthresh(), 1e-9);
+        cubic.onAck(1, 0.05, 0, now += MS);
+
+        // Ten simulated seconds of ACKs, one per millisecond
+        for (int i = 0; i < 10_000; i++) {
+            cubic.onAck(1, 0.05, 0, now += MS);
+        }
+        assertTrue("cwnd " + cubic.getCwnd(), cubic.getCwnd() > beforeLoss);
+    }
+
+    @Test public void bbrConvergesToBandwidthDelayProduct() {
+        BbrController bbr = new BbrController();
+        double rtt = 0.05;
+        int bottleneck = 1000; // segments per second
+        long now = 0;
+        // Deliver at the bottleneck rate whatever cwnd is: one segment per millisecond
+        for (int i = 0; i < 20_000; i++) {
+            bbr.onAck(1, rtt, (int) bbr.getCwnd(), now += MS);
+        }
+        double bdp = bottleneck * rtt;
+        assertTrue("cwnd " + bbr.getCwnd(), bbr.getCwnd() >= bdp);
+        assertTrue("cwnd " + bbr.getCwnd(), bbr.getCwnd() <= 3 * bdp);
+        assertEquals(bottleneck, bbr.getPacingRate(), bottleneck * 0.3);
+    }
+
+    @Test public void createsControllersByName() {
+        assertTrue(CongestionController.forName("reno", true, true) instanceof RenoController);
+        assertTrue(CongestionController.forName("cubic", false, false) instanceof CubicController);
+        assertTrue(CongestionController.forName("bbr", false, false) instanceof BbrController);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownName() {
+        CongestionController.forName("vegas", false, false);
+    }
+}
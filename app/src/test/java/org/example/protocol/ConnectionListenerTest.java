@@ -0,0 +1,203 @@
+package org.example.protocol;
+
+import org.example.network.LowerLayerEndpoint;
+import org.example.network.PooledBuffer;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConnectionListenerTest {
+    private static final int CLIENTS = 20;
+    private static final int LINES = 50;
+
+    private static String expected(int client) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= LINES; i++) {
+            sb.append(String.format("C%02d Line%04d\n", client, i));
+        }
+        return sb.toString();
+    }
+
+    @Test public void servesManyClientsFromOneSocket() throws Exception {
+        LowerLayerEndpoint serverSocket = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0, 2000, 0.005);
+        ConnectionListener listener = new ConnectionListener(serverSocket);
+        InetSocketAddress serverAddress =
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+
+        List<Sender> senders = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            LowerLayerEndpoint clientEndpoint = new LowerLayerEndpoint(null, serverAddress, 0, 2000, 0.005);
+            senders.add(new Sender(clientEndpoint, new RenoController(true, true)));
+        }
+
+        ExecutorService readers = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<String>> received = new ArrayList<>();
+        int length = expected(0).length();
+        for (int c = 0; c < CLIENTS; c++) {
+            Receiver receiver = listener.accept();
+            received.add(readers.submit(() -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                while (out.size() < length) {
+                    out.write(receiver.recv());
+                }
+                return out.toString(StandardCharsets.US_ASCII);
+            }));
+        }
+        assertEquals(CLIENTS, listener.getConnectionCount());
+
+        for (int i = 1; i <= LINES; i++) {
+            for (int c = 0; c < CLIENTS; c++) {
+                senders.get(c).send(String.format("C%02d Line%04d\n", c, i).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        try {
+            // Every connection gets exactly one client's stream, intact and in order
+            Set<String> streams = new HashSet<>();
+            for (Future<String> stream : received) {
+                streams.add(stream.get(60, TimeUnit.SECONDS));
+            }
+            Set<String> expected = new HashSet<>();
+            for (int c = 0; c < CLIENTS; c++) {
+                expected.add(expected(c));
+            }
+            assertEquals(expected, streams);
+        } finally {
+            readers.shutdownNow();
+            for (Sender sender : senders) {
+                sender.shutdown();
+            }
+        }
+    }
+
+    @Test public void closedConnectionIsForgotten() throws Exception {
+        LowerLayerEndpoint serverSocket = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0, 2000, 0.005);
+        ConnectionListener listener = new ConnectionListener(serverSocket);
+        LowerLayerEndpoint clientEndpoint = new LowerLayerEndpoint(null,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort()), 0, 2000, 0.005);
+        Sender sender = new Sender(clientEndpoint, new RenoController(true, true));
+
+        Receiver receiver = listener.accept();
+        assertEquals(sender.getConnectionId(), receiver.getConnectionId());
+        assertEquals(1, listener.getConnectionCount());
+
+        receiver.shutdown();
+        assertEquals(0, listener.getConnectionCount());
+        assertNull(receiver.recv());
+        sender.shutdown();
+    }
+
+    @Test public void finishedClientsLeaveNoConnections() throws Exception {
+        LowerLayerEndpoint serverSocket = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0, 2000, 0.005);
+        ConnectionListener listener = new ConnectionListener(serverSocket);
+        InetSocketAddress serverAddress =
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+        try {
+            for (int c = 0; c < CLIENTS; c++) {
+                LowerLayerEndpoint clientEndpoint = new LowerLayerEndpoint(null, serverAddress, 0, 2000, 0.005);
+                Sender sender = new Sender(clientEndpoint, new RenoController(true, true));
+                sender.send(expected(c).getBytes(StandardCharsets.US_ASCII));
+                sender.shutdown();
+
+                // The FIN ends the server's reads; closing its side frees the connection
+                Receiver receiver = listener.accept();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] data;
+                while ((data = receiver.recv()) != null) {
+                    out.write(data);
+                }
+                receiver.shutdown();
+                assertEquals(expected(c), out.toString(StandardCharsets.US_ASCII));
+                assertEquals(0, listener.getConnectionCount());
+                assertTrue(sender.awaitTermination(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            listener.shutdown();
+        }
+    }
+
+    @Test public void idleConnectionIsClosed() throws Exception {
+        LowerLayerEndpoint serverSocket = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0, 2000, 0.005);
+        ConnectionListener listener = new ConnectionListener(serverSocket);
+        listener.setIdleTimeout(TimeUnit.MILLISECONDS.toNanos(200));
+        LowerLayerEndpoint clientEndpoint = new LowerLayerEndpoint(null,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort()), 0, 2000, 0.005);
+        Sender sender = new Sender(clientEndpoint, new RenoController(true, true));
+        try {
+            sender.send("hello".getBytes(StandardCharsets.US_ASCII));
+            Receiver receiver = listener.accept();
+            assertEquals("hello", new String(receiver.recv(), StandardCharsets.US_ASCII));
+
+            // The client goes quiet without a FIN
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (listener.getConnectionCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, listener.getConnectionCount());
+            assertNull(receiver.recv());
+        } finally {
+            sender.shutdown();
+            listener.shutdown();
+        }
+    }
+
+    private static void sendSyn(LowerLayerEndpoint endpoint, int connectionId) {
+        PooledBuffer lease = endpoint.allocate();
+        PacketView.encode(lease.buffer(), Packet.Type.SYN, connectionId, 1, new byte[0]);
+        lease.buffer().flip();
+        endpoint.send(lease);
+    }
+
+    @Test public void synForClosedConnectionIsIgnored() throws Exception {
+        LowerLayerEndpoint serverSocket = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0, 2000, 0.005);
+        ConnectionListener listener = new ConnectionListener(serverSocket);
+        LowerLayerEndpoint clientEndpoint = new LowerLayerEndpoint(null,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort()), 0, 2000, 0.005);
+        try {
+            sendSyn(clientEndpoint, 42);
+            Receiver closed = listener.accept();
+            assertEquals(42, closed.getConnectionId());
+            closed.shutdown();
+
+            // A retransmitted SYN for the closed connection, then a new one: only the new one opens
+            sendSyn(clientEndpoint, 42);
+            sendSyn(clientEndpoint, 43);
+            Receiver opened = listener.accept();
+            assertEquals(43, opened.getConnectionId());
+            assertEquals(1, listener.getConnectionCount());
+            opened.shutdown();
+        } finally {
+            clientEndpoint.shutdown();
+            listener.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPointToPointEndpoint() {
+        LowerLayerEndpoint endpoint = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 0, 2000, 0.005);
+        try {
+            new ConnectionListener(endpoint);
+        } finally {
+            endpoint.shutdown();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.example.protocol;
+
+import org.example.concurrent.Threads;
+import org.example.network.LowerLayerEndpoint;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Many concurrent connections into one server socket, each served by its own session
+ * thread. Reports heap per connection and delivery throughput. 100 connections run by
+ * default; pass -Dtplxp.scale.full=true for 1k and 10k.
+ */
+public class ConnectionScaleTest {
+    private static final int LINES_PER_CONNECTION = 8;
+    private static final int RECV_BUFFER_SIZE = 16 * 1024;
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @param delay link propagation delay; it also sets the initial RTO, which has to
+     *              outlast the time it takes to open every connection on a small machine
+     */
+    private static void run(int connections, double delay) throws Exception {
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+
+        LowerLayerEndpoint serverSocket = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0, 100_000, delay);
+        ConnectionListener listener = new ConnectionListener(serverSocket,
+                connection -> new Receiver(connection, 1, TimeUnit.MILLISECONDS.toNanos(20), RECV_BUFFER_SIZE));
+        InetSocketAddress serverAddress =
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+
+        int bytesPerConnection = String.format("Line%04d\n", 0).length() * LINES_PER_CONNECTION;
+        CountDownLatch done = new CountDownLatch(connections);
+        AtomicInteger corrupted = new AtomicInteger();
+        Threads.start("acceptor", () -> {
+            try {
+                for (int c = 0; c < connections; c++) {
+                    Receiver receiver = listener.accept();
+                    Threads.start("session", () -> {
+                        StringBuilder sb = new StringBuilder();
+                        while (sb.length() < bytesPerConnection) {
+                            sb.append(new String(receiver.recv(), StandardCharsets.US_ASCII));
+                        }
+                        if (!sb.toString().startsWith("Line0001\n")) {
+                            corrupted.incrementAndGet();
+                        }
+                        done.countDown();
+                    });
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        List<Sender> senders = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            LowerLayerEndpoint endpoint = new LowerLayerEndpoint(null, serverAddress, 0, 100_000, delay);
+            senders.add(new Sender(endpoint, new RenoController(true, true)));
+        }
+        for (int i = 1; i <= LINES_PER_CONNECTION; i++) {
+            for (Sender sender : senders) {
+                sender.send(String.format("Line%04d\n", i).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        boolean finished = done.await(120, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - start;
+        long heapPerConnection = (usedHeap() - heapBefore) / connections;
+        String stats = String.format("%,d connections (%s threads): %,d ms, %,.0f connections/s, %,.0f bytes/s, " +
+                        "%,d heap bytes/connection, %d open",
+                connections, Threads.getMode(), elapsed / 1_000_000, connections * 1e9 / elapsed,
+                (double) connections * bytesPerConnection * 1e9 / elapsed, heapPerConnection,
+                listener.getConnectionCount());
+
+        // Let every sender see its last ACK before the server socket goes away
+        for (Sender sender : senders) {
+            sender.shutdown();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        for (Sender sender : senders) {
+            sender.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        listener.shutdown();
+
+        assertTrue((connections - done.getCount()) + " of " + connections + " connections completed; " + stats,
+                finished);
+        assertEquals(stats, 0, corrupted.get());
+    }
+
+    @Test public void hundredConnections() throws Exception {
+        run(100, 0.005);
+    }
+
+    @Test public void thousandConnections() throws Exception {
+        Assume.assumeTrue("set -Dtplxp.scale.full=true to run", Boolean.getBoolean("tplxp.scale.full"));
+        run(1_000, 0.005);
+    }
+
+    @Test public void tenThousandConnections() throws Exception {
+        Assume.assumeTrue("set -Dtplxp.scale.full=true to run", Boolean.getBoolean("tplxp.scale.full"));
+        run(10_000, 0.05);
+    }
+}
@@ -0,0 +1,162 @@
+package org.example.protocol;
+
+import org.example.network.LowerLayerEndpoint;
+import org.example.sim.LinkModel;
+import org.example.sim.SimulatedEndpoint;
+import org.example.sim.SimulatedNetwork;
+import org.example.sim.VirtualClock;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * sendFile() into a receiver in receive-to-file mode. The loopback run reports throughput;
+ * it moves 8 MB by default, pass -Dtplxp.file.full=true for 4 GB.
+ */
+public class FileTransferTest {
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private static Path createFile(long size) throws Exception {
+        Path path = Files.createTempFile("tplxp-send", ".bin");
+        Random random = new Random(size);
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            for (long written = 0; written < size; written += chunk.limit()) {
+                random.nextBytes(chunk.array());
+                chunk.clear().limit((int) Math.min(CHUNK_SIZE, size - written));
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+        }
+        return path;
+    }
+
+    private static FileChannel openOutput(Path path) throws Exception {
+        return FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Sends {@code size} bytes over loopback and checks the copy.
+     */
+    private static void loopback(long size) throws Exception {
+        Path source = createFile(size);
+        Path copy = Files.createTempFile("tplxp-recv", ".bin");
+        try {
+            LowerLayerEndpoint serverEndpoint = new LowerLayerEndpoint(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 0, 0, 0.001);
+            Receiver receiver = new Receiver(serverEndpoint, 2, 1_000_000L, Receiver.DEFAULT_RECV_BUFFER_SIZE,
+                    openOutput(copy));
+            LowerLayerEndpoint clientEndpoint = new LowerLayerEndpoint(null,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), serverEndpoint.getLocalPort()),
+                    0, 0, 0.001);
+            Sender sender = new Sender(clientEndpoint, new CubicController());
+
+            long start = System.nanoTime();
+            sender.sendFile(source);
+            sender.shutdown();
+            boolean finished = sender.awaitTermination(10, TimeUnit.MINUTES);
+            long elapsed = System.nanoTime() - start;
+            receiver.shutdown();
+            String stats = String.format("%,d bytes: %,d ms, %,.0f bytes/s, %,d retransmits",
+                    size, elapsed / 1_000_000, size * 1e9 / elapsed, sender.getRetransmits());
+
+            assertTrue("gave up after " + sender.getBytesAcked() + " bytes; " + stats, finished);
+            assertEquals(stats, size, receiver.getBytesDelivered());
+            assertEquals(-1L, Files.mismatch(source, copy));
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    @Test public void writesSegmentsAtTheirOffsetsAcrossLossAndReordering() throws Exception {
+        SimulatedNetwork network = new SimulatedNetwork(7);
+        VirtualClock clock = network.getClock();
+        SimulatedEndpoint client = network.newEndpoint("client");
+        SimulatedEndpoint server = network.newEndpoint("server");
+        LinkModel link = LinkModel.of(2_000, 0.01).withLoss(0.02).withReorder(0.02).withDuplicate(0.01);
+        network.connect(client, server, link, link);
+
+        long size = 3_000_000;
+        Path source = createFile(size);
+        Path copy = Files.createTempFile("tplxp-recv", ".bin");
+        Receiver receiver = new Receiver(server, 1, 20_000_000L, 1 << 20, openOutput(copy), clock);
+        Sender sender = new Sender(client, new RenoController(true, true), false, clock);
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            // Chunks that are not a whole number of segments leave short segments mid-stream.
+            // Writing only while the buffer is less than half full, counting bytes as if every
+            // segment were full, keeps the simulation thread from blocking.
+            int chunk = 16 * 1024;
+            long written = 0;
+            while (sender.getBytesAcked() < size) {
+                while (written < size && 2 * (sender.getOutstandingBytes() + chunk) <= sender.getSendBufferSize()) {
+                    long n = Math.min(chunk, size - written);
+                    sender.sendFile(channel, written, n);
+                    written += n;
+                }
+                assertTrue("stalled after " + sender.getBytesAcked() + " bytes", clock.runNext());
+            }
+            assertEquals(size, receiver.getBytesDelivered());
+            receiver.shutdown();
+            assertEquals(-1L, Files.mismatch(source, copy));
+        } finally {
+            sender.shutdown();
+            receiver.shutdown();
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    @Test public void streamsWrittenDataAndFilesInOrder() throws Exception {
+        SimulatedNetwork network = new SimulatedNetwork(3);
+        VirtualClock clock = network.getClock();
+        SimulatedEndpoint client = network.newEndpoint("client");
+        SimulatedEndpoint server = network.newEndpoint("server");
+        network.connect(client, server, LinkModel.of(1_000, 0.01), LinkModel.of(1_000, 0.01));
+
+        Path source = createFile(10_000);
+        Path copy = Files.createTempFile("tplxp-recv", ".bin");
+        Receiver receiver = new Receiver(server, 1, 20_000_000L, 1 << 20, openOutput(copy), clock);
+        Sender sender = new Sender(client, new RenoController(true, true), false, clock);
+        try {
+            byte[] header = "header".getBytes();
+            sender.write(ByteBuffer.wrap(header));
+            sender.sendFile(source);
+            while (sender.getOutstandingBytes() > 0) {
+                assertTrue(clock.runNext());
+            }
+            receiver.shutdown();
+
+            byte[] expected = new byte[header.length + 10_000];
+            System.arraycopy(header, 0, expected, 0, header.length);
+            System.arraycopy(Files.readAllBytes(source), 0, expected, header.length, 10_000);
+            assertArrayEquals(expected, Files.readAllBytes(copy));
+        } finally {
+            sender.shutdown();
+            receiver.shutdown();
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    @Test public void throughputOverLoopback() throws Exception {
+        loopback(8L << 20);
+    }
+
+    @Test public void multiGigabyteFileOverLoopback() throws Exception {
+        Assume.assumeTrue("set -Dtplxp.file.full=true to run", Boolean.getBoolean("tplxp.file.full"));
+        loopback(4L << 30);
+    }
+}
@@ -0,0 +1,54 @@
+package org.example.protocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PacerTest {
+    private static final long MS = 1_000_000L;
+
+    @Test public void unpacedWhenRateIsZero() {
+        Pacer pacer = new Pacer();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, pacer.delayUntilNext(0));
+            pacer.consume();
+        }
+    }
+
+    @Test public void spreadsSegmentsAtRate() {
+        Pacer pacer = new Pacer();
+        pacer.setRate(1000);
+        long now = 0;
+        int sent = 0;
+        // Send whenever allowed for one simulated second, jumping straight to each wakeup
+        while (now < 1000 * MS) {
+            long wait = pacer.delayUntilNext(now);
+            if (wait > 0) {
+                now += wait;
+                continue;
+            }
+            pacer.consume();
+            sent++;
+        }
+        assertEquals(1000, sent, 5);
+    }
+
+    @Test public void burstIsBoundedAfterIdle() {
+        Pacer pacer = new Pacer();
+        pacer.setRate(1000);
+        pacer.delayUntilNext(0);
+        int burst = 0;
+        while (pacer.delayUntilNext(10_000 * MS) == 0) {
+            pacer.consume();
+            burst++;
+        }
+        assertEquals(2, burst);
+    }
+
+    @Test public void defaultRateIsCwndPerRtt() {
+        RenoController reno = new RenoController(false, false);
+        assertEquals(0, reno.getPacingRate(0), 1e-9);
+        // cwnd 1 below ssthresh 64: slow-start gain of 2
+        assertEquals(20, reno.getPacingRate(0.1), 1e-9);
+    }
+}
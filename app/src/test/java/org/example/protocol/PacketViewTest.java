@@ -0,0 +1,134 @@
+package org.example.protocol;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PacketViewTest {
+    @Test public void readsFieldsWrittenByPacket() {
+        byte[] payload = {1, 2, 3, 4};
+        byte[] raw = new Packet(Packet.Type.DATA, 0xC0FFEE, 42, payload).toBytes();
+
+        PacketView view = new PacketView().wrap(ByteBuffer.wrap(raw));
+        assertEquals(Packet.Type.DATA, view.type());
+        assertEquals(0xC0FFEE, view.connectionId());
+        assertEquals(42, view.seqNum());
+        assertEquals(payload.length, view.payloadLength());
+        assertArrayEquals(payload, view.copyPayload());
+    }
+
+    @Test public void writesHeaderInFrontOfPayload() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        PacketView.reserveHeader(buffer);
+        buffer.put(new byte[] {9, 8, 7});
+        PacketView.writeHeader(buffer, 0, Packet.Type.ACK, 5, 7);
+        buffer.flip();
+
+        byte[] raw = new byte[buffer.remaining()];
+        buffer.duplicate().get(raw);
+        Packet packet = Packet.fromBytes(raw);
+        assertEquals(Packet.Type.ACK, packet.getType());
+        assertEquals(5, packet.getConnectionId());
+        assertEquals(7, packet.getSeqNum());
+        assertArrayEquals(new byte[] {9, 8, 7}, packet.getData());
+    }
+
+    @Test public void roundTripsTimestamps() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        PacketView.encode(buffer, Packet.Type.DATA, 1, 2, 123_456, -7, new byte[] {1});
+        buffer.flip();
+
+        PacketView view = new PacketView().wrap(buffer);
+        assertEquals(123_456, view.tsVal());
+        assertEquals(-7, view.tsEcr());
+        assertEquals(1, view.payloadLength());
+    }
+
+    @Test public void headerWithoutTimestampsClearsReusedBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        PacketView.encode(buffer, Packet.Type.DATA, 1, 2, 99, 98, new byte[0]);
+        buffer.clear();
+        PacketView.reserveHeader(buffer);
+        PacketView.writeHeader(buffer, 0, Packet.Type.ACK, 1, 3);
+        buffer.flip();
+
+        PacketView view = new PacketView().wrap(buffer);
+        assertEquals(0, view.tsVal());
+        assertEquals(0, view.tsEcr());
+    }
+
+    @Test public void encodesSliceWithStreamOffset() {
+        ByteBuffer file = ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5});
+        ByteBuffer slice = file.slice(1, 3);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        PacketView.encode(buffer, Packet.Type.DATA, 1, 2, 0, 0, 5_000_000_000L, slice);
+        buffer.flip();
+
+        PacketView view = new PacketView().wrap(buffer);
+        assertEquals(5_000_000_000L, view.streamOffset());
+        assertArrayEquals(new byte[] {2, 3, 4}, view.copyPayload());
+        assertEquals(3, slice.remaining());
+    }
+
+    @Test public void timestampIsNeverZero() {
+        assertEquals(1, PacketView.timestamp(0));
+        assertEquals(1, PacketView.timestamp(999));
+        assertEquals(5, PacketView.timestamp(5_000));
+        // Wraps to 0 after 2^32 microseconds
+        assertEquals(1, PacketView.timestamp((1L << 32) * 1000));
+    }
+
+    @Test public void viewRespectsBufferPosition() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put((byte) 0x55);
+        PacketView.encode(buffer, Packet.Type.SYN, 1, 0, new byte[0]);
+        buffer.flip().position(1);
+
+        PacketView view = new PacketView().wrap(buffer);
+        assertEquals(Packet.Type.SYN, view.type());
+        assertEquals(0, view.payloadLength());
+        assertEquals(1, buffer.position());
+    }
+
+    @Test public void roundTripsSackBlocks() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        PacketView.reserveHeader(buffer);
+        PacketView.putAckPayload(buffer, 42, new int[] {5, 7, 10, 10}, 2);
+        PacketView.writeHeader(buffer, 0, Packet.Type.ACK, 1, 3);
+        buffer.flip();
+
+        PacketView view = new PacketView().wrap(buffer);
+        assertEquals(3, view.seqNum());
+        assertEquals(42, view.window());
+        assertEquals(2, view.sackBlockCount());
+        assertEquals(5, view.sackStart(0));
+        assertEquals(7, view.sackEnd(0));
+        assertEquals(10, view.sackStart(1));
+        assertEquals(10, view.sackEnd(1));
+    }
+
+    @Test public void plainAckHasNoSackBlocks() {
+        PacketView view = new PacketView().wrap(ByteBuffer.wrap(new Packet(Packet.Type.ACK, 3).toBytes()));
+        assertEquals(0, view.sackBlockCount());
+        assertEquals(Integer.MAX_VALUE, view.window());
+    }
+
+    @Test public void windowOnlyAckHasNoSackBlocks() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        PacketView.reserveHeader(buffer);
+        PacketView.putAckPayload(buffer, 0, new int[0], 0);
+        PacketView.writeHeader(buffer, 0, Packet.Type.ACK, 1, 3);
+        buffer.flip();
+
+        PacketView view = new PacketView().wrap(buffer);
+        assertEquals(0, view.window());
+        assertEquals(0, view.sackBlockCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownType() {
+        Packet.Type.fromByte((byte) 'X');
+    }
+}
@@ -0,0 +1,197 @@
+package org.example.protocol;
+
+import org.example.network.LowerLayerEndpoint;
+import org.example.sim.LinkModel;
+import org.example.sim.SimulatedEndpoint;
+import org.example.sim.SimulatedNetwork;
+import org.example.sim.VirtualClock;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Resumable sessions: a sender and a receiver that stop mid-transfer, in the simulator, and
+ * a Server and a Client killed and restarted at random points as separate processes. The
+ * latter takes half a minute; pass -Dtplxp.resume.full=true to run it.
+ */
+public class ResumableTransferTest {
+    private static final long SESSION_ID = 0x5e55_10e0L;
+
+    private static Path createFile(long size, long seed) throws Exception {
+        Path path = Files.createTempFile("tplxp-send", ".bin");
+        byte[] data = new byte[(int) size];
+        new Random(seed).nextBytes(data);
+        Files.write(path, data);
+        return path;
+    }
+
+    private static void deleteRecursively(Path dir) throws Exception {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Writes {@code size} bytes of the file from the start, as an application resuming a
+     * session does, running the simulation until {@code acked} bytes are acknowledged.
+     */
+    private static void transfer(Sender sender, VirtualClock clock, FileChannel channel, long size, long acked)
+            throws Exception {
+        int chunk = 16 * 1024;
+        long written = 0;
+        while (sender.getBytesAcked() < acked) {
+            while (written < size && 2 * (sender.getOutstandingBytes() + chunk) <= sender.getSendBufferSize()) {
+                long n = Math.min(chunk, size - written);
+                sender.sendFile(channel, written, n);
+                written += n;
+            }
+            assertTrue("stalled after " + sender.getBytesAcked() + " bytes", clock.runNext());
+        }
+    }
+
+    private static Sender connect(SimulatedEndpoint endpoint, VirtualClock clock) {
+        Sender sender = Sender.resumable(endpoint, new RenoController(true, true), false, clock, SESSION_ID);
+        while (sender.getResumeOffset() < 0) {
+            assertTrue(clock.runNext());
+        }
+        return sender;
+    }
+
+    @Test public void resumesWhereTheLastReceiverLeftOff() throws Exception {
+        SimulatedNetwork network = new SimulatedNetwork(11);
+        VirtualClock clock = network.getClock();
+        LinkModel link = LinkModel.of(2_000, 0.01).withLoss(0.02).withReorder(0.02);
+        long size = 2_000_000;
+        Path source = createFile(size, 11);
+        Path dir = Files.createTempDirectory("tplxp-sessions");
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            SimulatedEndpoint client = network.newEndpoint("client");
+            SimulatedEndpoint server = network.newEndpoint("server");
+            network.connect(client, server, link, link);
+            Receiver receiver = new Receiver(server, 1, 20_000_000L, 1 << 20, dir, clock);
+            Sender sender = connect(client, clock);
+            assertEquals(0, sender.getResumeOffset());
+            transfer(sender, clock, channel, size, size / 2);
+
+            // The client goes away mid-transfer; the server stops once what was in flight lands
+            sender.shutdown();
+            client.shutdown();
+            clock.runUntil(clock.nanoTime() + 1_000_000_000L);
+            receiver.shutdown();
+            long held = Files.size(dir.resolve(Long.toHexString(SESSION_ID)));
+
+            client = network.newEndpoint("client2");
+            server = network.newEndpoint("server2");
+            network.connect(client, server, link, link);
+            receiver = new Receiver(server, 1, 20_000_000L, 1 << 20, dir, clock);
+            sender = connect(client, clock);
+            long resumed = sender.getResumeOffset();
+            assertTrue("resumed at " + resumed, resumed >= size / 2 && resumed <= held);
+            transfer(sender, clock, channel, size, size - resumed);
+            assertEquals(size - resumed, sender.getBytesAcked());
+            receiver.shutdown();
+            sender.shutdown();
+
+            assertEquals(-1L, Files.mismatch(source, dir.resolve(Long.toHexString(SESSION_ID))));
+            assertTrue(Files.exists(dir.resolve(Long.toHexString(SESSION_ID) + ".journal")));
+        } finally {
+            Files.deleteIfExists(source);
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test public void failsWhenTheSynIsNeverAnswered() throws Exception {
+        Path source = createFile(100_000, 13);
+        // A bound socket nobody reads: the SYN goes out and no answer ever comes back
+        try (DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            LowerLayerEndpoint endpoint = new LowerLayerEndpoint(null,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), silent.getLocalPort()), 0, 2000, 0.001);
+            Sender sender = Sender.resumable(endpoint, new RenoController(true, true), false, SESSION_ID);
+            sender.setHandshakeTimeout(TimeUnit.MILLISECONDS.toNanos(300));
+            try {
+                sender.sendFile(source);
+                fail("sendFile returned without a handshake");
+            } catch (IOException e) {
+                assertTrue(sender.isFailed());
+                assertFalse(sender.isReset());
+            }
+            // Later writes return at once instead of waiting for the handshake again
+            sender.send(new byte[100]);
+            sender.shutdown();
+            assertTrue(sender.awaitTermination(5, TimeUnit.SECONDS));
+        } finally {
+            Files.deleteIfExists(source);
+        }
+    }
+
+    @Test public void survivesKilledServerAndClient() throws Exception {
+        Assume.assumeTrue("set -Dtplxp.resume.full=true to run", Boolean.getBoolean("tplxp.resume.full"));
+        int port;
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        long size = 32L << 20;
+        Path source = createFile(size, 17);
+        Path dir = Files.createTempDirectory("tplxp-sessions");
+        Path log = dir.resolve("processes.log");
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        String classPath = System.getProperty("java.class.path");
+        // A 2 MB/s link keeps the transfer going for seconds, so the kills land mid-stream and
+        // each after a few checkpoints
+        ProcessBuilder server = new ProcessBuilder(java, "-cp", classPath, "org.example.Server",
+                "-p", Integer.toString(port), "-B", "2MB", "-d", "0.001", "-o", dir.toString());
+        ProcessBuilder client = new ProcessBuilder(java, "-cp", classPath, "org.example.Client",
+                "-p", Integer.toString(port), "-h", "127.0.0.1", "-B", "2MB", "-d", "0.001", "-cc", "cubic",
+                "-file", source.toString(), "-resume", Long.toHexString(SESSION_ID));
+        for (ProcessBuilder builder : new ProcessBuilder[] {server, client}) {
+            builder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.appendTo(log.toFile()));
+        }
+
+        Random random = new Random(42);
+        Process serverProcess = server.start();
+        Process clientProcess = null;
+        try {
+            Thread.sleep(1_000);
+            clientProcess = client.start();
+            for (int kill = 0; kill < 4; kill++) {
+                Thread.sleep(1_000 + random.nextInt(1_000));
+                assertTrue("client finished before kill " + kill, clientProcess.isAlive());
+                if (kill % 2 == 0) {
+                    serverProcess.destroyForcibly().waitFor();
+                    serverProcess = server.start();
+                } else {
+                    clientProcess.destroyForcibly().waitFor();
+                    clientProcess = client.start();
+                }
+            }
+            assertTrue("client did not finish", clientProcess.waitFor(2, TimeUnit.MINUTES));
+            assertEquals(0, clientProcess.exitValue());
+            assertEquals(-1L, Files.mismatch(source, dir.resolve(Long.toHexString(SESSION_ID))));
+        } catch (AssertionError e) {
+            throw new AssertionError(e.getMessage() + "\nclient and server output:\n" + Files.readString(log), e);
+        } finally {
+            if (clientProcess != null) {
+                clientProcess.destroyForcibly().waitFor();
+            }
+            serverProcess.destroyForcibly().waitFor();
+            Files.deleteIfExists(source);
+            deleteRecursively(dir);
+        }
+    }
+}
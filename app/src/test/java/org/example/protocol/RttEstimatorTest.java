@@ -0,0 +1,68 @@
+package org.example.protocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RttEstimatorTest {
+    private static final long MS = 1_000_000;
+
+    @Test public void firstSampleSetsSrttAndHalfVariation() {
+        RttEstimator estimator = new RttEstimator();
+        assertFalse(estimator.hasSample());
+        assertEquals(RttEstimator.INITIAL_RTO_NANOS, estimator.getRto());
+
+        estimator.sample(100 * MS);
+        assertEquals(100 * MS, estimator.getSrtt());
+        assertEquals(50 * MS, estimator.getRttVar());
+        assertEquals(300 * MS, estimator.getRto());
+    }
+
+    @Test public void steadyRttConvergesToSrttPlusGranularity() {
+        RttEstimator estimator = new RttEstimator();
+        for (int i = 0; i < 200; i++) {
+            estimator.sample(300 * MS);
+        }
+        assertEquals(300 * MS, estimator.getSrtt(), MS);
+        assertEquals(301 * MS, estimator.getRto(), MS);
+    }
+
+    @Test public void jitterWidensTheTimeout() {
+        RttEstimator estimator = new RttEstimator();
+        long max = 0;
+        for (int i = 0; i < 200; i++) {
+            long sample = (i % 2 == 0 ? 250 : 350) * MS;
+            estimator.sample(sample);
+            max = Math.max(max, sample);
+        }
+        assertEquals(300 * MS, estimator.getSrtt(), 10 * MS);
+        // RTTVAR tracks the 50 ms deviation, so no sample comes near the timeout
+        assertEquals(50 * MS, estimator.getRttVar(), 10 * MS);
+        assertTrue(estimator.toString(), estimator.getRto() > max + 100 * MS);
+    }
+
+    @Test public void shortPathsAreHeldAtTheMinimum() {
+        RttEstimator estimator = new RttEstimator();
+        estimator.sample(MS);
+        assertEquals(RttEstimator.MIN_RTO_NANOS, estimator.getRto());
+    }
+
+    @Test public void timeoutsBackOffUntilTheNextSample() {
+        RttEstimator estimator = new RttEstimator();
+        estimator.sample(200 * MS);
+        long rto = estimator.getRto();
+        estimator.backoff();
+        estimator.backoff();
+        assertEquals(4 * rto, estimator.getRto());
+        assertEquals(2, estimator.getBackoffs());
+
+        for (int i = 0; i < 20; i++) {
+            estimator.backoff();
+        }
+        assertEquals(RttEstimator.MAX_RTO_NANOS, estimator.getRto());
+
+        estimator.sample(200 * MS);
+        assertEquals(0, estimator.getBackoffs());
+        assertTrue(estimator.getRto() < rto);
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.protocol;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SendBufferTest {
+    @Test public void publishesAndReleasesBySequenceNumber() throws InterruptedException {
+        SendBuffer<String> buffer = new SendBuffer<>(4, 0);
+        for (int i = 0; i < 4; i++) {
+            int seq = buffer.claim();
+            assertEquals(i, seq);
+            buffer.publish(seq, "seg" + seq);
+        }
+        assertEquals(3, buffer.getPublished());
+        assertEquals("seg2", buffer.get(2));
+
+        buffer.release(1);
+        assertEquals(1, buffer.getReleased());
+        assertNull(buffer.get(0));
+        assertEquals("seg2", buffer.get(2));
+    }
+
+    @Test public void producerWaitsForReleaseWhenFull() throws InterruptedException {
+        SendBuffer<Integer> buffer = new SendBuffer<>(2, 0);
+        buffer.publish(buffer.claim(), 0);
+        buffer.publish(buffer.claim(), 1);
+
+        CountDownLatch claimed = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                buffer.publish(buffer.claim(), 2);
+                claimed.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+
+        assertFalse(claimed.await(100, TimeUnit.MILLISECONDS));
+        buffer.release(0);
+        assertTrue(claimed.await(1, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(2), buffer.get(2));
+        producer.join();
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void claimIsInterruptible() throws InterruptedException {
+        SendBuffer<Integer> buffer = new SendBuffer<>(1, 0);
+        buffer.publish(buffer.claim(), 0);
+        Thread.currentThread().interrupt();
+        buffer.claim();
+    }
+
+    @Test public void isFullInsteadOfWaiting() throws InterruptedException {
+        SendBuffer<String> buffer = new SendBuffer<>(2, 0);
+        assertFalse(buffer.isFull());
+        buffer.publish(buffer.claim(), "a");
+        buffer.publish(buffer.claim(), "b");
+        assertTrue(buffer.isFull());
+        buffer.release(0);
+        assertFalse(buffer.isFull());
+        assertEquals(2, buffer.claim());
+    }
+
+    @Test public void sequenceNumbersWrapAround() throws InterruptedException {
+        SendBuffer<Integer> buffer = new SendBuffer<>(4, Integer.MAX_VALUE - 1);
+        for (int i = 0; i < 4; i++) {
+            int seq = buffer.claim();
+            buffer.publish(seq, seq);
+        }
+        assertEquals(Integer.MIN_VALUE + 1, buffer.getPublished());
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), buffer.get(Integer.MIN_VALUE));
+
+        buffer.release(Integer.MIN_VALUE);
+        assertNull(buffer.get(Integer.MAX_VALUE));
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE + 1), buffer.get(Integer.MIN_VALUE + 1));
+        assertFalse(buffer.isFull());
+    }
+
+    @Test public void slotsGrowWithCapacityAndShrinkWhenDrained() throws InterruptedException {
+        SendBuffer<Integer> buffer = new SendBuffer<>(16, 0);
+        assertEquals(16, buffer.getSlots());
+        buffer.setCapacity(1000);
+        for (int i = 0; i < 1000; i++) {
+            buffer.publish(buffer.claim(), i);
+        }
+        assertEquals(1024, buffer.getSlots());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), buffer.get(i));
+        }
+
+        buffer.release(999);
+        buffer.setCapacity(16);
+        buffer.publish(buffer.claim(), 1000);
+        assertEquals(16, buffer.getSlots());
+        assertEquals(Integer.valueOf(1000), buffer.get(1000));
+    }
+
+    @Test public void raisingCapacityWakesProducer() throws InterruptedException {
+        SendBuffer<Integer> buffer = new SendBuffer<>(1, 0);
+        buffer.publish(buffer.claim(), 0);
+
+        CountDownLatch claimed = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                buffer.publish(buffer.claim(), 1);
+                claimed.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+
+        assertFalse(claimed.await(100, TimeUnit.MILLISECONDS));
+        buffer.setCapacity(2);
+        assertTrue(claimed.await(1, TimeUnit.SECONDS));
+        producer.join();
+    }
+}
@@ -0,0 +1,258 @@
+package org.example.protocol;
+
+import org.example.network.LowerLayerEndpoint;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SenderReceiverTest {
+    private static final int LINES = 500;
+    // A fixed SYN sequence number keeps runs repeatable; the wraparound test picks its own
+    private static final int INITIAL_SEQ = 0;
+
+    private static String expected() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= LINES; i++) {
+            sb.append(String.format("Line%04d\n", i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Sends LINES lines over loopback with the given lower-layer queue size and
+     * returns what the receiver delivered.
+     */
+    private static String transfer(int queueSize, boolean slowStart, boolean fastRetransmit) throws Exception {
+        LowerLayerEndpoint serverEndpoint = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, queueSize, 2000, 0.005);
+        return transfer(new Receiver(serverEndpoint), serverEndpoint, queueSize,
+                new RenoController(slowStart, fastRetransmit));
+    }
+
+    private static String transfer(int queueSize, CongestionController cc) throws Exception {
+        LowerLayerEndpoint serverEndpoint = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, queueSize, 2000, 0.005);
+        return transfer(new Receiver(serverEndpoint), serverEndpoint, queueSize, cc);
+    }
+
+    private static String transfer(Receiver receiver, LowerLayerEndpoint serverEndpoint, int queueSize,
+                                   CongestionController cc) throws Exception {
+        return transfer(receiver, serverEndpoint, queueSize, cc, false);
+    }
+
+    private static String transfer(Receiver receiver, LowerLayerEndpoint serverEndpoint, int queueSize,
+                                   CongestionController cc, boolean pacing) throws Exception {
+        return transfer(receiver, serverEndpoint, queueSize, cc, pacing, INITIAL_SEQ);
+    }
+
+    private static String transfer(Receiver receiver, LowerLayerEndpoint serverEndpoint, int queueSize,
+                                   CongestionController cc, boolean pacing, int initialSeq) throws Exception {
+        LowerLayerEndpoint clientEndpoint = new LowerLayerEndpoint(null,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), serverEndpoint.getLocalPort()),
+                queueSize, 2000, 0.005);
+        Sender sender = new Sender(clientEndpoint, cc, pacing, TimerWheel.getDefault(), initialSeq);
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        Future<String> received = readAll(reader, receiver);
+
+        for (int i = 1; i <= LINES; i++) {
+            sender.send(String.format("Line%04d\n", i).getBytes(StandardCharsets.US_ASCII));
+        }
+        try {
+            return received.get(60, TimeUnit.SECONDS);
+        } finally {
+            reader.shutdownNow();
+            sender.shutdown();
+        }
+    }
+
+    private static Future<String> readAll(ExecutorService reader, Receiver receiver) {
+        int expectedLength = expected().length();
+        return reader.submit(() -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            while (out.size() < expectedLength) {
+                out.write(receiver.recv());
+            }
+            return out.toString(StandardCharsets.US_ASCII);
+        });
+    }
+
+    /**
+     * Streams LINES lines through the sender's OutputStream and returns the number of
+     * segments it wrote, SYN included.
+     */
+    private static int streamTransfer(boolean noDelay) throws Exception {
+        LowerLayerEndpoint serverEndpoint = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 0, 2000, 0.005);
+        Receiver receiver = new Receiver(serverEndpoint);
+        LowerLayerEndpoint clientEndpoint = new LowerLayerEndpoint(null,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), serverEndpoint.getLocalPort()),
+                0, 2000, 0.005);
+        Sender sender = new Sender(clientEndpoint, new RenoController(true, true), false, TimerWheel.getDefault(),
+                INITIAL_SEQ);
+        sender.setNoDelay(noDelay);
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        Future<String> received = readAll(reader, receiver);
+        try (OutputStream out = sender.getOutputStream()) {
+            for (int i = 1; i <= LINES; i++) {
+                out.write(String.format("Line%04d\n", i).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        try {
+            assertEquals(expected(), received.get(60, TimeUnit.SECONDS));
+            return sender.getSegmentsWritten();
+        } finally {
+            reader.shutdownNow();
+            sender.shutdown();
+        }
+    }
+
+    @Test public void deliversInOrderOverCleanLink() throws Exception {
+        assertEquals(expected(), transfer(0, true, true));
+    }
+
+    @Test public void deliversInOrderWhenQueueDrops() throws Exception {
+        assertEquals(expected(), transfer(5, true, true));
+    }
+
+    @Test public void deliversInOrderWithoutFastRetransmit() throws Exception {
+        assertEquals(expected(), transfer(5, false, false));
+    }
+
+    @Test public void deliversInOrderWithCubic() throws Exception {
+        assertEquals(expected(), transfer(5, new CubicController()));
+    }
+
+    @Test public void deliversInOrderWithBbr() throws Exception {
+        assertEquals(expected(), transfer(5, new BbrController()));
+    }
+
+    @Test public void deliversInOrderAcrossSequenceWraparound() throws Exception {
+        LowerLayerEndpoint serverEndpoint = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 5, 2000, 0.005);
+        assertEquals(expected(), transfer(new Receiver(serverEndpoint), serverEndpoint, 5,
+                new RenoController(true, true), false, Integer.MAX_VALUE - LINES / 2));
+    }
+
+    @Test public void deliversInOrderWhenPaced() throws Exception {
+        for (CongestionController cc : new CongestionController[] {
+                new RenoController(true, true), new CubicController(), new BbrController()}) {
+            LowerLayerEndpoint serverEndpoint = new LowerLayerEndpoint(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 5, 2000, 0.005);
+            assertEquals(expected(), transfer(new Receiver(serverEndpoint), serverEndpoint, 5, cc, true));
+        }
+    }
+
+    @Test public void delayedAcksRoughlyHalveAckCount() throws Exception {
+        LowerLayerEndpoint serverEndpoint = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 0, 2000, 0.005);
+        Receiver receiver = new Receiver(serverEndpoint, 2, TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(expected(), transfer(receiver, serverEndpoint, 0, new RenoController(true, true)));
+        assertTrue("sent " + receiver.getAcksSent() + " ACKs", receiver.getAcksSent() < LINES * 0.6);
+    }
+
+    @Test public void streamingWritesCoalesceIntoFullSegments() throws Exception {
+        int segments = streamTransfer(false);
+        // 4500 bytes fit in four full segments; allow a few partials released by ACKs
+        assertTrue("wrote " + segments + " segments", segments < LINES / 10);
+    }
+
+    @Test public void noDelaySendsEveryWrite() throws Exception {
+        assertEquals(LINES + 1, streamTransfer(true));
+    }
+
+    @Test public void slowReaderIsFlowControlled() throws Exception {
+        int recvBufferSize = 2 * Packet.MAX_DATA_SIZE;
+        LowerLayerEndpoint serverEndpoint = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 0, 2000, 0.005);
+        Receiver receiver = new Receiver(serverEndpoint, 1, TimeUnit.MILLISECONDS.toNanos(20), recvBufferSize);
+        LowerLayerEndpoint clientEndpoint = new LowerLayerEndpoint(null,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), serverEndpoint.getLocalPort()),
+                0, 2000, 0.005);
+        Sender sender = new Sender(clientEndpoint, new RenoController(true, true), false, TimerWheel.getDefault(),
+                INITIAL_SEQ);
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        Future<String> received = reader.submit(() -> {
+            // Let the window close before reading, then drain in small pieces
+            Thread.sleep(300);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[64];
+            int maxBuffered = 0;
+            while (out.size() < expected().length()) {
+                maxBuffered = Math.max(maxBuffered, receiver.getBufferedBytes());
+                out.write(chunk, 0, receiver.read(chunk, 0, chunk.length));
+            }
+            assertTrue("buffered " + maxBuffered + " bytes", maxBuffered <= recvBufferSize);
+            return out.toString(StandardCharsets.US_ASCII);
+        });
+
+        for (int i = 1; i <= LINES; i++) {
+            sender.send(String.format("Line%04d\n", i).getBytes(StandardCharsets.US_ASCII));
+        }
+        try {
+            assertEquals(expected(), received.get(60, TimeUnit.SECONDS));
+        } finally {
+            reader.shutdownNow();
+            sender.shutdown();
+        }
+    }
+
+    private static void awaitAcked(Sender sender) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (sender.getOutstandingBytes() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("bytes not acknowledged", 0, sender.getOutstandingBytes());
+    }
+
+    @Test public void malformedDatagramsAreDropped() throws Exception {
+        LowerLayerEndpoint serverEndpoint = new LowerLayerEndpoint(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 0, 2000, 0.005);
+        Receiver receiver = new Receiver(serverEndpoint);
+        LowerLayerEndpoint clientEndpoint = new LowerLayerEndpoint(null,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), serverEndpoint.getLocalPort()),
+                0, 2000, 0.005);
+        byte[] tooShort = new byte[3];
+        byte[] unknownType = new byte[Packet.HEADER_SIZE];
+        unknownType[Packet.TYPE_OFFSET] = 0x7F;
+        // Both reach the receiver ahead of the SYN
+        clientEndpoint.send(tooShort);
+        clientEndpoint.send(unknownType);
+        Sender sender = new Sender(clientEndpoint, new RenoController(true, true), false, TimerWheel.getDefault(),
+                INITIAL_SEQ);
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        Future<String> received = readAll(reader, receiver);
+        try {
+            for (int i = 1; i <= LINES / 2; i++) {
+                sender.send(String.format("Line%04d\n", i).getBytes(StandardCharsets.US_ASCII));
+            }
+            awaitAcked(sender);
+            // The receiver's endpoint now knows the sender's address: send it the same garbage
+            serverEndpoint.send(tooShort);
+            serverEndpoint.send(unknownType);
+            for (int i = LINES / 2 + 1; i <= LINES; i++) {
+                sender.send(String.format("Line%04d\n", i).getBytes(StandardCharsets.US_ASCII));
+            }
+            assertEquals(expected(), received.get(60, TimeUnit.SECONDS));
+            // Only a live receive thread on the sender takes in the ACKs for the second half
+            awaitAcked(sender);
+        } finally {
+            reader.shutdownNow();
+            sender.shutdown();
+            receiver.shutdown();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.example.protocol;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+    private final TimerWheel wheel = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(1), 64);
+
+    @After public void tearDown() {
+        wheel.shutdown();
+    }
+
+    @Test public void firesAfterDelay() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        TimerService.Timeout timeout = wheel.newTimeout(fired::countDown);
+        long start = System.nanoTime();
+        timeout.rearm(TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(timeout.isArmed());
+
+        assertTrue(fired.await(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertFalse(timeout.isArmed());
+    }
+
+    @Test public void firesDeadlinesBeyondOneRevolution() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        TimerService.Timeout timeout = wheel.newTimeout(fired::countDown);
+        long start = System.nanoTime();
+        timeout.rearm(TimeUnit.MILLISECONDS.toNanos(150));
+
+        assertTrue(fired.await(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    @Test public void cancelledTimeoutDoesNotFire() throws InterruptedException {
+        AtomicInteger fired = new AtomicInteger();
+        TimerService.Timeout timeout = wheel.newTimeout(fired::incrementAndGet);
+        timeout.rearm(TimeUnit.MILLISECONDS.toNanos(10));
+        timeout.cancel();
+
+        Thread.sleep(50);
+        assertEquals(0, fired.get());
+        assertFalse(timeout.isArmed());
+    }
+
+    @Test public void rearmPushesDeadlineBack() throws InterruptedException {
+        AtomicInteger fired = new AtomicInteger();
+        TimerService.Timeout timeout = wheel.newTimeout(fired::incrementAndGet);
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        while (System.nanoTime() < end) {
+            timeout.rearm(TimeUnit.MILLISECONDS.toNanos(30));
+        }
+        assertEquals(0, fired.get());
+
+        Thread.sleep(100);
+        assertEquals(1, fired.get());
+    }
+}
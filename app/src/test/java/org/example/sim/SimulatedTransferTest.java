@@ -0,0 +1,67 @@
+package org.example.sim;
+
+import org.example.protocol.BbrController;
+import org.example.protocol.RenoController;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SimulatedTransferTest {
+    private static final LinkModel LOSSY = LinkModel.of(1000, 0.05)
+            .withLoss(0.02).withJitter(0.01).withReorder(0.01).withDuplicate(0.01).withQueueSize(100);
+
+    @Test public void cleanLinkRunsAtLinkRate() {
+        LinkModel clean = LinkModel.of(1000, 0.05);
+        SimulatedTransfer.Result result = SimulatedTransfer.run(1, clean, clean,
+                new RenoController(true, true), false, 1_000_000, 600);
+
+        assertTrue(result.toString(), result.completed());
+        assertEquals(0, result.packetsLost());
+        // 715 full segments at 1000 packets/s cannot take less than 0.7 s
+        assertTrue(result.toString(), result.elapsedNanos() > 700_000_000L);
+    }
+
+    @Test public void sameSeedGivesSameRun() {
+        SimulatedTransfer.Result first = SimulatedTransfer.run(7, LOSSY, LOSSY,
+                new RenoController(true, true), false, 2_000_000, 3600);
+        SimulatedTransfer.Result second = SimulatedTransfer.run(7, LOSSY, LOSSY,
+                new RenoController(true, true), false, 2_000_000, 3600);
+
+        assertTrue(first.toString(), first.completed());
+        assertTrue(first.packetsLost() > 0);
+        assertEquals(first, second);
+    }
+
+    @Test public void longLossyTransferSimulatesQuickly() {
+        LinkModel slow = LinkModel.of(50, 0.1).withLoss(0.01);
+        long start = System.nanoTime();
+        SimulatedTransfer.Result result = SimulatedTransfer.run(5, slow, slow,
+                new RenoController(true, true), false, 5_000_000, 7200);
+        long wallNanos = System.nanoTime() - start;
+
+        assertTrue(result.toString(), result.completed());
+        assertTrue(result.toString(), result.elapsedNanos() > 60_000_000_000L);
+        assertTrue("took " + wallNanos / 1_000_000 + " ms", wallNanos < result.elapsedNanos() / 10);
+    }
+
+    @Test public void pacingAvoidsQueueDropsAtBottleneck() {
+        // A 10-packet bottleneck queue: unpaced slow start bursts overflow it, paced sends do not
+        LinkModel bottleneck = LinkModel.of(1000, 0.05).withQueueSize(10);
+        LinkModel back = LinkModel.of(1000, 0.05);
+        SimulatedTransfer.Result bursty = SimulatedTransfer.run(11, bottleneck, back,
+                new RenoController(true, true), false, 4_000_000, 3600);
+        SimulatedTransfer.Result paced = SimulatedTransfer.run(11, bottleneck, back,
+                new RenoController(true, true), true, 4_000_000, 3600);
+
+        assertTrue(bursty.toString(), bursty.completed());
+        assertTrue(paced.toString(), paced.completed());
+        assertTrue(paced + " vs " + bursty, paced.packetsDropped() < bursty.packetsDropped());
+        assertTrue(paced + " vs " + bursty, paced.goodput() >= bursty.goodput() * 0.9);
+    }
+
+    @Test public void pacedBbrCompletesOverLossyLink() {
+        SimulatedTransfer.Result result = SimulatedTransfer.run(3, LOSSY, LOSSY,
+                new BbrController(), true, 2_000_000, 3600);
+        assertTrue(result.toString(), result.completed());
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.sim;
+
+import org.example.protocol.TimerService;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class VirtualClockTest {
+    @Test public void runsEventsInTimeThenSchedulingOrder() {
+        VirtualClock clock = new VirtualClock();
+        List<String> order = new ArrayList<>();
+        clock.schedule(200, () -> order.add("c"));
+        clock.schedule(100, () -> order.add("a"));
+        clock.schedule(100, () -> order.add("b"));
+
+        while (clock.runNext()) {
+        }
+        assertEquals(List.of("a", "b", "c"), order);
+        assertEquals(200, clock.nanoTime());
+    }
+
+    @Test public void rearmReplacesDeadlineAndCancelDisarms() {
+        VirtualClock clock = new VirtualClock();
+        List<Long> fired = new ArrayList<>();
+        TimerService.Timeout timeout = clock.newTimeout(() -> fired.add(clock.nanoTime()));
+
+        timeout.rearm(100);
+        timeout.rearm(300);
+        clock.runUntil(1000);
+        assertEquals(List.of(300L), fired);
+        assertFalse(timeout.isArmed());
+
+        timeout.rearm(100);
+        timeout.cancel();
+        clock.runUntil(2000);
+        assertEquals(List.of(300L), fired);
+        assertEquals(2000, clock.nanoTime());
+    }
+}
@@ -0,0 +1,115 @@
+package org.example.trace;
+
+import org.example.protocol.CongestionController;
+import org.example.sim.LinkModel;
+import org.example.sim.SimulatedTransfer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FlightRecorderTest {
+    @Test public void keepsTheNewestRecordsInOrder() {
+        FlightRecorder recorder = new FlightRecorder(6);
+        assertEquals(8, recorder.getCapacity());
+        for (int i = 0; i < 20; i++) {
+            recorder.record(TraceEvent.TRANSMIT, 1000 + i, 7, i, 1409);
+        }
+        List<TraceRecord> records = recorder.snapshot();
+        assertEquals(8, records.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(new TraceRecord(1012 + i, TraceEvent.TRANSMIT, 7, 12 + i, 1409), records.get(i));
+        }
+        assertEquals(20, recorder.getRecorded());
+    }
+
+    @Test public void disabledRecorderKeepsNothing() {
+        FlightRecorder recorder = new FlightRecorder(16);
+        recorder.setEnabled(false);
+        recorder.record(TraceEvent.ACK, 1, 1, 1, 1);
+        assertTrue(recorder.snapshot().isEmpty());
+        recorder.setEnabled(true);
+        recorder.record(TraceEvent.ACK, 1, 1, 1, 1);
+        recorder.clear();
+        assertTrue(recorder.snapshot().isEmpty());
+    }
+
+    @Test public void dumpRoundTrips() throws IOException {
+        FlightRecorder recorder = new FlightRecorder(16);
+        recorder.record(TraceEvent.CWND, 5, -3, Integer.MAX_VALUE, 12_500);
+        recorder.record(TraceEvent.DROP, Long.MAX_VALUE, 40000, -1, 46);
+        recorder.record(TraceEvent.RTT, 0, Integer.MIN_VALUE, 0, -1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.dump(out);
+        assertEquals(10 + 3 * 25, out.size());
+        assertEquals(recorder.snapshot(), TraceReader.read(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        TraceReader.read(new ByteArrayInputStream("not a trace dump".getBytes()));
+    }
+
+    @Test public void concurrentWritersNeverTearRecords() throws InterruptedException {
+        FlightRecorder recorder = new FlightRecorder(1024);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 200_000; i++) {
+                    // Every field derives from i, so a record mixing two writes is detectable
+                    recorder.record(TraceEvent.TRANSMIT, i, id, i, (long) i * id);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        long checked = 0;
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            for (TraceRecord record : recorder.snapshot()) {
+                assertEquals(record.timeNanos(), record.seq());
+                assertEquals(record.seq() * (long) record.id(), record.value());
+                checked++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(800_000, recorder.getRecorded());
+        assertTrue(recorder.snapshot().size() <= 1024);
+        assertTrue(checked > 0);
+    }
+
+    @Test public void simulatedTransferTraceRendersPlots() {
+        FlightRecorder recorder = FlightRecorder.getDefault();
+        recorder.clear();
+        LinkModel link = new LinkModel(1000, 0.02, 0, 0.01, 0, 0, 50);
+        SimulatedTransfer.Result result = SimulatedTransfer.run(3, link, link,
+                CongestionController.forName("reno", true, true), false, 500_000, 60);
+        assertTrue(result.toString(), result.completed());
+
+        List<TraceRecord> records = recorder.snapshot();
+        assertEquals(1, TracePlot.connections(records).size());
+        int id = TracePlot.connections(records).first();
+        Map<TraceEvent, Integer> summary = TracePlot.summary(records, id);
+        assertTrue(summary.toString(), summary.get(TraceEvent.TRANSMIT) >= 500_000 / 1400);
+        assertTrue(summary.toString(), summary.get(TraceEvent.RETRANSMIT) > 0);
+        assertTrue(summary.toString(), summary.get(TraceEvent.CWND) > 1);
+        assertTrue(summary.toString(), summary.get(TraceEvent.RTT) > 0);
+
+        Map<String, SvgChart> plots = TracePlot.plots(records, id);
+        assertEquals(List.of("cwnd", "rtt", "seq"), List.copyOf(plots.keySet()));
+        for (SvgChart chart : plots.values()) {
+            assertFalse(chart.isEmpty());
+            String svg = chart.render();
+            assertTrue(svg.startsWith("<svg"));
+            assertTrue(svg.endsWith("</svg>\n"));
+        }
+    }
+}
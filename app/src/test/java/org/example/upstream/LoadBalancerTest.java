@@ -0,0 +1,84 @@
+package org.example.upstream;
+
+import org.example.network.LowerLayerEndpoint;
+import org.example.protocol.RenoController;
+import org.example.protocol.Sender;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LoadBalancerTest {
+    private static List<Upstream> upstreams(int count) {
+        List<Upstream> upstreams = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 9000 + i);
+            upstreams.add(new Upstream(address, () -> new Sender(
+                    new LowerLayerEndpoint(null, address, 0, 2000, 0.005), new RenoController(true, true)), 0));
+        }
+        return upstreams;
+    }
+
+    private static InetSocketAddress client(int host) {
+        return new InetSocketAddress("10.0." + (host >> 8) + "." + (host & 0xff), 40000 + host);
+    }
+
+    @Test public void roundRobinCyclesThroughUpstreams() {
+        List<Upstream> upstreams = upstreams(3);
+        LoadBalancer balancer = LoadBalancer.forName("round-robin");
+        for (int i = 0; i < 6; i++) {
+            assertSame(upstreams.get(i % 3), balancer.choose(upstreams, client(i)));
+        }
+    }
+
+    @Test public void leastBytesPrefersIdleUpstream() {
+        List<Upstream> upstreams = upstreams(2);
+        Sender busy = upstreams.get(0).acquire();
+        LoadBalancer balancer = LoadBalancer.forName("least-bytes");
+        assertSame(upstreams.get(1), balancer.choose(upstreams, client(0)));
+        busy.shutdown();
+    }
+
+    @Test public void hashKeepsClientHostOnOneUpstream() {
+        List<Upstream> upstreams = upstreams(4);
+        LoadBalancer balancer = LoadBalancer.forName("hash");
+        InetSocketAddress first = client(7);
+        Upstream chosen = balancer.choose(upstreams, first);
+        // Same host, different port
+        assertSame(chosen, balancer.choose(upstreams, new InetSocketAddress(first.getAddress(), 50000)));
+    }
+
+    @Test public void hashSpreadsAndMovesFewClientsWhenUpstreamAdded() {
+        List<Upstream> four = upstreams(5).subList(0, 4);
+        List<Upstream> five = new ArrayList<>(four);
+        five.add(upstreams(5).get(4));
+        LoadBalancer balancer = LoadBalancer.forName("hash");
+
+        Map<Upstream, Integer> counts = new HashMap<>();
+        int moved = 0;
+        int clients = 4000;
+        for (int i = 0; i < clients; i++) {
+            Upstream before = balancer.choose(four, client(i));
+            counts.merge(before, 1, Integer::sum);
+            if (balancer.choose(five, client(i)) != before) {
+                moved++;
+            }
+        }
+        for (Upstream upstream : four) {
+            assertTrue(upstream + " got " + counts.get(upstream), counts.getOrDefault(upstream, 0) > clients / 8);
+        }
+        // Ideally a fifth of the clients move to the new upstream; all of them would with modulo hashing
+        assertTrue("moved " + moved, moved < clients / 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownNameIsRejected() {
+        LoadBalancer.forName("random");
+    }
+}